@@ -0,0 +1,126 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Disk cache of album art extracted from folder scans, shared by all
+ * tracks of an album and served to the WebView by LocalMediaHandler.
+ *
+ * Kept under MAX_BYTES by evicting the least recently served covers;
+ * serving a cover bumps its modification time. An evicted cover is
+ * extracted again by the next scan of its folder.
+ */
+public final class AlbumArtCache implements CacheManager.Trimmable {
+
+    private static final String TAG = "FlowArtCache";
+    public static final String DIR_NAME = "album_covers";
+    private static final long MAX_BYTES = 128L * 1024 * 1024;
+    private static final long TOUCH_GRANULARITY_MS = 60L * 60 * 1000;
+
+    private static AlbumArtCache instance;
+
+    private final File dir;
+
+    private AlbumArtCache(Context context) {
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        CacheManager.get(context).register(this);
+    }
+
+    public static synchronized AlbumArtCache get(Context context) {
+        if (instance == null) {
+            instance = new AlbumArtCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public File dir() {
+        return dir;
+    }
+
+    /**
+     * Stores the cover unless one already exists for the name. Returns its path, or null.
+     */
+    public String put(String name, byte[] data) {
+        if (data == null || data.length == 0) return null;
+        try {
+            if (!dir.exists()) dir.mkdirs();
+            File file = new File(dir, name + ".jpg");
+            // Albums share a file keyed by album ID, so the first track's art is reused
+            if (file.exists() && file.length() > 0) {
+                return file.getAbsolutePath();
+            }
+
+            // Parallel workers may extract the same album; write privately and rename
+            File tmp = new File(dir, name + "." + Thread.currentThread().getId() + ".tmp");
+            try (FileOutputStream fos = new FileOutputStream(tmp)) {
+                fos.write(data);
+            }
+            if (!tmp.renameTo(file)) tmp.delete();
+            return file.getAbsolutePath();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Marks a cover as recently used. Coarse, so serving a grid of covers
+     * doesn't turn into a metadata write per request.
+     */
+    public void touch(File file) {
+        long now = System.currentTimeMillis();
+        if (now - file.lastModified() > TOUCH_GRANULARITY_MS) file.setLastModified(now);
+    }
+
+    /**
+     * Evicts least recently used covers until the cache fits. Does disk I/O; call off the main thread.
+     */
+    public void enforceLimit() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File file : files) total += file.length();
+        if (total <= MAX_BYTES) return;
+
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        int evicted = 0;
+        for (File file : files) {
+            if (total <= MAX_BYTES * 3 / 4) break; // Leave headroom so every scan doesn't evict
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                evicted++;
+            }
+        }
+        Log.d(TAG, "Evicted " + evicted + " covers, " + (total / 1024) + " KB left");
+    }
+
+    @Override
+    public String cacheName() {
+        return "albumCovers";
+    }
+
+    @Override
+    public long memoryBytes() {
+        return 0;
+    }
+
+    @Override
+    public long diskBytes() {
+        File[] files = dir.listFiles();
+        long total = 0;
+        if (files != null) {
+            for (File file : files) total += file.length();
+        }
+        return total;
+    }
+
+    /**
+     * Nothing on the heap; the disk limit is enforced after scans instead.
+     */
+    @Override
+    public void trim(int tier) {}
+}
@@ -0,0 +1,365 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.audiofx.BassBoost;
+import android.media.audiofx.DynamicsProcessing;
+import android.media.audiofx.Equalizer;
+import android.os.Build;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.json.JSONArray;
+
+/**
+ * Equalizer, bass boost, preamp and a limiter applied natively, plus the
+ * per-track gain the WebView applies for volume normalization.
+ *
+ * Audio is rendered by the WebView, whose session ID isn't exposed, so the
+ * effects can only attach to the global output mix (session 0). On Android
+ * 9+ a single DynamicsProcessing instance provides a 10-band pre-EQ, input
+ * gain and a limiter; older devices fall back to the platform Equalizer and
+ * BassBoost, with the preamp folded into the EQ bands and no limiter. Many
+ * recent devices refuse or ignore effects on session 0; describe() reports
+ * that so Settings can say so.
+ *
+ * The output mix carries every app's audio (navigation prompts, calls,
+ * other players), so MediaPlaybackService only attaches the effects while
+ * we are playing and releases them on pause or stop. Per-track gain would
+ * change other apps' levels too, so it isn't applied here: trackGain()
+ * hands the value to the WebView, which applies it to its own output. The
+ * plugin edits the settings at any time; they live in SharedPreferences so
+ * the service can restore them without the WebView.
+ */
+public final class AudioEffectsChain {
+
+    private static final String TAG = "FlowEffects";
+    private static final String PREFS = "flow_audio_effects";
+    private static final int SESSION_OUTPUT_MIX = 0;
+
+    /** Centre frequencies of the EQ bands, in Hz. */
+    public static final int[] BAND_FREQUENCIES = { 31, 62, 125, 250, 500, 1000, 2000, 4000, 8000, 16000 };
+    public static final float MAX_BAND_GAIN = 12f;
+    private static final float MAX_BASS_BOOST = 9f; // dB added below ~125 Hz at full strength
+    private static final float LIMITER_THRESHOLD = -1f;
+
+    public static final String GAIN_OFF = "off";
+    public static final String GAIN_TRACK = "track";
+    public static final String GAIN_ALBUM = "album";
+
+    public static final Map<String, float[]> PRESETS = new LinkedHashMap<>();
+    static {
+        PRESETS.put("flat", new float[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0 });
+        PRESETS.put("bass", new float[] { 6, 5, 4, 2, 0, 0, 0, 0, 0, 0 });
+        PRESETS.put("treble", new float[] { 0, 0, 0, 0, 0, 1, 2, 4, 5, 6 });
+        PRESETS.put("vocal", new float[] { -2, -2, -1, 0, 2, 3, 3, 2, 0, -1 });
+        PRESETS.put("rock", new float[] { 4, 3, 2, 0, -1, -1, 0, 2, 3, 4 });
+        PRESETS.put("pop", new float[] { -1, 0, 2, 3, 3, 2, 0, -1, -1, -1 });
+        PRESETS.put("jazz", new float[] { 3, 2, 1, 2, -1, -1, 0, 1, 2, 3 });
+        PRESETS.put("classical", new float[] { 4, 3, 2, 1, -1, -1, 0, 2, 3, 4 });
+        PRESETS.put("electronic", new float[] { 5, 4, 1, 0, -2, 1, 0, 1, 4, 5 });
+        PRESETS.put("late_night", new float[] { 3, 2, 1, 0, 0, 0, 1, 2, 1, 0 });
+    }
+
+    public static final class Settings {
+        public boolean enabled = false;
+        public String preset = "flat";
+        public float[] bands = PRESETS.get("flat").clone();
+        public float bassBoost = 0f; // 0..1
+        public float preamp = 0f; // dB
+        public String gainMode = GAIN_OFF;
+        public boolean limiter = true;
+
+        static Settings load(Context context) {
+            SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+            Settings settings = new Settings();
+            settings.enabled = prefs.getBoolean("enabled", false);
+            settings.preset = prefs.getString("preset", "flat");
+            settings.bassBoost = prefs.getFloat("bassBoost", 0f);
+            settings.preamp = prefs.getFloat("preamp", 0f);
+            settings.gainMode = prefs.getString("gainMode", GAIN_OFF);
+            settings.limiter = prefs.getBoolean("limiter", true);
+            for (int i = 0; i < BAND_FREQUENCIES.length; i++) {
+                settings.bands[i] = prefs.getFloat("band" + i, 0f);
+            }
+            return settings;
+        }
+
+        void save(Context context) {
+            SharedPreferences.Editor editor = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit();
+            editor.putBoolean("enabled", enabled);
+            editor.putString("preset", preset);
+            editor.putFloat("bassBoost", bassBoost);
+            editor.putFloat("preamp", preamp);
+            editor.putString("gainMode", gainMode);
+            editor.putBoolean("limiter", limiter);
+            for (int i = 0; i < BAND_FREQUENCIES.length; i++) {
+                editor.putFloat("band" + i, bands[i]);
+            }
+            editor.apply();
+        }
+
+        /**
+         * Applies the fields present in a JS settings object. A preset
+         * replaces the bands; explicit bands switch to "custom".
+         */
+        void update(JSObject data) {
+            if (data.has("enabled")) enabled = data.optBoolean("enabled");
+            if (data.has("preset")) {
+                float[] values = PRESETS.get(data.optString("preset"));
+                if (values != null) {
+                    preset = data.optString("preset");
+                    bands = values.clone();
+                }
+            }
+            JSONArray gains = data.optJSONArray("bands");
+            if (gains != null && gains.length() == BAND_FREQUENCIES.length) {
+                for (int i = 0; i < bands.length; i++) {
+                    bands[i] = clamp((float) gains.optDouble(i, 0), -MAX_BAND_GAIN, MAX_BAND_GAIN);
+                }
+                preset = "custom";
+            }
+            if (data.has("bassBoost")) bassBoost = clamp((float) data.optDouble("bassBoost"), 0f, 1f);
+            if (data.has("preamp")) preamp = clamp((float) data.optDouble("preamp"), -MAX_BAND_GAIN, MAX_BAND_GAIN);
+            if (data.has("gainMode")) {
+                String mode = data.optString("gainMode");
+                if (GAIN_TRACK.equals(mode) || GAIN_ALBUM.equals(mode)) {
+                    gainMode = mode;
+                } else {
+                    gainMode = GAIN_OFF;
+                }
+            }
+            if (data.has("limiter")) limiter = data.optBoolean("limiter");
+        }
+
+        JSObject toJSObject() {
+            JSObject json = new JSObject();
+            json.put("enabled", enabled);
+            json.put("preset", preset);
+            JSArray gains = new JSArray();
+            for (float band : bands) gains.put((double) band);
+            json.put("bands", gains);
+            json.put("bassBoost", (double) bassBoost);
+            json.put("preamp", (double) preamp);
+            json.put("gainMode", gainMode);
+            json.put("limiter", limiter);
+            return json;
+        }
+    }
+
+    private static AudioEffectsChain instance;
+
+    private final Context context;
+    private Settings settings;
+    private boolean active = false;
+    private boolean refused = false;
+
+    private DynamicsProcessing dynamics;
+    private Equalizer equalizer;
+    private BassBoost bass;
+
+    private AudioEffectsChain(Context context) {
+        this.context = context;
+        this.settings = Settings.load(context);
+    }
+
+    public static synchronized AudioEffectsChain get(Context context) {
+        if (instance == null) {
+            instance = new AudioEffectsChain(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Merges, saves and applies settings from JS.
+     */
+    public synchronized void update(JSObject data) {
+        settings.update(data);
+        settings.save(context);
+        apply();
+    }
+
+    /**
+     * ReplayGain-style gain in dB for a track under the current mode, 0 when
+     * off or not analysed. May load the library index; call off the main thread.
+     */
+    public float trackGain(String trackId) {
+        String mode;
+        synchronized (this) {
+            mode = settings.gainMode;
+        }
+        if (GAIN_OFF.equals(mode) || trackId == null || trackId.isEmpty()) return 0f;
+
+        JSObject info = LibraryIndex.get(context).gainFor(trackId);
+        if (info == null) return 0f;
+        boolean album = GAIN_ALBUM.equals(mode) && info.has("albumGain");
+        float gain = (float) info.optDouble(album ? "albumGain" : "trackGain", 0);
+        // The WebView has no limiter, so don't push the true peak over full scale
+        double peak = info.optDouble(album ? "albumPeak" : "peak", 0);
+        if (peak > 0) gain = Math.min(gain, (float) (-20.0 * Math.log10(peak)));
+        return gain;
+    }
+
+    /**
+     * Attaches the effects while we are playing and releases them otherwise.
+     */
+    public synchronized void setActive(boolean playing) {
+        if (playing == active) return;
+        active = playing;
+        if (playing) {
+            apply();
+        } else {
+            release();
+        }
+    }
+
+    public synchronized void apply() {
+        if (!active) return; // Saved; attached on the next play
+        if (!settings.enabled && dynamics == null && equalizer == null) return;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                applyDynamics();
+            } else {
+                applyLegacy();
+            }
+        } catch (Exception e) {
+            // Some devices refuse effects on the output mix
+            Log.w(TAG, "Failed to apply effects: " + e.getMessage());
+            refused = true;
+            release();
+            return;
+        }
+        refused = false;
+    }
+
+    private void applyDynamics() {
+        if (!settings.enabled) {
+            if (dynamics != null) dynamics.setEnabled(false);
+            return;
+        }
+        if (dynamics == null) {
+            DynamicsProcessing.Config config = new DynamicsProcessing.Config.Builder(
+                DynamicsProcessing.VARIANT_FAVOR_FREQUENCY_RESOLUTION,
+                2,
+                true, BAND_FREQUENCIES.length,
+                false, 0,
+                false, 0,
+                true
+            ).build();
+            dynamics = new DynamicsProcessing(0, SESSION_OUTPUT_MIX, config);
+        }
+
+        float[] curve = curve();
+        DynamicsProcessing.Eq eq = new DynamicsProcessing.Eq(true, true, BAND_FREQUENCIES.length);
+        for (int i = 0; i < BAND_FREQUENCIES.length; i++) {
+            // Bands are defined by their upper edge: halfway (in octaves) to the next centre
+            float cutoff = i + 1 < BAND_FREQUENCIES.length
+                ? (float) Math.sqrt((double) BAND_FREQUENCIES[i] * BAND_FREQUENCIES[i + 1])
+                : 20000f;
+            eq.setBand(i, new DynamicsProcessing.EqBand(true, cutoff, curve[i]));
+        }
+        dynamics.setPreEqAllChannelsTo(eq);
+
+        dynamics.setLimiterAllChannelsTo(new DynamicsProcessing.Limiter(
+            true, settings.limiter, 0, 1f, 60f, 10f, LIMITER_THRESHOLD, 0f));
+        dynamics.setInputGainAllChannelsTo(settings.preamp);
+        dynamics.setEnabled(true);
+    }
+
+    private void applyLegacy() {
+        if (!settings.enabled) {
+            if (equalizer != null) equalizer.setEnabled(false);
+            if (bass != null) bass.setEnabled(false);
+            return;
+        }
+        if (equalizer == null) equalizer = new Equalizer(0, SESSION_OUTPUT_MIX);
+
+        // The platform EQ has its own (usually 5) bands; sample our curve at their centres
+        float[] curve = settings.bands;
+        short[] range = equalizer.getBandLevelRange();
+        float offset = settings.preamp;
+        for (short band = 0; band < equalizer.getNumberOfBands(); band++) {
+            float hz = equalizer.getCenterFreq(band) / 1000f;
+            int level = Math.round((interpolate(curve, hz) + offset) * 100); // millibels
+            equalizer.setBandLevel(band, (short) Math.max(range[0], Math.min(range[1], level)));
+        }
+        equalizer.setEnabled(true);
+
+        if (settings.bassBoost > 0) {
+            if (bass == null) bass = new BassBoost(0, SESSION_OUTPUT_MIX);
+            if (bass.getStrengthSupported()) bass.setStrength((short) Math.round(settings.bassBoost * 1000));
+            bass.setEnabled(true);
+        } else if (bass != null) {
+            bass.setEnabled(false);
+        }
+    }
+
+    /**
+     * Band gains with bass boost shelved in below ~125 Hz.
+     */
+    private float[] curve() {
+        float[] gains = settings.bands.clone();
+        float boost = settings.bassBoost * MAX_BASS_BOOST;
+        for (int i = 0; i < gains.length; i++) {
+            if (BAND_FREQUENCIES[i] <= 62) {
+                gains[i] += boost;
+            } else if (BAND_FREQUENCIES[i] <= 125) {
+                gains[i] += boost / 2;
+            }
+            gains[i] = clamp(gains[i], -MAX_BAND_GAIN - MAX_BASS_BOOST, MAX_BAND_GAIN + MAX_BASS_BOOST);
+        }
+        return gains;
+    }
+
+    /**
+     * Gain at an arbitrary frequency, linear in log-frequency between band centres.
+     */
+    static float interpolate(float[] gains, float hz) {
+        if (hz <= BAND_FREQUENCIES[0]) return gains[0];
+        int last = BAND_FREQUENCIES.length - 1;
+        if (hz >= BAND_FREQUENCIES[last]) return gains[last];
+        for (int i = 0; i < last; i++) {
+            if (hz < BAND_FREQUENCIES[i + 1]) {
+                double t = Math.log(hz / BAND_FREQUENCIES[i]) / Math.log((double) BAND_FREQUENCIES[i + 1] / BAND_FREQUENCIES[i]);
+                return (float) (gains[i] + t * (gains[i + 1] - gains[i]));
+            }
+        }
+        return gains[last];
+    }
+
+    public synchronized JSObject describe() {
+        JSObject json = settings.toJSObject();
+        json.put("active", active);
+        json.put("engine", Build.VERSION.SDK_INT >= Build.VERSION_CODES.P ? "dynamics" : "legacy");
+        json.put("outputMix", true); // Applies to all audio on the device
+        json.put("refused", refused);
+        JSArray frequencies = new JSArray();
+        for (int hz : BAND_FREQUENCIES) frequencies.put(hz);
+        json.put("frequencies", frequencies);
+        JSArray presets = new JSArray();
+        for (String name : PRESETS.keySet()) presets.put(name);
+        json.put("presets", presets);
+        return json;
+    }
+
+    public synchronized void release() {
+        if (dynamics != null) {
+            dynamics.release();
+            dynamics = null;
+        }
+        if (equalizer != null) {
+            equalizer.release();
+            equalizer = null;
+        }
+        if (bass != null) {
+            bass.release();
+            bass = null;
+        }
+    }
+
+    private static float clamp(float value, float min, float max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
@@ -0,0 +1,157 @@
+package com.coflyn.flow;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.SystemClock;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Central registry for the native caches, shrinking them in tiers when the
+ * system reports memory pressure so the process stops being the first one
+ * the low-memory killer picks during long background playback.
+ *
+ *   TRIM_LIGHT     UI hidden / running moderate: drop derived results that
+ *                  are cheap to recompute (smart lists, lyrics, pre-warm)
+ *   TRIM_MODERATE  background / running low: also drop browse groupings
+ *                  and other rebuildable indexes
+ *   TRIM_FULL      moderate+ in background, running critical, low memory:
+ *                  everything that isn't on screen, including idle art
+ */
+public final class CacheManager implements ComponentCallbacks2 {
+
+    private static final String TAG = "FlowCaches";
+
+    public static final int TRIM_LIGHT = 1;
+    public static final int TRIM_MODERATE = 2;
+    public static final int TRIM_FULL = 3;
+
+    public interface Trimmable {
+        String cacheName();
+
+        /** Estimated heap held by the cache. */
+        long memoryBytes();
+
+        /** Bytes on disk, for caches that also keep files. */
+        default long diskBytes() {
+            return 0;
+        }
+
+        void trim(int tier);
+    }
+
+    private static CacheManager instance;
+
+    private final List<Trimmable> caches = new ArrayList<>();
+    private int lastTier = 0;
+    private long lastTrimAt = 0;
+
+    private CacheManager() {}
+
+    public static synchronized CacheManager get(Context context) {
+        if (instance == null) {
+            instance = new CacheManager();
+            context.getApplicationContext().registerComponentCallbacks(instance);
+        }
+        return instance;
+    }
+
+    public synchronized void register(Trimmable cache) {
+        if (!caches.contains(cache)) caches.add(cache);
+    }
+
+    public synchronized void unregister(Trimmable cache) {
+        caches.remove(cache);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        int tier = tierFor(level);
+        if (tier > 0) trim(tier);
+    }
+
+    @Override
+    public void onLowMemory() {
+        trim(TRIM_FULL);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {}
+
+    static int tierFor(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) return TRIM_FULL;
+        if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) return TRIM_MODERATE;
+        if (level >= TRIM_MEMORY_UI_HIDDEN || level == TRIM_MEMORY_RUNNING_MODERATE) return TRIM_LIGHT;
+        return 0;
+    }
+
+    public void trim(int tier) {
+        List<Trimmable> targets;
+        synchronized (this) {
+            targets = new ArrayList<>(caches);
+            lastTier = tier;
+            lastTrimAt = System.currentTimeMillis();
+        }
+        long before = 0;
+        long after = 0;
+        long started = SystemClock.elapsedRealtime();
+        for (Trimmable cache : targets) {
+            try {
+                before += cache.memoryBytes();
+                cache.trim(tier);
+                after += cache.memoryBytes();
+            } catch (Exception e) {
+                Log.w(TAG, "Trim failed for " + cache.cacheName() + ": " + e.getMessage());
+            }
+        }
+        Log.d(TAG, "Trim tier " + tier + " freed " + ((before - after) / 1024) + " KB in "
+            + (SystemClock.elapsedRealtime() - started) + " ms");
+    }
+
+    /**
+     * Per-cache usage plus the Java heap, for getCacheStats.
+     */
+    public JSObject stats() {
+        List<Trimmable> targets;
+        int tier;
+        long trimmedAt;
+        synchronized (this) {
+            targets = new ArrayList<>(caches);
+            tier = lastTier;
+            trimmedAt = lastTrimAt;
+        }
+
+        JSArray list = new JSArray();
+        long memory = 0;
+        long disk = 0;
+        for (Trimmable cache : targets) {
+            JSObject entry = new JSObject();
+            long memoryBytes = cache.memoryBytes();
+            long diskBytes = cache.diskBytes();
+            entry.put("name", cache.cacheName());
+            entry.put("memoryBytes", memoryBytes);
+            entry.put("diskBytes", diskBytes);
+            list.put(entry);
+            memory += memoryBytes;
+            disk += diskBytes;
+        }
+
+        Runtime runtime = Runtime.getRuntime();
+        JSObject heap = new JSObject();
+        heap.put("usedBytes", runtime.totalMemory() - runtime.freeMemory());
+        heap.put("maxBytes", runtime.maxMemory());
+
+        JSObject result = new JSObject();
+        result.put("caches", list);
+        result.put("memoryBytes", memory);
+        result.put("diskBytes", disk);
+        result.put("heap", heap);
+        result.put("lastTrimTier", tier);
+        result.put("lastTrimAt", trimmedAt);
+        return result;
+    }
+}
@@ -0,0 +1,170 @@
+package com.coflyn.flow;
+
+/**
+ * Lightweight chroma fingerprint: one 12-bin pitch-class vector per 100 ms
+ * of audio, computed from a Hann-windowed FFT of the mono mix.
+ *
+ * Frames are spaced in time rather than samples so files at different
+ * sample rates produce comparable fingerprints.
+ */
+public final class ChromaFingerprint implements PcmDecoder.Sink {
+
+    private static final int FFT_SIZE = 4096;
+    private static final int BINS = 12;
+    private static final double MIN_FREQ = 55.0;
+    private static final double MAX_FREQ = 5000.0;
+
+    private final int maxFrames;
+    private final double[] window = new double[FFT_SIZE];
+    private final double[] re = new double[FFT_SIZE];
+    private final double[] im = new double[FFT_SIZE];
+    private final double[] ring = new double[FFT_SIZE];
+
+    private int channels = 1;
+    private int hop = 4410;
+    private int[] binToPitch;
+    private int ringPos = 0;
+    private int filled = 0;
+    private int sinceHop = 0;
+
+    private float[] frames;
+    private int frameCount = 0;
+
+    public ChromaFingerprint(int maxFrames) {
+        this.maxFrames = maxFrames;
+        this.frames = new float[maxFrames * BINS];
+        for (int i = 0; i < FFT_SIZE; i++) {
+            window[i] = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * i / (FFT_SIZE - 1));
+        }
+    }
+
+    @Override
+    public void onFormat(int sampleRate, int channels) {
+        this.channels = Math.max(1, channels);
+        this.hop = Math.max(1, sampleRate / 10);
+
+        binToPitch = new int[FFT_SIZE / 2];
+        for (int k = 0; k < binToPitch.length; k++) {
+            double freq = (double) k * sampleRate / FFT_SIZE;
+            if (freq < MIN_FREQ || freq > MAX_FREQ) {
+                binToPitch[k] = -1;
+            } else {
+                // Pitch class relative to A (440 Hz)
+                double semitones = 12.0 * Math.log(freq / 440.0) / Math.log(2.0);
+                binToPitch[k] = ((int) Math.round(semitones) % 12 + 12) % 12;
+            }
+        }
+    }
+
+    @Override
+    public void onSamples(float[] samples, int frameTotal) {
+        int ch = channels;
+        for (int f = 0; f < frameTotal && frameCount < maxFrames; f++) {
+            double sum = 0;
+            int base = f * ch;
+            for (int c = 0; c < ch; c++) sum += samples[base + c];
+            ring[ringPos] = sum / ch;
+            ringPos = (ringPos + 1) % FFT_SIZE;
+            if (filled < FFT_SIZE) filled++;
+
+            if (++sinceHop >= hop && filled == FFT_SIZE) {
+                sinceHop = 0;
+                computeFrame();
+            }
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return frameCount >= maxFrames;
+    }
+
+    public int frameCount() {
+        return frameCount;
+    }
+
+    private void computeFrame() {
+        for (int i = 0; i < FFT_SIZE; i++) {
+            re[i] = ring[(ringPos + i) % FFT_SIZE] * window[i];
+            im[i] = 0;
+        }
+        fft(re, im);
+
+        int base = frameCount * BINS;
+        double norm = 0;
+        for (int k = 1; k < FFT_SIZE / 2; k++) {
+            int pitch = binToPitch[k];
+            if (pitch < 0) continue;
+            double mag = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+            frames[base + pitch] += (float) mag;
+        }
+        for (int b = 0; b < BINS; b++) norm += frames[base + b] * frames[base + b];
+        norm = Math.sqrt(norm);
+        if (norm > 1e-9) {
+            for (int b = 0; b < BINS; b++) frames[base + b] /= (float) norm;
+        }
+        frameCount++;
+    }
+
+    /**
+     * Mean cosine similarity of aligned frames, searching small offsets to
+     * absorb differing encoder delay or leading silence. Returns 0..1.
+     */
+    public static double similarity(ChromaFingerprint a, ChromaFingerprint b, int maxShift) {
+        double best = 0;
+        for (int shift = -maxShift; shift <= maxShift; shift++) {
+            double total = 0;
+            int count = 0;
+            for (int i = 0; i < a.frameCount; i++) {
+                int j = i + shift;
+                if (j < 0 || j >= b.frameCount) continue;
+                double dot = 0;
+                int ai = i * BINS;
+                int bj = j * BINS;
+                for (int k = 0; k < BINS; k++) dot += a.frames[ai + k] * b.frames[bj + k];
+                total += dot;
+                count++;
+            }
+            if (count > 0) best = Math.max(best, total / count);
+        }
+        return best;
+    }
+
+    /**
+     * In-place iterative radix-2 FFT.
+     */
+    private static void fft(double[] re, double[] im) {
+        int n = re.length;
+        for (int i = 1, j = 0; i < n; i++) {
+            int bit = n >> 1;
+            for (; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if (i < j) {
+                double t = re[i]; re[i] = re[j]; re[j] = t;
+                t = im[i]; im[i] = im[j]; im[j] = t;
+            }
+        }
+        for (int len = 2; len <= n; len <<= 1) {
+            double angle = -2.0 * Math.PI / len;
+            double wRe = Math.cos(angle);
+            double wIm = Math.sin(angle);
+            for (int i = 0; i < n; i += len) {
+                double curRe = 1.0;
+                double curIm = 0.0;
+                for (int k = 0; k < len / 2; k++) {
+                    int a = i + k;
+                    int b = a + len / 2;
+                    double tRe = re[b] * curRe - im[b] * curIm;
+                    double tIm = re[b] * curIm + im[b] * curRe;
+                    re[b] = re[a] - tRe;
+                    im[b] = im[a] - tIm;
+                    re[a] += tRe;
+                    im[a] += tIm;
+                    double nextRe = curRe * wRe - curIm * wIm;
+                    curIm = curRe * wIm + curIm * wRe;
+                    curRe = nextRe;
+                }
+            }
+        }
+    }
+}
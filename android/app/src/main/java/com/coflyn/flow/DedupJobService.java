@@ -0,0 +1,52 @@
+package com.coflyn.flow;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Process;
+import android.util.Log;
+import java.util.List;
+
+/**
+ * Confirms duplicate tracks by fingerprint and keeps the clusters for the
+ * UI. Scheduled by ScanScheduler after folder scans, only while charging
+ * and idle, since decoding the opening seconds of every candidate is the
+ * expensive part of deduplication.
+ */
+public class DedupJobService extends JobService {
+
+    private static final String TAG = "FlowDedup";
+
+    private volatile boolean stopped = false;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        stopped = false;
+        new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean finished = false;
+            try {
+                List<DuplicateDetector.Cluster> clusters = DuplicateDetector.detect(
+                    this, LibraryIndex.get(this).snapshot(), null, () -> stopped);
+                if (clusters != null) {
+                    DuplicateDetector.save(this, clusters);
+                    Log.d(TAG, "Confirmed " + clusters.size() + " duplicate clusters");
+                    finished = true;
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Duplicate detection failed: " + e.getMessage());
+                finished = true; // Retried after the next folder scan, not in a loop
+            }
+            if (!stopped) {
+                jobFinished(params, !finished);
+            }
+        }, "FlowDedup").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        // Reschedule; the pass starts over, fingerprints aren't kept between runs
+        return true;
+    }
+}
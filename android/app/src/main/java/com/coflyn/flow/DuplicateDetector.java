@@ -0,0 +1,267 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Finds the same song indexed twice, typically once from MediaStore and
+ * once from an overlapping SAF folder scan.
+ *
+ * Candidates are grouped cheaply by normalised title/artist and duration;
+ * only groups with more than one member are confirmed by comparing chroma
+ * fingerprints of their opening seconds. DedupJobService runs the pass
+ * after folder scans and keeps the confirmed clusters in a small file, so
+ * the UI can collapse them and folder scans can share art between them.
+ */
+public final class DuplicateDetector {
+
+    private static final String TAG = "FlowDedup";
+    private static final long DURATION_TOLERANCE = 2; // seconds
+    private static final int FINGERPRINT_SECONDS = 30;
+    private static final int MAX_SHIFT_FRAMES = 5;
+    private static final double MATCH_THRESHOLD = 0.85;
+    private static final String CLUSTERS_FILE = "duplicates.json";
+
+    private static final Pattern BRACKETS = Pattern.compile("[\\(\\[][^\\)\\]]*[\\)\\]]");
+    private static final Pattern FEATURING = Pattern.compile("\\s(feat\\.?|ft\\.?|featuring)\\s.*$");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern NON_ALNUM = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private DuplicateDetector() {}
+
+    public static final class Cluster {
+        public final List<LibraryIndex.Entry> tracks;
+        public final LibraryIndex.Entry keep;
+
+        Cluster(List<LibraryIndex.Entry> tracks, LibraryIndex.Entry keep) {
+            this.tracks = tracks;
+            this.keep = keep;
+        }
+    }
+
+    public interface Progress {
+        void onProgress(int done, int total);
+    }
+
+    static String normalise(String value) {
+        if (value == null) return "";
+        String s = value.toLowerCase(Locale.ROOT);
+        s = BRACKETS.matcher(s).replaceAll(" ");
+        s = FEATURING.matcher(s).replaceAll("");
+        s = Normalizer.normalize(s, Normalizer.Form.NFD);
+        s = MARKS.matcher(s).replaceAll("");
+        return NON_ALNUM.matcher(s).replaceAll("");
+    }
+
+    static String tagKey(String title, String artist) {
+        return normalise(title) + "|" + normalise(artist);
+    }
+
+    /**
+     * Groups tracks by tag key for quick candidate lookups.
+     */
+    public static Map<String, List<LibraryIndex.Entry>> groupByTags(List<LibraryIndex.Entry> tracks) {
+        Map<String, List<LibraryIndex.Entry>> groups = new HashMap<>();
+        for (LibraryIndex.Entry entry : tracks) {
+            String key = tagKey(entry.title, entry.artist);
+            List<LibraryIndex.Entry> group = groups.get(key);
+            if (group == null) {
+                group = new ArrayList<>(1);
+                groups.put(key, group);
+            }
+            group.add(entry);
+        }
+        return groups;
+    }
+
+    /**
+     * Returns an existing track with matching tags and duration, or null.
+     */
+    public static LibraryIndex.Entry findCandidate(Map<String, List<LibraryIndex.Entry>> groups,
+                                                   String title, String artist, long durationSec) {
+        List<LibraryIndex.Entry> group = groups.get(tagKey(title, artist));
+        if (group == null) return null;
+        for (LibraryIndex.Entry entry : group) {
+            if (Math.abs(entry.duration - durationSec) <= DURATION_TOLERANCE) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Runs the full detection pass. Blocking; call from a background thread.
+     */
+    public static List<Cluster> detect(Context context, List<LibraryIndex.Entry> tracks, Progress progress) {
+        return detect(context, tracks, progress, () -> false);
+    }
+
+    /**
+     * As above; returns null if stopped before every group was confirmed.
+     */
+    public static List<Cluster> detect(Context context, List<LibraryIndex.Entry> tracks, Progress progress,
+                                       BooleanSupplier stopped) {
+        List<List<LibraryIndex.Entry>> candidates = new ArrayList<>();
+        for (List<LibraryIndex.Entry> group : groupByTags(tracks).values()) {
+            if (group.size() < 2) continue;
+            group.sort((a, b) -> Long.compare(a.duration, b.duration));
+
+            // Split each tag group into runs whose durations stay within tolerance
+            List<LibraryIndex.Entry> run = new ArrayList<>();
+            for (LibraryIndex.Entry entry : group) {
+                if (!run.isEmpty() && entry.duration - run.get(run.size() - 1).duration > DURATION_TOLERANCE) {
+                    if (run.size() > 1) candidates.add(run);
+                    run = new ArrayList<>();
+                }
+                run.add(entry);
+            }
+            if (run.size() > 1) candidates.add(run);
+        }
+
+        List<Cluster> clusters = new ArrayList<>();
+        Map<String, ChromaFingerprint> prints = new HashMap<>();
+        int total = candidates.size();
+        int done = 0;
+
+        for (List<LibraryIndex.Entry> group : candidates) {
+            if (stopped.getAsBoolean()) return null;
+            List<LibraryIndex.Entry> remaining = new ArrayList<>(group);
+            while (remaining.size() > 1) {
+                LibraryIndex.Entry seed = remaining.remove(0);
+                ChromaFingerprint seedPrint = fingerprint(context, seed, prints);
+                List<LibraryIndex.Entry> members = new ArrayList<>();
+                members.add(seed);
+
+                for (int i = remaining.size() - 1; i >= 0; i--) {
+                    LibraryIndex.Entry other = remaining.get(i);
+                    ChromaFingerprint otherPrint = fingerprint(context, other, prints);
+                    if (seedPrint != null && otherPrint != null
+                            && ChromaFingerprint.similarity(seedPrint, otherPrint, MAX_SHIFT_FRAMES) >= MATCH_THRESHOLD) {
+                        members.add(other);
+                        remaining.remove(i);
+                    }
+                }
+                if (members.size() > 1) clusters.add(new Cluster(members, pickKeeper(members)));
+            }
+            // Fingerprints are only compared within a group
+            for (LibraryIndex.Entry entry : group) prints.remove(entry.id);
+            if (progress != null) progress.onProgress(++done, total);
+        }
+        return clusters;
+    }
+
+    // === Confirmed clusters ===
+
+    /**
+     * Replaces the confirmed clusters kept for the UI and for folder scans.
+     */
+    public static synchronized void save(Context context, List<Cluster> clusters) {
+        JSONArray array = new JSONArray();
+        for (Cluster cluster : clusters) {
+            JSONArray ids = new JSONArray();
+            for (LibraryIndex.Entry entry : cluster.tracks) ids.put(entry.id);
+            JSONObject json = new JSONObject();
+            try {
+                json.put("ids", ids);
+                json.put("keep", cluster.keep.id);
+            } catch (JSONException ignored) {}
+            array.put(json);
+        }
+
+        File file = clustersFile(context);
+        File tmp = new File(file.getParentFile(), CLUSTERS_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(array.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save duplicates: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) tmp.delete();
+    }
+
+    /**
+     * The clusters from the last complete pass: [{ ids, keep }], empty if none.
+     */
+    public static synchronized JSONArray load(Context context) {
+        File file = clustersFile(context);
+        if (!file.exists()) return new JSONArray();
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return new JSONArray(new String(data, 0, read, StandardCharsets.UTF_8));
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Duplicates unreadable: " + e.getMessage());
+            return new JSONArray();
+        }
+    }
+
+    /**
+     * Maps every confirmed duplicate to its cluster's keeper, so two IDs are
+     * confirmed copies when they map to the same keeper.
+     */
+    public static Map<String, String> keepers(Context context) {
+        Map<String, String> keepers = new HashMap<>();
+        JSONArray clusters = load(context);
+        for (int i = 0; i < clusters.length(); i++) {
+            JSONObject cluster = clusters.optJSONObject(i);
+            JSONArray ids = cluster != null ? cluster.optJSONArray("ids") : null;
+            if (ids == null) continue;
+            String keep = cluster.optString("keep");
+            for (int j = 0; j < ids.length(); j++) keepers.put(ids.optString(j), keep);
+        }
+        return keepers;
+    }
+
+    private static File clustersFile(Context context) {
+        return new File(context.getFilesDir(), CLUSTERS_FILE);
+    }
+
+    /**
+     * Prefer the MediaStore copy: its ID is stable and its art comes from the system cache.
+     */
+    private static LibraryIndex.Entry pickKeeper(List<LibraryIndex.Entry> members) {
+        for (LibraryIndex.Entry entry : members) {
+            if (LibraryIndex.SOURCE_MEDIA.equals(entry.source)) return entry;
+        }
+        return members.get(0);
+    }
+
+    private static ChromaFingerprint fingerprint(Context context, LibraryIndex.Entry entry,
+                                                 Map<String, ChromaFingerprint> cache) {
+        if (cache.containsKey(entry.id)) return cache.get(entry.id);
+
+        ChromaFingerprint print = new ChromaFingerprint(FINGERPRINT_SECONDS * 10);
+        try {
+            String source = entry.uri != null && !entry.uri.isEmpty() ? entry.uri : entry.path;
+            Uri uri = source.startsWith("/") ? Uri.fromFile(new File(source)) : Uri.parse(source);
+            PcmDecoder.decode(context, uri, FINGERPRINT_SECONDS * 1_000_000L, print);
+        } catch (Exception e) {
+            Log.d(TAG, "Fingerprint failed for " + entry.id + ": " + e.getMessage());
+            print = null;
+        }
+        if (print != null && print.frameCount() == 0) print = null;
+        cache.put(entry.id, print);
+        return print;
+    }
+}
@@ -0,0 +1,257 @@
+package com.coflyn.flow;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Reads lyrics embedded in audio tags without decoding the file:
+ * ID3v2 USLT/SYLT frames (MP3) and Vorbis LYRICS comments (FLAC).
+ *
+ * Only the tag header region is read; frames we don't need (cover art etc.)
+ * are skipped rather than buffered.
+ */
+public final class EmbeddedLyricsReader {
+
+    private static final int MAX_FRAME_SIZE = 1024 * 1024;
+
+    private EmbeddedLyricsReader() {}
+
+    /**
+     * Returns the embedded lyrics, or null if the stream has none.
+     * The caller owns the stream.
+     */
+    public static LrcDocument read(InputStream source) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(source, 8192));
+        byte[] magic = new byte[4];
+        in.readFully(magic, 0, 3);
+
+        if (magic[0] == 'I' && magic[1] == 'D' && magic[2] == '3') {
+            return readId3(in);
+        }
+
+        in.readFully(magic, 3, 1);
+        if (magic[0] == 'f' && magic[1] == 'L' && magic[2] == 'a' && magic[3] == 'C') {
+            return readFlac(in);
+        }
+        return null;
+    }
+
+    // === ID3v2 ===
+
+    private static LrcDocument readId3(DataInputStream in) throws IOException {
+        int major = in.readUnsignedByte();
+        in.readUnsignedByte(); // revision
+        int flags = in.readUnsignedByte();
+        int tagSize = readSynchsafe(in);
+
+        if (major < 3 || major > 4) return null;
+        // Whole-tag unsynchronisation would need byte unstuffing; such tags are rare for text frames
+        if ((flags & 0x80) != 0) return null;
+
+        int remaining = tagSize;
+        if ((flags & 0x40) != 0) {
+            int extSize = major == 4 ? readSynchsafe(in) - 4 : in.readInt();
+            skipFully(in, extSize);
+            remaining -= extSize + 4;
+        }
+
+        LrcDocument unsynced = null;
+
+        while (remaining > 10) {
+            byte[] id = new byte[4];
+            in.readFully(id);
+            if (id[0] == 0) break; // Padding
+
+            int size = major == 4 ? readSynchsafe(in) : in.readInt();
+            int frameFlags = in.readUnsignedShort();
+            if (size <= 0 || size > remaining - 10) break;
+            remaining -= 10 + size;
+
+            String frameId = new String(id, StandardCharsets.ISO_8859_1);
+            // Skip compressed or encrypted frames
+            boolean packed = major == 4 ? (frameFlags & 0x000C) != 0 : (frameFlags & 0x00C0) != 0;
+
+            if (!packed && size <= MAX_FRAME_SIZE && (frameId.equals("SYLT") || frameId.equals("USLT"))) {
+                byte[] frame = new byte[size];
+                in.readFully(frame);
+                if (frameId.equals("SYLT")) {
+                    LrcDocument synced = parseSylt(frame);
+                    if (synced != null && !synced.isEmpty()) return synced;
+                } else if (unsynced == null) {
+                    // USLT often carries a full LRC body, so prefer its timestamps if present
+                    LrcDocument doc = parseUslt(frame);
+                    if (doc != null && !doc.isEmpty()) {
+                        if (doc.isSynced()) return doc;
+                        unsynced = doc;
+                    }
+                }
+            } else {
+                skipFully(in, size);
+            }
+        }
+        return unsynced;
+    }
+
+    private static LrcDocument parseUslt(byte[] frame) {
+        if (frame.length < 5) return null;
+        int encoding = frame[0];
+        // Skip language (3 bytes) and content descriptor
+        int pos = skipTerminated(frame, 4, encoding);
+        if (pos < 0) return null;
+        return LrcParser.parseOrPlain(decode(frame, pos, frame.length, encoding));
+    }
+
+    private static LrcDocument parseSylt(byte[] frame) {
+        if (frame.length < 7) return null;
+        int encoding = frame[0];
+        int format = frame[4];
+        // Only millisecond stamps (format 2) map to wall-clock time; MPEG frame stamps need the bitrate
+        if (format != 2) return null;
+
+        int pos = skipTerminated(frame, 6, encoding);
+        if (pos < 0) return null;
+
+        StringBuilder lrc = new StringBuilder();
+        while (pos < frame.length) {
+            int end = findTerminator(frame, pos, encoding);
+            if (end < 0 || end + terminatorLength(encoding) + 4 > frame.length) break;
+            String text = decode(frame, pos, end, encoding).replace('\n', ' ').trim();
+            pos = end + terminatorLength(encoding);
+            long time = ((frame[pos] & 0xFFL) << 24) | ((frame[pos + 1] & 0xFFL) << 16)
+                | ((frame[pos + 2] & 0xFFL) << 8) | (frame[pos + 3] & 0xFFL);
+            pos += 4;
+            appendLrcLine(lrc, time, text);
+        }
+        return LrcParser.parse(lrc.toString());
+    }
+
+    private static void appendLrcLine(StringBuilder lrc, long timeMs, String text) {
+        long minutes = timeMs / 60000;
+        long seconds = (timeMs / 1000) % 60;
+        long hundredths = (timeMs % 1000) / 10;
+        lrc.append(String.format(Locale.US, "[%02d:%02d.%02d]", minutes, seconds, hundredths))
+            .append(text)
+            .append('\n');
+    }
+
+    private static int skipTerminated(byte[] frame, int pos, int encoding) {
+        int end = findTerminator(frame, pos, encoding);
+        return end < 0 ? -1 : end + terminatorLength(encoding);
+    }
+
+    private static int findTerminator(byte[] data, int pos, int encoding) {
+        if (terminatorLength(encoding) == 1) {
+            for (int i = pos; i < data.length; i++) {
+                if (data[i] == 0) return i;
+            }
+        } else {
+            for (int i = pos; i + 1 < data.length; i += 2) {
+                if (data[i] == 0 && data[i + 1] == 0) return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int terminatorLength(int encoding) {
+        return encoding == 1 || encoding == 2 ? 2 : 1;
+    }
+
+    private static String decode(byte[] data, int start, int end, int encoding) {
+        if (end <= start) return "";
+        Charset charset;
+        switch (encoding) {
+            case 1: charset = StandardCharsets.UTF_16; break;
+            case 2: charset = StandardCharsets.UTF_16BE; break;
+            case 3: charset = StandardCharsets.UTF_8; break;
+            default: charset = StandardCharsets.ISO_8859_1; break;
+        }
+        // Drop trailing terminators some taggers leave on the text body
+        int unit = terminatorLength(encoding);
+        while (end - unit >= start && data[end - 1] == 0 && data[end - unit] == 0) end -= unit;
+        return new String(data, start, end - start, charset);
+    }
+
+    private static int readSynchsafe(DataInputStream in) throws IOException {
+        int b0 = in.readUnsignedByte();
+        int b1 = in.readUnsignedByte();
+        int b2 = in.readUnsignedByte();
+        int b3 = in.readUnsignedByte();
+        return (b0 << 21) | (b1 << 14) | (b2 << 7) | b3;
+    }
+
+    // === FLAC ===
+
+    private static LrcDocument readFlac(DataInputStream in) throws IOException {
+        boolean last = false;
+        while (!last) {
+            int header = in.readUnsignedByte();
+            last = (header & 0x80) != 0;
+            int type = header & 0x7F;
+            int length = (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+
+            if (type != 4) {
+                skipFully(in, length);
+                continue;
+            }
+
+            // VORBIS_COMMENT block, little-endian lengths
+            skipFully(in, readIntLE(in)); // vendor string
+            int count = readIntLE(in);
+            LrcDocument unsynced = null;
+            for (int i = 0; i < count; i++) {
+                int size = readIntLE(in);
+                if (size < 0) break;
+                if (size > MAX_FRAME_SIZE) {
+                    skipFully(in, size);
+                    continue;
+                }
+                byte[] comment = new byte[size];
+                in.readFully(comment);
+                int eq = indexOf(comment, (byte) '=');
+                if (eq <= 0) continue;
+
+                String key = new String(comment, 0, eq, StandardCharsets.US_ASCII).toUpperCase(Locale.ROOT);
+                if (key.equals("LYRICS") || key.equals("SYNCEDLYRICS") || key.equals("UNSYNCEDLYRICS")) {
+                    String value = new String(comment, eq + 1, size - eq - 1, StandardCharsets.UTF_8);
+                    LrcDocument doc = LrcParser.parseOrPlain(value);
+                    if (doc.isSynced() && !doc.isEmpty()) return doc;
+                    if (unsynced == null && !doc.isEmpty()) unsynced = doc;
+                }
+            }
+            return unsynced;
+        }
+        return null;
+    }
+
+    private static int readIntLE(DataInputStream in) throws IOException {
+        int b0 = in.readUnsignedByte();
+        int b1 = in.readUnsignedByte();
+        int b2 = in.readUnsignedByte();
+        int b3 = in.readUnsignedByte();
+        return b0 | (b1 << 8) | (b2 << 16) | (b3 << 24);
+    }
+
+    private static int indexOf(byte[] data, byte value) {
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] == value) return i;
+        }
+        return -1;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException();
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.coflyn.flow;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drains the folder scan queue kept by ScanScheduler, one folder at a time.
+ * Each walk checkpoints per directory, so when the system stops the job it
+ * is rescheduled and picks up where it left off.
+ */
+public class FolderScanJobService extends JobService {
+
+    private static final String TAG = "FlowFolderScan";
+    private static final long PROGRESS_INTERVAL_MS = 250;
+
+    // Static: the system may run a rescheduled job on a new service instance
+    private static final AtomicInteger workers = new AtomicInteger();
+    private static Thread lastWorker;
+    private static AtomicBoolean lastStop;
+
+    static boolean isRunning() {
+        return workers.get() > 0;
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        // Each run gets its own token, so a new run never revives a stopped worker
+        AtomicBoolean stopped = new AtomicBoolean(false);
+        Thread previous;
+        synchronized (FolderScanJobService.class) {
+            if (lastStop != null) lastStop.set(true);
+            previous = lastWorker;
+            lastStop = stopped;
+        }
+
+        workers.incrementAndGet();
+        Thread worker = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean finished;
+            try {
+                // A stopped worker may still be flushing; never walk a folder alongside it
+                if (previous != null) previous.join();
+                finished = scanQueued(stopped);
+            } catch (InterruptedException e) {
+                finished = false;
+            } finally {
+                workers.decrementAndGet();
+            }
+            // A folder queued while we were finishing up would otherwise wait for the next request
+            if (finished && ScanScheduler.nextFolder(this) != null) finished = false;
+            if (!stopped.get()) {
+                jobFinished(params, !finished);
+            }
+        }, "FlowFolderScan");
+        synchronized (FolderScanJobService.class) {
+            lastWorker = worker;
+        }
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        synchronized (FolderScanJobService.class) {
+            if (lastStop != null) lastStop.set(true);
+        }
+        // Reschedule; finished directories are in the checkpoint
+        return true;
+    }
+
+    /**
+     * Returns true once the queue is empty.
+     */
+    private boolean scanQueued(AtomicBoolean stopped) {
+        FolderScanner scanner = new FolderScanner(this);
+        String folderUri;
+        while (!stopped.get() && (folderUri = ScanScheduler.nextFolder(this)) != null) {
+            String folder = folderUri;
+            long[] lastReport = { 0 };
+            try {
+                FolderScanner.Result result = scanner.scan(folder, (name, directories, tracks) -> {
+                    long now = SystemClock.elapsedRealtime();
+                    if (now - lastReport[0] < PROGRESS_INTERVAL_MS) return;
+                    lastReport[0] = now;
+                    ScanScheduler.broadcast(this, folder, ScanScheduler.STATE_PROGRESS, name,
+                        directories, tracks, null);
+                }, stopped::get);
+                if (result == null) return false;
+
+                Log.d(TAG, "Scanned " + result.ids.size() + " tracks at " + result.concurrency
+                    + " workers (peak " + result.peakConcurrency + "), "
+                    + String.format(java.util.Locale.ROOT, "%.1f", result.throughput) + " files/s");
+                ScanScheduler.finishFolder(this, folder);
+                ScanScheduler.putResult(folder, result);
+                ScanScheduler.broadcast(this, folder, ScanScheduler.STATE_COMPLETE, null, 0, result.ids.size(), null);
+            } catch (Exception e) {
+                Log.w(TAG, "Folder scan failed for " + folder + ": " + e.getMessage());
+                ScanScheduler.finishFolder(this, folder);
+                ScanScheduler.broadcast(this, folder, ScanScheduler.STATE_ERROR, null, 0, 0, e.getMessage());
+            }
+        }
+        if (!stopped.get()) {
+            AlbumArtCache.get(this).enforceLimit();
+            ScanScheduler.scheduleLoudness(this);
+            ScanScheduler.scheduleDedup(this);
+        }
+        return !stopped.get();
+    }
+}
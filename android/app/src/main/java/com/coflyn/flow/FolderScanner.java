@@ -0,0 +1,458 @@
+package com.coflyn.flow;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import androidx.documentfile.provider.DocumentFile;
+import com.getcapacitor.JSObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Walks a SAF folder tree, reading tags, art and lyrics for each audio file
+ * and upserting the tracks into the library index.
+ *
+ * Progress is checkpointed per directory in a small JSON-lines log, so a
+ * scan stopped by the system (or a killed process) resumes from the
+ * directories it hadn't finished instead of starting over. The IDs of the
+ * last complete scan are kept, so a refresh can answer from them at once.
+ *
+ * Within a directory, files are extracted on a small pool whose size
+ * ScanConcurrency adjusts as the scan runs.
+ */
+public final class FolderScanner {
+
+    private static final String TAG = "FlowFolderScan";
+    private static final String DIR_NAME = "scan_checkpoints";
+    private static final int FLUSH_DIRECTORIES = 16;
+    private static final long FLUSH_INTERVAL_MS = 5000;
+
+    public interface Progress {
+        void onDirectory(String name, int directories, int tracks);
+    }
+
+    public static final class Result {
+        public final List<String> ids;
+        public final int concurrency; // workers at the end of the scan
+        public final int peakConcurrency;
+        public final double throughput; // files per second
+
+        Result(List<String> ids, ScanConcurrency concurrency) {
+            this.ids = ids;
+            this.concurrency = concurrency.current();
+            this.peakConcurrency = concurrency.peak();
+            this.throughput = concurrency.throughput();
+        }
+    }
+
+    private final Context context;
+
+    public FolderScanner(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Scans the folder, resuming from its checkpoint if there is one.
+     * Returns every track ID found with the scan's throughput, or null if stopped first.
+     */
+    public Result scan(String folderUri, Progress progress, BooleanSupplier stopped) throws IOException {
+        ScanConcurrency concurrency = new ScanConcurrency(context);
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency.ceiling(), r -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "FlowScanWorker"));
+        try {
+            List<String> ids = walk(folderUri, progress, stopped, concurrency, pool);
+            return ids != null ? new Result(ids, concurrency) : null;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private List<String> walk(String folderUri, Progress progress, BooleanSupplier stopped,
+                              ScanConcurrency concurrency, ExecutorService pool) throws IOException {
+        DocumentFile root = DocumentFile.fromTreeUri(context, Uri.parse(folderUri));
+        if (root == null || !root.exists()) throw new IOException("Folder not found or inaccessible");
+
+        LibraryIndex index = LibraryIndex.get(context);
+        File checkpoint = file(folderUri, ".log");
+        Map<String, List<String>> done = readCheckpoint(checkpoint);
+        if (!done.isEmpty()) Log.d(TAG, "Resuming " + root.getName() + " after " + done.size() + " directories");
+
+        // Copies confirmed by fingerprint in the last dedup pass, so overlapping scans can share art
+        Map<String, String> keepers = DuplicateDetector.keepers(context);
+
+        List<String> found = new ArrayList<>();
+        List<String> pending = new ArrayList<>();
+        long lastFlush = SystemClock.elapsedRealtime();
+        int directories = 0;
+
+        Deque<DocumentFile> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            if (stopped.getAsBoolean()) {
+                flush(index, checkpoint, pending);
+                return null;
+            }
+
+            DocumentFile dir = stack.pop();
+            String dirUri = dir.getUri().toString();
+            DocumentFile[] files = dir.listFiles();
+            for (int i = files.length - 1; i >= 0; i--) {
+                if (files[i].isDirectory()) stack.push(files[i]);
+            }
+
+            List<String> ids = done.get(dirUri);
+            if (ids == null) {
+                ids = scanDirectory(files, keepers, stopped, concurrency, pool);
+                if (ids == null) {
+                    flush(index, checkpoint, pending);
+                    return null; // Stopped mid-directory; it is scanned again on resume
+                }
+                pending.add(checkpointLine(dirUri, ids));
+            }
+            found.addAll(ids);
+            directories++;
+            if (progress != null) progress.onDirectory(dir.getName(), directories, found.size());
+
+            long now = SystemClock.elapsedRealtime();
+            if (pending.size() >= FLUSH_DIRECTORIES || now - lastFlush >= FLUSH_INTERVAL_MS) {
+                flush(index, checkpoint, pending);
+                lastFlush = now;
+            }
+        }
+
+        flush(index, checkpoint, pending);
+        // A complete walk is authoritative for the folder: retire files that are gone
+        index.retainFolder(folderUri, new HashSet<>(found));
+        index.save();
+        writeResult(folderUri, found);
+        checkpoint.delete();
+        return found;
+    }
+
+    /**
+     * IDs from the last complete scan of this folder, or null if it never finished.
+     */
+    public List<String> lastResult(String folderUri) {
+        File result = file(folderUri, ".done");
+        if (!result.exists()) return null;
+        try {
+            JSONArray array = new JSONArray(readAll(result));
+            List<String> ids = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) ids.add(array.getString(i));
+            return ids;
+        } catch (Exception e) {
+            Log.w(TAG, "Last scan result unreadable: " + e.getMessage());
+            return null;
+        }
+    }
+
+    public boolean hasCheckpoint(String folderUri) {
+        return file(folderUri, ".log").exists();
+    }
+
+    /**
+     * Drops a removed folder: its tracks, checkpoint and last result.
+     */
+    public void forget(String folderUri) {
+        LibraryIndex index = LibraryIndex.get(context);
+        index.retainFolder(folderUri, new HashSet<>());
+        index.save();
+        file(folderUri, ".log").delete();
+        file(folderUri, ".done").delete();
+    }
+
+    // === Directory scanning ===
+
+    private List<String> scanDirectory(DocumentFile[] files, Map<String, String> keepers,
+                                       BooleanSupplier stopped, ScanConcurrency concurrency,
+                                       ExecutorService pool) {
+        // Index lyric sidecars by base name from the same listing, so discovery costs no extra I/O
+        Map<String, DocumentFile> sidecars = new HashMap<>();
+        List<DocumentFile> audio = new ArrayList<>();
+        for (DocumentFile file : files) {
+            String name = file.getName();
+            if (name == null || !file.isFile()) continue;
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (lower.endsWith(".lrc")) {
+                sidecars.put(baseName(lower), file);
+            } else if (lower.endsWith(".txt")) {
+                sidecars.putIfAbsent(baseName(lower), file);
+            } else if (isAudioFile(file.getType())) {
+                audio.add(file);
+            }
+        }
+
+        // Extract in parallel, keeping listing order; at most concurrency.workers() in flight
+        JSObject[] tracks = new JSObject[audio.size()];
+        CompletionService<Integer> completed = new ExecutorCompletionService<>(pool);
+        int next = 0;
+        int inFlight = 0;
+        try {
+            while (next < audio.size() || inFlight > 0) {
+                while (next < audio.size() && inFlight < concurrency.workers() && !stopped.getAsBoolean()) {
+                    int i = next++;
+                    completed.submit(() -> {
+                        long started = SystemClock.elapsedRealtime();
+                        tracks[i] = extract(audio.get(i), sidecars, keepers);
+                        concurrency.record(SystemClock.elapsedRealtime() - started);
+                        return i;
+                    });
+                    inFlight++;
+                }
+                if (inFlight == 0) break;
+                completed.take();
+                inFlight--;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        if (stopped.getAsBoolean()) return null;
+
+        LibraryIndex index = LibraryIndex.get(context);
+        List<String> ids = new ArrayList<>();
+        for (JSObject track : tracks) {
+            if (track == null) continue;
+            index.upsert(track, LibraryIndex.SOURCE_FOLDER);
+            ids.add(track.getString("id"));
+        }
+        return ids;
+    }
+
+    private JSObject extract(DocumentFile file, Map<String, DocumentFile> sidecars,
+                             Map<String, String> keepers) {
+        JSObject track = processAudioFile(file, keepers);
+        if (track == null) return null;
+        String name = file.getName();
+        DocumentFile sidecar = name != null ? sidecars.get(baseName(name.toLowerCase(Locale.ROOT))) : null;
+        track.put("hasLyrics", cacheLyrics(track.getString("id"), file, sidecar));
+        return track;
+    }
+
+    private static String baseName(String fileName) {
+        int dot = fileName.lastIndexOf('.');
+        return dot > 0 ? fileName.substring(0, dot) : fileName;
+    }
+
+    private static boolean isAudioFile(String mimeType) {
+        return mimeType != null && (mimeType.startsWith("audio/") || mimeType.equals("application/ogg"));
+    }
+
+    /**
+     * Parses a sidecar .lrc/.txt, falling back to embedded USLT/SYLT/LYRICS tags,
+     * and stores the result in the lyrics cache. Returns true if lyrics were found.
+     */
+    private boolean cacheLyrics(String trackId, DocumentFile audio, DocumentFile sidecar) {
+        LyricsCache cache = LyricsCache.get(context);
+        ContentResolver resolver = context.getContentResolver();
+        LrcDocument lyrics = null;
+
+        if (sidecar != null) {
+            try (InputStream is = resolver.openInputStream(sidecar.getUri())) {
+                if (is != null) {
+                    LrcDocument parsed = LrcParser.parseOrPlain(readText(is));
+                    if (!parsed.isEmpty()) lyrics = parsed;
+                }
+            } catch (Exception e) {
+                Log.d(TAG, "Sidecar lyrics unreadable: " + e.getMessage());
+            }
+        }
+
+        if (lyrics == null) {
+            try (InputStream is = resolver.openInputStream(audio.getUri())) {
+                if (is != null) lyrics = EmbeddedLyricsReader.read(is);
+            } catch (Exception ignored) {
+                // No tag or truncated tag; not worth surfacing
+            }
+        }
+
+        if (lyrics == null) return cache.contains(trackId);
+        cache.put(trackId, lyrics);
+        return true;
+    }
+
+    private static String readText(InputStream is) throws IOException {
+        java.io.Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int read;
+        while ((read = reader.read(buffer)) > 0) {
+            sb.append(buffer, 0, read);
+        }
+        return sb.toString();
+    }
+
+    private JSObject processAudioFile(DocumentFile file, Map<String, String> keepers) {
+        try {
+            android.media.MediaMetadataRetriever mmr = new android.media.MediaMetadataRetriever();
+            mmr.setDataSource(context, file.getUri());
+
+            String title = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_TITLE);
+            String artist = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_ARTIST);
+            String album = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_ALBUM);
+            String durationStr = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_DURATION);
+            String genre = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_GENRE);
+
+            // Generate stable IDs based on file info
+            long id = file.getUri().toString().hashCode();
+            long albumId = (album != null ? album : "Unknown").hashCode();
+            long artistId = (artist != null ? artist : "Unknown").hashCode();
+
+            JSObject track = new JSObject();
+            track.put("id", "t_" + Math.abs(id));
+            track.put("title", title != null ? title : file.getName());
+            track.put("artist", artist != null ? artist : "Unknown Artist");
+            track.put("album", album != null ? album : "Unknown Album");
+            track.put("albumId", "a_" + Math.abs(albumId));
+            track.put("artistId", "ar_" + Math.abs(artistId));
+            track.put("duration", durationStr != null ? Long.parseLong(durationStr) / 1000 : 0);
+            track.put("src", file.getUri().toString());
+            track.put("contentUri", file.getUri().toString());
+            track.put("dateAdded", file.lastModified());
+            track.put("genre", genre != null ? genre : "");
+
+            // Reuse art from the copy a fingerprint confirmed as the same recording instead of
+            // extracting it again. The file's own entry doesn't count: its cover may have been evicted.
+            String trackId = "t_" + Math.abs(id);
+            String keeper = keepers.get(trackId);
+            LibraryIndex.Entry twin = keeper != null && !keeper.equals(trackId)
+                ? LibraryIndex.get(context).getTrack(keeper) : null;
+            String twinCover = twin != null ? reusableCover(twin.cover) : null;
+            if (twinCover != null) {
+                track.put("cover", twinCover);
+            } else {
+                // Extract and cache album art
+                byte[] artData = mmr.getEmbeddedPicture();
+                String artPath = AlbumArtCache.get(context).put("a_" + Math.abs(albumId), artData);
+                track.put("cover", artPath != null ? "file://" + artPath : "");
+            }
+
+            try {
+                mmr.release();
+            } catch (Exception ignored) {}
+
+            return track;
+        } catch (Exception e) {
+            // Fallback for unreadable files
+            return null;
+        }
+    }
+
+    /**
+     * The cover if it can still be served: MediaStore art is managed by the
+     * system, while a cached file may have been evicted since it was indexed.
+     */
+    private String reusableCover(String cover) {
+        if (cover == null || cover.isEmpty()) return null;
+        if (!cover.startsWith("file://")) return cover;
+        File file = new File(cover.substring("file://".length()));
+        if (!file.exists()) return null;
+        AlbumArtCache.get(context).touch(file);
+        return cover;
+    }
+
+    // === Checkpoints ===
+
+    private File file(String folderUri, String suffix) {
+        File dir = new File(context.getFilesDir(), DIR_NAME);
+        if (!dir.exists()) dir.mkdirs();
+        return new File(dir, Integer.toHexString(folderUri.hashCode()) + suffix);
+    }
+
+    /**
+     * Saves the index first, so a directory is only marked done once its tracks are on disk.
+     */
+    private static void flush(LibraryIndex index, File checkpoint, List<String> pending) throws IOException {
+        if (pending.isEmpty()) return;
+        index.save();
+        try (Writer out = new FileWriter(checkpoint, true)) {
+            for (String line : pending) {
+                out.write(line);
+                out.write('\n');
+            }
+        }
+        pending.clear();
+    }
+
+    private static String checkpointLine(String dirUri, List<String> ids) {
+        try {
+            JSONObject line = new JSONObject();
+            line.put("dir", dirUri);
+            line.put("ids", new JSONArray(ids));
+            return line.toString();
+        } catch (org.json.JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Map<String, List<String>> readCheckpoint(File checkpoint) {
+        Map<String, List<String>> done = new HashMap<>();
+        if (!checkpoint.exists()) return done;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(checkpoint), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JSONObject record = new JSONObject(line);
+                    JSONArray array = record.getJSONArray("ids");
+                    List<String> ids = new ArrayList<>(array.length());
+                    for (int i = 0; i < array.length(); i++) ids.add(array.getString(i));
+                    done.put(record.getString("dir"), ids);
+                } catch (org.json.JSONException e) {
+                    // A torn last line from a killed write; that directory is rescanned
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Checkpoint unreadable, rescanning: " + e.getMessage());
+            done.clear();
+        }
+        return done;
+    }
+
+    private void writeResult(String folderUri, List<String> ids) {
+        File result = file(folderUri, ".done");
+        File tmp = new File(result.getParentFile(), result.getName() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(new JSONArray(ids).toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to save scan result: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(result)) tmp.delete();
+    }
+
+    private static String readAll(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readText(in);
+        }
+    }
+}
@@ -0,0 +1,633 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.net.Uri;
+import android.provider.DocumentsContract;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Native copy of the scanned library, keyed by track ID.
+ *
+ * Scan methods upsert into it so background work (loudness analysis and
+ * friends) can find tracks after the WebView is gone. Persisted as a
+ * memory-mapped LibrarySnapshot in the app's files dir, which the UI can
+ * also page through at startup instead of re-parsing JSON.
+ *
+ * load() still copies every snapshot record into the heap map. The snapshot
+ * is immutable and rewritten whole on save, while scans, retains and
+ * loudness results edit entries in place and the browse groupings and
+ * album loudness iterate all of them; serving from the mapping would need
+ * a write overlay in front of every read. The copy is a plain decode with
+ * no JSON parsing, about a tenth of the old JSON load at 100k tracks
+ * (LibraryLoadBenchmarkTest), and is counted in memoryBytes().
+ */
+public final class LibraryIndex implements CacheManager.Trimmable {
+
+    private static final String TAG = "FlowLibrary";
+    private static final String FILE_NAME = "library.snap";
+    private static final String LEGACY_FILE_NAME = "library_index.json";
+    // Rough heap cost of an entry and of one grouping slot, for cache stats
+    private static final int ENTRY_BYTES = 640;
+    private static final int GROUP_SLOT_BYTES = 48;
+
+    public static final String SOURCE_MEDIA = "media";
+    public static final String SOURCE_FOLDER = "folder";
+
+    private static LibraryIndex instance;
+
+    private final File file;
+    private final File legacyFile;
+    private final LinkedHashMap<String, Entry> tracks = new LinkedHashMap<>();
+    // Album tags MediaStore knows but tracks don't carry (e.g. year)
+    private final Map<String, LibrarySnapshot.Album> albumInfo = new HashMap<>();
+    private final Map<String, double[]> albumLoudness = new HashMap<>();
+    private boolean albumsStale = true;
+    private boolean dirty = false;
+    private int version = 0;
+
+    // Browse groupings (album/artist -> track IDs), rebuilt lazily after changes
+    private LinkedHashMap<String, List<String>> albumTracks;
+    private LinkedHashMap<String, List<String>> artistTracks;
+    // Directories holding scanned track files, rebuilt lazily after changes
+    private Set<String> trackFolders;
+
+    public static final class Entry {
+        public String id;
+        public String title;
+        public String artist;
+        public String album;
+        public String albumId;
+        public String artistId;
+        public long duration; // seconds
+        public String uri;
+        public String path;
+        public String cover;
+        public String source;
+        public String genre;
+        public long dateAdded; // ms since epoch, 0 if unknown
+        public boolean hasLyrics;
+
+        // Loudness analysis; lufs is NaN until analysed
+        public double lufs = Double.NaN;
+        public double peak = Double.NaN;
+        public double gatedPower;
+        public int gatedBlocks;
+        public boolean analysed;
+
+        boolean sameMetadata(Entry other) {
+            return duration == other.duration && dateAdded == other.dateAdded
+                && Objects.equals(title, other.title)
+                && Objects.equals(artist, other.artist)
+                && Objects.equals(artistId, other.artistId)
+                && Objects.equals(albumId, other.albumId)
+                && Objects.equals(genre, other.genre)
+                && Objects.equals(uri, other.uri);
+        }
+
+        static Entry fromTrack(JSObject track, String source) {
+            Entry entry = new Entry();
+            entry.id = track.getString("id");
+            entry.title = track.getString("title", "");
+            entry.artist = track.getString("artist", "");
+            entry.album = track.getString("album", "");
+            entry.albumId = track.getString("albumId", "");
+            entry.artistId = track.getString("artistId", "");
+            entry.duration = track.optLong("duration", 0);
+            entry.uri = track.getString("contentUri", "");
+            entry.path = track.getString("src", "");
+            entry.cover = track.getString("cover", "");
+            entry.source = source;
+            entry.genre = track.getString("genre", "");
+            entry.dateAdded = track.optLong("dateAdded", 0);
+            entry.hasLyrics = track.optBoolean("hasLyrics", false);
+            return entry;
+        }
+
+        /**
+         * The entry in the same shape the scan methods return to JS.
+         */
+        public JSObject toTrack() {
+            JSObject track = new JSObject();
+            track.put("id", id);
+            track.put("title", title);
+            track.put("artist", artist);
+            track.put("album", album);
+            track.put("albumId", albumId);
+            track.put("artistId", artistId);
+            track.put("duration", duration);
+            track.put("src", path);
+            track.put("contentUri", uri);
+            track.put("cover", cover);
+            track.put("dateAdded", dateAdded);
+            track.put("genre", genre);
+            if (hasLyrics) track.put("hasLyrics", true);
+            return track;
+        }
+
+        static Entry fromJson(JSONObject json) {
+            Entry entry = new Entry();
+            entry.id = json.optString("id");
+            entry.title = json.optString("title");
+            entry.artist = json.optString("artist");
+            entry.album = json.optString("album");
+            entry.albumId = json.optString("albumId");
+            entry.artistId = json.optString("artistId");
+            entry.duration = json.optLong("duration");
+            entry.uri = json.optString("uri");
+            entry.path = json.optString("path");
+            entry.cover = json.optString("cover");
+            entry.source = json.optString("source");
+            entry.genre = json.optString("genre");
+            entry.dateAdded = json.optLong("dateAdded");
+            entry.analysed = json.optBoolean("analysed");
+            entry.lufs = json.optDouble("lufs", Double.NaN);
+            entry.peak = json.optDouble("peak", Double.NaN);
+            entry.gatedPower = json.optDouble("gatedPower", 0);
+            entry.gatedBlocks = json.optInt("gatedBlocks", 0);
+            return entry;
+        }
+    }
+
+    private LibraryIndex(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+        legacyFile = new File(context.getFilesDir(), LEGACY_FILE_NAME);
+        load();
+        CacheManager.get(context).register(this);
+    }
+
+    public static synchronized LibraryIndex get(Context context) {
+        if (instance == null) {
+            instance = new LibraryIndex(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public synchronized Entry getTrack(String id) {
+        return tracks.get(id);
+    }
+
+    /**
+     * Bumped whenever a track is added, removed or has its tags changed, so
+     * derived views can tell whether they need rebuilding.
+     */
+    public synchronized int version() {
+        return version;
+    }
+
+    public synchronized int size() {
+        return tracks.size();
+    }
+
+    public synchronized List<Entry> snapshot() {
+        return new ArrayList<>(tracks.values());
+    }
+
+    /**
+     * Adds or refreshes a scanned track, keeping any analysis already done for it.
+     * Returns the stored entry.
+     */
+    public synchronized Entry upsert(JSObject track, String source) {
+        Entry fresh = Entry.fromTrack(track, source);
+        if (fresh.id == null) return null;
+
+        Entry existing = tracks.get(fresh.id);
+        if (existing != null && existing.analysed && existing.uri.equals(fresh.uri)) {
+            fresh.analysed = true;
+            fresh.lufs = existing.lufs;
+            fresh.peak = existing.peak;
+            fresh.gatedPower = existing.gatedPower;
+            fresh.gatedBlocks = existing.gatedBlocks;
+        }
+        if (existing == null || !existing.sameMetadata(fresh)) version++;
+        tracks.put(fresh.id, fresh);
+        albumsStale = true;
+        albumTracks = null;
+        trackFolders = null;
+        dirty = true;
+        return fresh;
+    }
+
+    /**
+     * Remembers album tags from MediaStore's album table.
+     */
+    public synchronized void upsertAlbum(JSObject album) {
+        String id = album.getString("id");
+        if (id == null) return;
+        LibrarySnapshot.Album info = new LibrarySnapshot.Album();
+        info.id = id;
+        info.title = album.getString("title", "");
+        info.artist = album.getString("artist", "");
+        info.cover = album.getString("cover", "");
+        info.year = album.optInt("year", 0);
+        LibrarySnapshot.Album existing = albumInfo.put(id, info);
+        if (existing == null || existing.year != info.year || !existing.title.equals(info.title)
+                || !existing.artist.equals(info.artist)) {
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops tracks from the given source that weren't seen in the latest full scan.
+     */
+    public synchronized void retainSource(String source, Set<String> seenIds) {
+        retain(entry -> source.equals(entry.source), seenIds);
+    }
+
+    /**
+     * Drops folder tracks under the given SAF tree that weren't seen in its
+     * latest complete walk. An empty set forgets the folder altogether.
+     */
+    public synchronized void retainFolder(String folderUri, Set<String> seenIds) {
+        Uri tree = Uri.parse(folderUri);
+        String treeId = treeDocumentId(tree);
+        if (treeId == null) return;
+        retain(entry -> SOURCE_FOLDER.equals(entry.source)
+            && inTree(entry.path, tree.getAuthority(), treeId), seenIds);
+    }
+
+    private void retain(Predicate<Entry> scope, Set<String> seenIds) {
+        Iterator<Entry> it = tracks.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (scope.test(entry) && !seenIds.contains(entry.id)) {
+                albumsStale = true;
+                albumTracks = null;
+                trackFolders = null;
+                it.remove();
+                dirty = true;
+                version++;
+            }
+        }
+    }
+
+    private static boolean inTree(String location, String authority, String treeId) {
+        if (location == null || !location.startsWith("content://")) return false;
+        Uri uri = Uri.parse(location);
+        return Objects.equals(authority, uri.getAuthority()) && treeId.equals(treeDocumentId(uri));
+    }
+
+    private static String treeDocumentId(Uri uri) {
+        try {
+            return DocumentsContract.getTreeDocumentId(uri);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // === Browsing ===
+
+    private void buildGroups() {
+        if (albumTracks != null) return;
+        List<Entry> sorted = new ArrayList<>(tracks.values());
+        sorted.sort((a, b) -> compareText(a.title, b.title));
+
+        albumTracks = new LinkedHashMap<>();
+        artistTracks = new LinkedHashMap<>();
+        for (Entry entry : sorted) {
+            groupInto(albumTracks, entry.albumId, entry.id);
+            groupInto(artistTracks, entry.artistId, entry.id);
+        }
+    }
+
+    private static void groupInto(Map<String, List<String>> groups, String key, String id) {
+        if (key == null || key.isEmpty()) return;
+        List<String> ids = groups.get(key);
+        if (ids == null) {
+            ids = new ArrayList<>();
+            groups.put(key, ids);
+        }
+        ids.add(id);
+    }
+
+    private static int compareText(String a, String b) {
+        return String.CASE_INSENSITIVE_ORDER.compare(a != null ? a : "", b != null ? b : "");
+    }
+
+    /**
+     * Whether a directory directly holds a scanned track file. The local
+     * media handler only serves plain file paths from these folders.
+     */
+    public synchronized boolean isTrackFolder(String dir) {
+        if (trackFolders == null) {
+            trackFolders = new HashSet<>();
+            for (Entry entry : tracks.values()) {
+                String path = entry.path;
+                if (path == null || !path.startsWith("/")) continue; // Folder scans use content URIs
+                int slash = path.lastIndexOf('/');
+                if (slash > 0) trackFolders.add(path.substring(0, slash));
+            }
+        }
+        return trackFolders.contains(dir);
+    }
+
+    public synchronized int albumCount() {
+        buildGroups();
+        return albumTracks.size();
+    }
+
+    public synchronized int artistCount() {
+        buildGroups();
+        return artistTracks.size();
+    }
+
+    /**
+     * One representative track per album for the requested page.
+     */
+    public synchronized List<Entry> albumPage(int offset, int count) {
+        buildGroups();
+        return firstOfGroups(albumTracks, offset, count);
+    }
+
+    /**
+     * One representative track per artist for the requested page.
+     */
+    public synchronized List<Entry> artistPage(int offset, int count) {
+        buildGroups();
+        return firstOfGroups(artistTracks, offset, count);
+    }
+
+    public synchronized List<Entry> albumTrackPage(String albumId, int offset, int count) {
+        buildGroups();
+        return page(albumTracks.get(albumId), offset, count);
+    }
+
+    public synchronized List<Entry> artistTrackPage(String artistId, int offset, int count) {
+        buildGroups();
+        return page(artistTracks.get(artistId), offset, count);
+    }
+
+    /**
+     * Resolves a page of IDs (e.g. recents or a playlist), skipping unknown ones.
+     */
+    public synchronized List<Entry> resolvePage(List<String> ids, int offset, int count) {
+        return page(ids, offset, count);
+    }
+
+    private List<Entry> firstOfGroups(LinkedHashMap<String, List<String>> groups, int offset, int count) {
+        List<Entry> result = new ArrayList<>();
+        int i = 0;
+        for (List<String> ids : groups.values()) {
+            if (i++ < offset) continue;
+            if (result.size() >= count) break;
+            Entry entry = tracks.get(ids.get(0));
+            if (entry != null) result.add(entry);
+        }
+        return result;
+    }
+
+    private List<Entry> page(List<String> ids, int offset, int count) {
+        List<Entry> result = new ArrayList<>();
+        if (ids == null) return result;
+        for (int i = Math.max(0, offset); i < ids.size() && result.size() < count; i++) {
+            Entry entry = tracks.get(ids.get(i));
+            if (entry != null) result.add(entry);
+        }
+        return result;
+    }
+
+    // === Memory ===
+
+    @Override
+    public String cacheName() {
+        return "libraryIndex";
+    }
+
+    @Override
+    public synchronized long memoryBytes() {
+        long bytes = (long) tracks.size() * ENTRY_BYTES;
+        if (albumTracks != null) bytes += (long) tracks.size() * 2 * GROUP_SLOT_BYTES;
+        return bytes + (long) albumLoudness.size() * GROUP_SLOT_BYTES;
+    }
+
+    @Override
+    public long diskBytes() {
+        return file.length();
+    }
+
+    /**
+     * Tracks are the data itself and stay; the browse groupings and album
+     * loudness are rebuilt on the next request.
+     */
+    @Override
+    public synchronized void trim(int tier) {
+        if (tier < CacheManager.TRIM_MODERATE) return;
+        albumTracks = null;
+        artistTracks = null;
+        trackFolders = null;
+        albumLoudness.clear();
+        albumsStale = true;
+    }
+
+    // === Loudness ===
+
+    public synchronized List<Entry> pendingAnalysis(int limit) {
+        List<Entry> pending = new ArrayList<>();
+        for (Entry entry : tracks.values()) {
+            if (!entry.analysed) {
+                pending.add(entry);
+                if (pending.size() >= limit) break;
+            }
+        }
+        return pending;
+    }
+
+    public synchronized void setLoudness(String id, LoudnessMeter.Result result) {
+        Entry entry = tracks.get(id);
+        if (entry == null) return;
+        entry.analysed = true;
+        if (result != null) {
+            entry.lufs = result.integratedLufs;
+            entry.peak = result.truePeak;
+            entry.gatedPower = result.gatedPower;
+            entry.gatedBlocks = result.gatedBlocks;
+        }
+        albumsStale = true;
+        dirty = true;
+    }
+
+    /**
+     * Album loudness as the block-weighted mean of each track's gated power.
+     * This matches a single pass over the album except for blocks the
+     * per-track relative gate dropped. Albums with unanalysed tracks are left
+     * out until they are complete. Rebuilt in one pass when tracks change.
+     */
+    private double[] albumLoudness(String albumId) {
+        if (albumsStale) {
+            albumLoudness.clear();
+            Map<String, double[]> sums = new HashMap<>(); // energy, blocks, peak, complete
+            for (Entry entry : tracks.values()) {
+                if (entry.albumId == null || entry.albumId.isEmpty()) continue;
+                double[] sum = sums.get(entry.albumId);
+                if (sum == null) {
+                    sum = new double[] { 0, 0, 0, 1 };
+                    sums.put(entry.albumId, sum);
+                }
+                if (!entry.analysed) {
+                    sum[3] = 0;
+                } else if (entry.gatedBlocks > 0) {
+                    sum[0] += entry.gatedPower * entry.gatedBlocks;
+                    sum[1] += entry.gatedBlocks;
+                    sum[2] = Math.max(sum[2], entry.peak);
+                }
+            }
+            for (Map.Entry<String, double[]> album : sums.entrySet()) {
+                double[] sum = album.getValue();
+                if (sum[3] == 1 && sum[1] > 0) {
+                    albumLoudness.put(album.getKey(), new double[] { LoudnessMeter.toLufs(sum[0] / sum[1]), sum[2] });
+                }
+            }
+            albumsStale = false;
+        }
+        return albumLoudness.get(albumId);
+    }
+
+    /**
+     * ReplayGain-style gain info for a track, or null if not analysed yet.
+     */
+    public synchronized JSObject gainFor(String id) {
+        Entry entry = tracks.get(id);
+        if (entry == null || !entry.analysed || Double.isNaN(entry.lufs)) return null;
+
+        JSObject gain = new JSObject();
+        gain.put("lufs", round(entry.lufs));
+        gain.put("peak", round(entry.peak));
+        gain.put("trackGain", round(LoudnessMeter.REFERENCE_LUFS - entry.lufs));
+
+        double[] album = entry.albumId != null && !entry.albumId.isEmpty()
+            ? albumLoudness(entry.albumId) : null;
+        if (album != null) {
+            gain.put("albumGain", round(LoudnessMeter.REFERENCE_LUFS - album[0]));
+            gain.put("albumPeak", round(album[1]));
+        }
+        return gain;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+
+    // === Persistence ===
+
+    public File snapshotFile() {
+        return file;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            loadLegacy();
+            return;
+        }
+        try {
+            LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+            for (int i = 0; i < snapshot.trackCount(); i++) {
+                Entry entry = snapshot.track(i);
+                tracks.put(entry.id, entry);
+            }
+            for (int i = 0; i < snapshot.albumCount(); i++) {
+                LibrarySnapshot.Album album = snapshot.album(i);
+                album.tracks = new int[0];
+                albumInfo.put(album.id, album);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Library snapshot unreadable, starting empty: " + e.getMessage());
+            tracks.clear();
+            albumInfo.clear();
+        }
+    }
+
+    /**
+     * One-time migration from the JSON index written by older versions.
+     */
+    private void loadLegacy() {
+        if (!legacyFile.exists()) return;
+        try (FileInputStream in = new FileInputStream(legacyFile)) {
+            byte[] data = new byte[(int) legacyFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            JSONArray array = new JSONArray(new String(data, 0, read, StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                Entry entry = Entry.fromJson(array.getJSONObject(i));
+                tracks.put(entry.id, entry);
+            }
+            dirty = true;
+            save();
+        } catch (Exception e) {
+            Log.w(TAG, "Legacy library index unreadable, starting empty: " + e.getMessage());
+            tracks.clear();
+        }
+    }
+
+    /**
+     * Writes the snapshot if anything changed since the last save.
+     */
+    public synchronized void save() {
+        if (!dirty) return;
+        buildGroups();
+
+        List<Entry> ordered = new ArrayList<>(tracks.values());
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ordered.size(); i++) positions.put(ordered.get(i).id, i);
+
+        List<LibrarySnapshot.Album> albums = new ArrayList<>();
+        for (Map.Entry<String, List<String>> group : albumTracks.entrySet()) {
+            Entry first = tracks.get(group.getValue().get(0));
+            LibrarySnapshot.Album info = albumInfo.get(group.getKey());
+            LibrarySnapshot.Album album = new LibrarySnapshot.Album();
+            album.id = group.getKey();
+            album.title = info != null && !info.title.isEmpty() ? info.title : first.album;
+            album.artist = info != null && !info.artist.isEmpty() ? info.artist : first.artist;
+            album.artistId = first.artistId;
+            album.cover = info != null && !info.cover.isEmpty() ? info.cover : first.cover;
+            album.year = info != null ? info.year : 0;
+            album.tracks = indexesOf(group.getValue(), positions);
+            albums.add(album);
+        }
+
+        List<LibrarySnapshot.Artist> artists = new ArrayList<>();
+        for (Map.Entry<String, List<String>> group : artistTracks.entrySet()) {
+            Set<String> albumIds = new HashSet<>();
+            for (String id : group.getValue()) albumIds.add(tracks.get(id).albumId);
+            LibrarySnapshot.Artist artist = new LibrarySnapshot.Artist();
+            artist.id = group.getKey();
+            artist.name = tracks.get(group.getValue().get(0)).artist;
+            artist.albumCount = albumIds.size();
+            artist.tracks = indexesOf(group.getValue(), positions);
+            artists.add(artist);
+        }
+
+        try {
+            LibrarySnapshot.write(file, ordered, albums, artists);
+        } catch (Exception e) {
+            Log.w(TAG, "Failed to save library snapshot: " + e.getMessage());
+            return;
+        }
+        dirty = false;
+        if (legacyFile.exists()) legacyFile.delete();
+    }
+
+    private static int[] indexesOf(List<String> ids, Map<String, Integer> positions) {
+        int[] indexes = new int[ids.size()];
+        for (int i = 0; i < indexes.length; i++) indexes[i] = positions.get(ids.get(i));
+        return indexes;
+    }
+}
@@ -0,0 +1,417 @@
+package com.coflyn.flow;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Versioned binary snapshot of the track, album and artist tables.
+ *
+ * Every table is made of fixed-width records that point into a shared,
+ * de-duplicated string table. The file is read through a read-only
+ * FileChannel.map, so opening it costs one mmap and any record can be
+ * read by index (or by track ID through a sorted hash index) without
+ * parsing the rest.
+ *
+ * Layout (big-endian):
+ *   header    MAGIC, VERSION, counts and section offsets (HEADER_SIZE bytes)
+ *   tracks    TRACK_RECORD bytes each
+ *   albums    ALBUM_RECORD bytes each
+ *   artists   ARTIST_RECORD bytes each
+ *   id index  (hash, track index) pairs sorted by hash
+ *   lists     track indexes for albums and artists
+ *   strings   [length][UTF-8 bytes] entries, referenced by offset
+ */
+public final class LibrarySnapshot {
+
+    private static final int MAGIC = 0x464C4942; // "FLIB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 48;
+
+    // 11 string refs, duration, dateAdded, lufs, peak, gatedPower, gatedBlocks, flags
+    private static final int TRACK_RECORD = 11 * 4 + 8 + 8 + 8 + 8 + 8 + 4 + 4;
+    // id, title, artist, artistId, cover, year, trackCount, tracksOffset
+    private static final int ALBUM_RECORD = 5 * 4 + 4 + 4 + 4;
+    // id, name, albumCount, trackCount, tracksOffset
+    private static final int ARTIST_RECORD = 2 * 4 + 4 + 4 + 4;
+
+    private static final int FLAG_ANALYSED = 1;
+    private static final int FLAG_LYRICS = 2;
+
+    private final ByteBuffer buffer;
+    private final int trackCount;
+    private final int albumCount;
+    private final int artistCount;
+    private final int tracksStart;
+    private final int albumsStart;
+    private final int artistsStart;
+    private final int idIndexStart;
+    private final int listsStart;
+    private final int stringsStart;
+
+    public static final class Album {
+        public String id;
+        public String title;
+        public String artist;
+        public String artistId;
+        public String cover;
+        public int year;
+        public int[] tracks = new int[0]; // indexes into the track table
+    }
+
+    public static final class Artist {
+        public String id;
+        public String name;
+        public int albumCount;
+        public int[] tracks = new int[0];
+    }
+
+    private LibrarySnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a library snapshot");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Unsupported snapshot version " + buffer.getInt(4));
+        }
+        trackCount = buffer.getInt(8);
+        albumCount = buffer.getInt(12);
+        artistCount = buffer.getInt(16);
+        tracksStart = buffer.getInt(20);
+        albumsStart = buffer.getInt(24);
+        artistsStart = buffer.getInt(28);
+        idIndexStart = buffer.getInt(32);
+        listsStart = buffer.getInt(36);
+        stringsStart = buffer.getInt(40);
+        int stringsLength = buffer.getInt(44);
+
+        if (trackCount < 0 || albumCount < 0 || artistCount < 0 || tracksStart != HEADER_SIZE
+                || albumsStart != tracksStart + trackCount * TRACK_RECORD
+                || artistsStart != albumsStart + albumCount * ALBUM_RECORD
+                || idIndexStart != artistsStart + artistCount * ARTIST_RECORD
+                || listsStart != idIndexStart + trackCount * 8
+                || stringsStart < listsStart
+                || (long) stringsStart + stringsLength != buffer.capacity()) {
+            throw new IOException("Library snapshot is truncated or corrupt");
+        }
+    }
+
+    /**
+     * Maps the snapshot read-only. The mapping stays valid after the file is
+     * replaced, so readers never see a half-written library.
+     */
+    public static LibrarySnapshot open(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return new LibrarySnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    public int trackCount() {
+        return trackCount;
+    }
+
+    public int albumCount() {
+        return albumCount;
+    }
+
+    public int artistCount() {
+        return artistCount;
+    }
+
+    // === Tracks ===
+
+    public LibraryIndex.Entry track(int index) {
+        checkIndex(index, trackCount);
+        int at = tracksStart + index * TRACK_RECORD;
+        LibraryIndex.Entry entry = new LibraryIndex.Entry();
+        entry.id = string(at);
+        entry.title = string(at + 4);
+        entry.artist = string(at + 8);
+        entry.album = string(at + 12);
+        entry.albumId = string(at + 16);
+        entry.artistId = string(at + 20);
+        entry.uri = string(at + 24);
+        entry.path = string(at + 28);
+        entry.cover = string(at + 32);
+        entry.source = string(at + 36);
+        entry.genre = string(at + 40);
+        entry.duration = buffer.getLong(at + 44);
+        entry.dateAdded = buffer.getLong(at + 52);
+        entry.lufs = buffer.getDouble(at + 60);
+        entry.peak = buffer.getDouble(at + 68);
+        entry.gatedPower = buffer.getDouble(at + 76);
+        entry.gatedBlocks = buffer.getInt(at + 84);
+        int flags = buffer.getInt(at + 88);
+        entry.analysed = (flags & FLAG_ANALYSED) != 0;
+        entry.hasLyrics = (flags & FLAG_LYRICS) != 0;
+        return entry;
+    }
+
+    public String trackId(int index) {
+        checkIndex(index, trackCount);
+        return string(tracksStart + index * TRACK_RECORD);
+    }
+
+    /**
+     * Index of the track with this ID, or -1. Binary search over the hash
+     * index, then a byte comparison against the few records sharing the hash.
+     */
+    public int indexOf(String id) {
+        if (id == null) return -1;
+        int hash = id.hashCode();
+        int lo = 0;
+        int hi = trackCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getInt(idIndexStart + mid * 8) < hash) lo = mid + 1;
+            else hi = mid - 1;
+        }
+
+        byte[] wanted = id.getBytes(StandardCharsets.UTF_8);
+        for (int i = lo; i < trackCount && buffer.getInt(idIndexStart + i * 8) == hash; i++) {
+            int track = buffer.getInt(idIndexStart + i * 8 + 4);
+            if (stringEquals(tracksStart + track * TRACK_RECORD, wanted)) return track;
+        }
+        return -1;
+    }
+
+    public LibraryIndex.Entry find(String id) {
+        int index = indexOf(id);
+        return index >= 0 ? track(index) : null;
+    }
+
+    // === Albums and artists ===
+
+    public Album album(int index) {
+        checkIndex(index, albumCount);
+        int at = albumsStart + index * ALBUM_RECORD;
+        Album album = new Album();
+        album.id = string(at);
+        album.title = string(at + 4);
+        album.artist = string(at + 8);
+        album.artistId = string(at + 12);
+        album.cover = string(at + 16);
+        album.year = buffer.getInt(at + 20);
+        album.tracks = list(buffer.getInt(at + 28), buffer.getInt(at + 24));
+        return album;
+    }
+
+    public Artist artist(int index) {
+        checkIndex(index, artistCount);
+        int at = artistsStart + index * ARTIST_RECORD;
+        Artist artist = new Artist();
+        artist.id = string(at);
+        artist.name = string(at + 4);
+        artist.albumCount = buffer.getInt(at + 8);
+        artist.tracks = list(buffer.getInt(at + 16), buffer.getInt(at + 12));
+        return artist;
+    }
+
+    // === Reading helpers ===
+
+    private static void checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + " of " + count);
+        }
+    }
+
+    private int[] list(int offset, int count) {
+        int[] indexes = new int[count];
+        int at = listsStart + offset * 4;
+        for (int i = 0; i < count; i++) indexes[i] = buffer.getInt(at + i * 4);
+        return indexes;
+    }
+
+    private String string(int refAt) {
+        int at = stringsStart + buffer.getInt(refAt);
+        int length = buffer.getInt(at);
+        if (length == 0) return "";
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(at + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private boolean stringEquals(int refAt, byte[] wanted) {
+        int at = stringsStart + buffer.getInt(refAt);
+        if (buffer.getInt(at) != wanted.length) return false;
+        for (int i = 0; i < wanted.length; i++) {
+            if (buffer.get(at + 4 + i) != wanted[i]) return false;
+        }
+        return true;
+    }
+
+    // === Writing ===
+
+    /**
+     * Writes the tables to a temporary file and renames it over the target.
+     * Album and artist track lists refer to positions in {@code tracks}.
+     */
+    public static void write(File file, List<LibraryIndex.Entry> tracks, List<Album> albums,
+                             List<Artist> artists) throws IOException {
+        StringTable strings = new StringTable();
+        int[] trackRefs = new int[tracks.size() * 11];
+        for (int i = 0; i < tracks.size(); i++) {
+            LibraryIndex.Entry entry = tracks.get(i);
+            String[] fields = {
+                entry.id, entry.title, entry.artist, entry.album, entry.albumId, entry.artistId,
+                entry.uri, entry.path, entry.cover, entry.source, entry.genre
+            };
+            for (int f = 0; f < fields.length; f++) trackRefs[i * 11 + f] = strings.add(fields[f]);
+        }
+        int[] albumRefs = new int[albums.size() * 5];
+        for (int i = 0; i < albums.size(); i++) {
+            Album album = albums.get(i);
+            albumRefs[i * 5] = strings.add(album.id);
+            albumRefs[i * 5 + 1] = strings.add(album.title);
+            albumRefs[i * 5 + 2] = strings.add(album.artist);
+            albumRefs[i * 5 + 3] = strings.add(album.artistId);
+            albumRefs[i * 5 + 4] = strings.add(album.cover);
+        }
+        int[] artistRefs = new int[artists.size() * 2];
+        for (int i = 0; i < artists.size(); i++) {
+            artistRefs[i * 2] = strings.add(artists.get(i).id);
+            artistRefs[i * 2 + 1] = strings.add(artists.get(i).name);
+        }
+
+        int listLength = 0;
+        for (Album album : albums) listLength += album.tracks.length;
+        for (Artist artist : artists) listLength += artist.tracks.length;
+
+        int tracksStart = HEADER_SIZE;
+        int albumsStart = tracksStart + tracks.size() * TRACK_RECORD;
+        int artistsStart = albumsStart + albums.size() * ALBUM_RECORD;
+        int idIndexStart = artistsStart + artists.size() * ARTIST_RECORD;
+        int listsStart = idIndexStart + tracks.size() * 8;
+        int stringsStart = listsStart + listLength * 4;
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(tracks.size());
+            out.writeInt(albums.size());
+            out.writeInt(artists.size());
+            out.writeInt(tracksStart);
+            out.writeInt(albumsStart);
+            out.writeInt(artistsStart);
+            out.writeInt(idIndexStart);
+            out.writeInt(listsStart);
+            out.writeInt(stringsStart);
+            out.writeInt(strings.length());
+
+            for (int i = 0; i < tracks.size(); i++) {
+                LibraryIndex.Entry entry = tracks.get(i);
+                for (int f = 0; f < 11; f++) out.writeInt(trackRefs[i * 11 + f]);
+                out.writeLong(entry.duration);
+                out.writeLong(entry.dateAdded);
+                out.writeDouble(entry.lufs);
+                out.writeDouble(entry.peak);
+                out.writeDouble(entry.gatedPower);
+                out.writeInt(entry.gatedBlocks);
+                out.writeInt((entry.analysed ? FLAG_ANALYSED : 0) | (entry.hasLyrics ? FLAG_LYRICS : 0));
+            }
+
+            int listOffset = 0;
+            for (int i = 0; i < albums.size(); i++) {
+                Album album = albums.get(i);
+                for (int f = 0; f < 5; f++) out.writeInt(albumRefs[i * 5 + f]);
+                out.writeInt(album.year);
+                out.writeInt(album.tracks.length);
+                out.writeInt(listOffset);
+                listOffset += album.tracks.length;
+            }
+            for (int i = 0; i < artists.size(); i++) {
+                Artist artist = artists.get(i);
+                out.writeInt(artistRefs[i * 2]);
+                out.writeInt(artistRefs[i * 2 + 1]);
+                out.writeInt(artist.albumCount);
+                out.writeInt(artist.tracks.length);
+                out.writeInt(listOffset);
+                listOffset += artist.tracks.length;
+            }
+
+            for (long pair : idIndex(tracks)) {
+                out.writeInt((int) (pair >> 32));
+                out.writeInt((int) pair);
+            }
+
+            for (Album album : albums) {
+                for (int track : album.tracks) out.writeInt(track);
+            }
+            for (Artist artist : artists) {
+                for (int track : artist.tracks) out.writeInt(track);
+            }
+
+            strings.writeTo(out);
+            out.flush();
+            fos.getFD().sync();
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not replace " + file.getName());
+        }
+    }
+
+    /**
+     * (hash, index) pairs packed into longs so a plain sort orders them by hash.
+     */
+    private static long[] idIndex(List<LibraryIndex.Entry> tracks) {
+        long[] pairs = new long[tracks.size()];
+        for (int i = 0; i < pairs.length; i++) {
+            String id = tracks.get(i).id;
+            pairs[i] = ((long) (id != null ? id.hashCode() : 0) << 32) | (i & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pairs);
+        return pairs;
+    }
+
+    /**
+     * Interns each distinct string once; artist, album and genre names repeat a lot.
+     */
+    private static final class StringTable {
+        private final Map<String, Integer> offsets = new HashMap<>();
+        private final List<byte[]> entries = new ArrayList<>();
+        private int length = 0;
+
+        int add(String value) {
+            String key = value != null ? value : "";
+            Integer offset = offsets.get(key);
+            if (offset != null) return offset;
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            offset = length;
+            offsets.put(key, offset);
+            entries.add(bytes);
+            length += 4 + bytes.length;
+            return offset;
+        }
+
+        int length() {
+            return length;
+        }
+
+        void writeTo(DataOutputStream out) throws IOException {
+            for (byte[] bytes : entries) {
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+}
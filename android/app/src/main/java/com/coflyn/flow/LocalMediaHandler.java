@@ -0,0 +1,319 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.content.UriPermission;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.provider.DocumentsContract;
+import android.provider.MediaStore;
+import android.util.Log;
+import android.webkit.MimeTypeMap;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Serves local audio and cover art to the WebView under /_flow_media_/.
+ *
+ * Files are streamed straight from a ParcelFileDescriptor positioned at the
+ * requested offset, so Range requests (seeking in large FLACs) cost one
+ * lseek instead of reading through the file, and nothing is buffered on
+ * the Java heap.
+ *
+ *   /_flow_media_/audio?uri=<content:// URI or absolute path>
+ *   /_flow_media_/art?uri=<content:// URI or file:// path>
+ *
+ * The WebView only ever holds these URLs; the library and user data keep
+ * the raw URIs, since the origin can change between app versions. Only the
+ * app's own origin is served, and without CORS headers, so pages loaded in
+ * an iframe or fetched from elsewhere can't read local files.
+ */
+public final class LocalMediaHandler {
+
+    public static final String PATH_PREFIX = "/_flow_media_/";
+
+    private static final String TAG = "FlowLocalMedia";
+    private static final String ART_CACHE_CONTROL = "public, max-age=604800";
+    private static final String AUDIO_CACHE_CONTROL = "private, max-age=3600";
+
+    private final Context context;
+    private final Uri origin;
+
+    /**
+     * @param origin the bridge's local URL, e.g. https://localhost
+     */
+    public LocalMediaHandler(Context context, Uri origin) {
+        this.context = context.getApplicationContext();
+        this.origin = origin;
+    }
+
+    public boolean handles(Uri url) {
+        String path = url.getPath();
+        return path != null && path.startsWith(PATH_PREFIX)
+            && Objects.equals(origin.getScheme(), url.getScheme())
+            && Objects.equals(origin.getHost(), url.getHost())
+            && origin.getPort() == url.getPort();
+    }
+
+    public WebResourceResponse handle(WebResourceRequest request) {
+        long started = SystemClock.elapsedRealtime();
+        Uri url = request.getUrl();
+        String kind = url.getPath().substring(PATH_PREFIX.length());
+        String target = url.getQueryParameter("uri");
+        boolean art = kind.equals("art");
+        if (target == null || (!art && !kind.equals("audio"))) return error(400, "Bad Request");
+
+        ParcelFileDescriptor pfd = null;
+        try {
+            pfd = open(context, target);
+            if (pfd == null) return error(404, "Not Found");
+
+            String mime = mimeType(target, art);
+            long size = pfd.getStatSize();
+            String range = header(request, "Range");
+
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Accept-Ranges", "bytes");
+            headers.put("Cache-Control", art ? ART_CACHE_CONTROL : AUDIO_CACHE_CONTROL);
+
+            long start = 0;
+            long end = size - 1;
+            boolean partial = false;
+
+            if (range != null && size > 0) {
+                long[] parsed = parseRange(range, size);
+                if (parsed == null) {
+                    pfd.close();
+                    headers.put("Content-Range", "bytes */" + size);
+                    return new WebResourceResponse(mime, null, 416, "Range Not Satisfiable", headers, null);
+                }
+                start = parsed[0];
+                end = parsed[1];
+                partial = true;
+            }
+
+            ParcelFileDescriptor.AutoCloseInputStream stream = new ParcelFileDescriptor.AutoCloseInputStream(pfd);
+            pfd = null; // Owned by the stream now
+            InputStream body = stream;
+            if (start > 0) {
+                // Seek directly; falls back to skipping for pipes and other unseekable descriptors
+                try {
+                    stream.getChannel().position(start);
+                } catch (IOException e) {
+                    skipFully(stream, start);
+                }
+            }
+
+            if (size >= 0) {
+                long length = end - start + 1;
+                headers.put("Content-Length", String.valueOf(length));
+                body = new BoundedInputStream(stream, length);
+            }
+
+            if (partial) {
+                headers.put("Content-Range", "bytes " + start + "-" + end + "/" + size);
+                Log.d(TAG, "Range " + start + "-" + end + "/" + size + " ready in "
+                    + (SystemClock.elapsedRealtime() - started) + " ms");
+                return new WebResourceResponse(mime, null, 206, "Partial Content", headers, body);
+            }
+            return new WebResourceResponse(mime, null, 200, "OK", headers, body);
+        } catch (Exception e) {
+            Log.d(TAG, "Failed to serve " + target + ": " + e.getMessage());
+            if (pfd != null) {
+                try { pfd.close(); } catch (IOException ignored) {}
+            }
+            return error(404, "Not Found");
+        }
+    }
+
+    /**
+     * Opens a raw media URI or path read-only, subject to the same checks as
+     * a WebView request. Returns null if it isn't servable.
+     */
+    static ParcelFileDescriptor open(Context context, String target) throws IOException {
+        if (target.startsWith("content://")) {
+            Uri uri = Uri.parse(target);
+            if (!isServable(context, uri)) {
+                Log.w(TAG, "Refusing to serve " + uri);
+                return null;
+            }
+            return context.getContentResolver().openFileDescriptor(uri, "r");
+        }
+
+        String path = target.startsWith("file://") ? Uri.parse(target).getPath() : target;
+        if (path == null) return null;
+        File file = new File(path).getCanonicalFile();
+        if (!isServable(context, file)) {
+            Log.w(TAG, "Refusing to serve " + file);
+            return null;
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * Plain paths are limited to the album art cache and folders the media
+     * scan found tracks in; never the rest of shared storage or app data.
+     */
+    private static boolean isServable(Context context, File file) throws IOException {
+        String covers = AlbumArtCache.get(context).dir().getCanonicalPath() + File.separator;
+        if (file.getPath().startsWith(covers)) {
+            AlbumArtCache.get(context).touch(file);
+            return true;
+        }
+        String parent = file.getParent();
+        return parent != null && LibraryIndex.get(context).isTrackFolder(parent);
+    }
+
+    /**
+     * Content URIs are limited to MediaStore audio and album art, and to
+     * documents inside a folder tree the user granted; never other providers.
+     */
+    private static boolean isServable(Context context, Uri uri) {
+        String authority = uri.getAuthority();
+        if (authority == null) return false;
+        if (authority.equals(MediaStore.AUTHORITY)) {
+            // content://media/<volume>/audio/media/<id> or .../audio/albumart/<id>
+            List<String> segments = uri.getPathSegments();
+            return segments.size() >= 4 && segments.get(1).equals("audio")
+                && (segments.get(2).equals("media") || segments.get(2).equals("albumart"));
+        }
+
+        String treeId = treeDocumentId(uri);
+        if (treeId == null) return false;
+        for (UriPermission permission : context.getContentResolver().getPersistedUriPermissions()) {
+            Uri granted = permission.getUri();
+            if (permission.isReadPermission() && authority.equals(granted.getAuthority())
+                    && treeId.equals(treeDocumentId(granted))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String treeDocumentId(Uri uri) {
+        try {
+            return DocumentsContract.getTreeDocumentId(uri);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private String mimeType(String target, boolean art) {
+        String mime = null;
+        if (target.startsWith("content://")) {
+            mime = context.getContentResolver().getType(Uri.parse(target));
+        } else {
+            String ext = MimeTypeMap.getFileExtensionFromUrl(target);
+            if (ext != null && !ext.isEmpty()) {
+                mime = MimeTypeMap.getSingleton().getMimeTypeFromExtension(ext.toLowerCase(Locale.ROOT));
+            }
+        }
+        if (mime == null) mime = art ? "image/jpeg" : "audio/mpeg";
+        return mime;
+    }
+
+    private static String header(WebResourceRequest request, String name) {
+        Map<String, String> headers = request.getRequestHeaders();
+        if (headers == null) return null;
+        for (Map.Entry<String, String> entry : headers.entrySet()) {
+            if (name.equalsIgnoreCase(entry.getKey())) return entry.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * Parses a single "bytes=" range. Returns {start, end} inclusive, or null if unsatisfiable.
+     */
+    static long[] parseRange(String header, long size) {
+        String value = header.trim();
+        if (!value.startsWith("bytes=")) return null;
+        value = value.substring(6);
+        int comma = value.indexOf(',');
+        if (comma >= 0) value = value.substring(0, comma); // Multipart ranges: serve the first
+        int dash = value.indexOf('-');
+        if (dash < 0) return null;
+
+        try {
+            String first = value.substring(0, dash).trim();
+            String last = value.substring(dash + 1).trim();
+            long start;
+            long end;
+            if (first.isEmpty()) {
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0) return null;
+                start = Math.max(0, size - suffix);
+                end = size - 1;
+            } else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? size - 1 : Math.min(Long.parseLong(last), size - 1);
+            }
+            if (start >= size || start > end) return null;
+            return new long[] { start, end };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) return;
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private static WebResourceResponse error(int status, String reason) {
+        return new WebResourceResponse("text/plain", "utf-8", status, reason, new HashMap<>(), null);
+    }
+
+    /**
+     * Stops after the requested range so the WebView can't read past Content-Length.
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final FileInputStream in;
+        private long remaining;
+
+        BoundedInputStream(FileInputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) return -1;
+            int b = in.read();
+            if (b >= 0) remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) return -1;
+            int n = in.read(buffer, offset, (int) Math.min(length, remaining));
+            if (n > 0) remaining -= n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(in.available(), remaining);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.coflyn.flow;
+
+import android.net.Uri;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.BridgeWebViewClient;
+
+/**
+ * Capacitor's WebView client with local media requests routed to LocalMediaHandler.
+ */
+public class LocalMediaWebViewClient extends BridgeWebViewClient {
+
+    private final LocalMediaHandler mediaHandler;
+
+    public LocalMediaWebViewClient(Bridge bridge) {
+        super(bridge);
+        mediaHandler = new LocalMediaHandler(bridge.getContext(), Uri.parse(bridge.getLocalUrl()));
+    }
+
+    @Override
+    public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+        if (mediaHandler.handles(request.getUrl())) {
+            return mediaHandler.handle(request);
+        }
+        return super.shouldInterceptRequest(view, request);
+    }
+}
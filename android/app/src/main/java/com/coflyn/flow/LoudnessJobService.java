@@ -0,0 +1,95 @@
+package com.coflyn.flow;
+
+import android.app.job.JobParameters;
+import android.app.job.JobService;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+import java.util.List;
+
+/**
+ * Measures loudness for tracks in the library index that haven't been
+ * analysed yet. Scheduled by ScanScheduler to run only while charging and
+ * idle, one track at a time, and persists progress as it goes so a killed
+ * job resumes where it stopped.
+ */
+public class LoudnessJobService extends JobService {
+
+    private static final String TAG = "FlowLoudness";
+    private static final int BATCH_SIZE = 16;
+    private static final int SAVE_EVERY = 10;
+
+    private volatile boolean stopped = false;
+    private volatile LoudnessMeter activeMeter;
+    private Thread worker;
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        stopped = false;
+        worker = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            boolean finished = analysePending();
+            if (!stopped) {
+                jobFinished(params, !finished);
+            }
+        }, "FlowLoudness");
+        worker.start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        stopped = true;
+        LoudnessMeter meter = activeMeter;
+        if (meter != null) meter.cancel();
+        // Reschedule; completed tracks are already in the index
+        return true;
+    }
+
+    /**
+     * Returns true once nothing is left to analyse.
+     */
+    private boolean analysePending() {
+        LibraryIndex index = LibraryIndex.get(this);
+        int sinceSave = 0;
+        try {
+            while (!stopped) {
+                List<LibraryIndex.Entry> batch = index.pendingAnalysis(BATCH_SIZE);
+                if (batch.isEmpty()) return true;
+
+                for (LibraryIndex.Entry entry : batch) {
+                    if (stopped) return false;
+                    LoudnessMeter.Result result = measure(entry);
+                    if (stopped) return false; // Cancelled mid-track; measure it again next run
+                    index.setLoudness(entry.id, result);
+                    if (++sinceSave >= SAVE_EVERY) {
+                        index.save();
+                        sinceSave = 0;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            index.save();
+        }
+    }
+
+    private LoudnessMeter.Result measure(LibraryIndex.Entry entry) {
+        String source = entry.uri != null && !entry.uri.isEmpty() ? entry.uri : entry.path;
+        if (source == null || source.isEmpty()) return null;
+
+        LoudnessMeter meter = new LoudnessMeter();
+        activeMeter = meter;
+        try {
+            Uri uri = source.startsWith("/") ? Uri.fromFile(new java.io.File(source)) : Uri.parse(source);
+            PcmDecoder.decode(this, uri, 0, meter);
+            return meter.result();
+        } catch (Exception e) {
+            // Mark as analysed without a result so broken files aren't retried forever
+            Log.d(TAG, "Loudness analysis failed for " + entry.id + ": " + e.getMessage());
+            return null;
+        } finally {
+            activeMeter = null;
+        }
+    }
+}
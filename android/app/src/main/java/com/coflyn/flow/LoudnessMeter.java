@@ -0,0 +1,263 @@
+package com.coflyn.flow;
+
+import android.media.AudioFormat;
+
+/**
+ * EBU R128 / ITU-R BS.1770-4 loudness meter fed from PcmDecoder.
+ *
+ * Computes integrated loudness with the absolute (-70 LUFS) and relative
+ * (-10 LU) gates over 400 ms blocks with 75% overlap, and true peak using
+ * 4x polyphase oversampling. Gated block power is kept so album loudness can
+ * be derived later by combining tracks.
+ */
+public final class LoudnessMeter implements PcmDecoder.Sink {
+
+    public static final double REFERENCE_LUFS = -18.0; // ReplayGain 2.0 reference level
+
+    private static final double ABSOLUTE_GATE_LUFS = -70.0;
+    private static final double RELATIVE_GATE_LU = -10.0;
+
+    // 4x oversampling interpolator: 48-tap windowed sinc split into 4 phases of 12
+    private static final int OVERSAMPLE = 4;
+    private static final int PHASE_TAPS = 12;
+    private static final double[][] PHASES = buildInterpolator();
+
+    private static final int LFE = AudioFormat.CHANNEL_OUT_LOW_FREQUENCY
+        | AudioFormat.CHANNEL_OUT_LOW_FREQUENCY_2;
+    private static final int SURROUND = AudioFormat.CHANNEL_OUT_BACK_LEFT
+        | AudioFormat.CHANNEL_OUT_BACK_RIGHT | AudioFormat.CHANNEL_OUT_BACK_CENTER
+        | AudioFormat.CHANNEL_OUT_SIDE_LEFT | AudioFormat.CHANNEL_OUT_SIDE_RIGHT;
+
+    private int channels;
+    private int subBlockFrames;
+    private double[] weights;
+
+    // K-weighting: two biquads per channel (high shelf, then high pass)
+    private double sb0, sb1, sb2, sa1, sa2;
+    private double hb0, hb1, hb2, ha1, ha2;
+    private double[] s1z1, s1z2, s2z1, s2z2;
+
+    private double subBlockSum;
+    private int subBlockCount;
+    private final double[] recentSubBlocks = new double[4];
+    private int subBlocksSeen;
+
+    private double[] blocks = new double[1024];
+    private int blockCount;
+
+    private double[][] history;
+    private int historyPos;
+    private double peak;
+
+    private volatile boolean cancelled;
+
+    @Override
+    public void onFormat(int sampleRate, int channels) {
+        onFormat(sampleRate, channels, 0);
+    }
+
+    @Override
+    public void onFormat(int sampleRate, int channels, int channelMask) {
+        this.channels = channels;
+        this.subBlockFrames = Math.max(1, sampleRate / 10);
+        weights = channelWeights(channels, channelMask);
+
+        double k = Math.tan(Math.PI * 1681.974450955533 / sampleRate);
+        double q = 0.7071752369554196;
+        double vh = Math.pow(10.0, 3.999843853973347 / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+        sb0 = (vh + vb * k / q + k * k) / a0;
+        sb1 = 2.0 * (k * k - vh) / a0;
+        sb2 = (vh - vb * k / q + k * k) / a0;
+        sa1 = 2.0 * (k * k - 1.0) / a0;
+        sa2 = (1.0 - k / q + k * k) / a0;
+
+        k = Math.tan(Math.PI * 38.13547087602444 / sampleRate);
+        q = 0.5003270373238773;
+        a0 = 1.0 + k / q + k * k;
+        hb0 = 1.0;
+        hb1 = -2.0;
+        hb2 = 1.0;
+        ha1 = 2.0 * (k * k - 1.0) / a0;
+        ha2 = (1.0 - k / q + k * k) / a0;
+
+        s1z1 = new double[channels];
+        s1z2 = new double[channels];
+        s2z1 = new double[channels];
+        s2z2 = new double[channels];
+        history = new double[channels][PHASE_TAPS];
+        historyPos = 0;
+    }
+
+    /**
+     * BS.1770 weight of each interleaved channel: LFE is excluded, side and
+     * back surrounds are weighted +1.5 dB, the rest 1.0. Decoders interleave
+     * in ascending mask bit order; without a usable mask the channel count's
+     * default layout is assumed (5 channels being 5.0, i.e. L R C Ls Rs).
+     */
+    static double[] channelWeights(int channels, int channelMask) {
+        int mask = Integer.bitCount(channelMask) == channels ? channelMask : defaultLayout(channels);
+        double[] weights = new double[channels];
+        int c = 0;
+        for (int bit = 0; bit < 32 && c < channels; bit++) {
+            int position = 1 << bit;
+            if ((mask & position) == 0) continue;
+            if ((position & LFE) != 0) weights[c] = 0;
+            else if ((position & SURROUND) != 0) weights[c] = 1.41;
+            else weights[c] = 1.0;
+            c++;
+        }
+        while (c < channels) weights[c++] = 1.0; // Unknown layout: no weighting
+        return weights;
+    }
+
+    private static int defaultLayout(int channels) {
+        int front = AudioFormat.CHANNEL_OUT_FRONT_LEFT | AudioFormat.CHANNEL_OUT_FRONT_RIGHT;
+        int back = AudioFormat.CHANNEL_OUT_BACK_LEFT | AudioFormat.CHANNEL_OUT_BACK_RIGHT;
+        int center = AudioFormat.CHANNEL_OUT_FRONT_CENTER;
+        int lfe = AudioFormat.CHANNEL_OUT_LOW_FREQUENCY;
+        switch (channels) {
+            case 1: return center;
+            case 2: return front;
+            case 3: return front | center;
+            case 4: return front | back;
+            case 5: return front | center | back;
+            case 6: return front | center | lfe | back;
+            case 7: return front | center | lfe | back | AudioFormat.CHANNEL_OUT_BACK_CENTER;
+            case 8: return front | center | lfe | back
+                | AudioFormat.CHANNEL_OUT_SIDE_LEFT | AudioFormat.CHANNEL_OUT_SIDE_RIGHT;
+            default: return 0;
+        }
+    }
+
+    @Override
+    public void onSamples(float[] samples, int frames) {
+        int ch = channels;
+        for (int f = 0; f < frames; f++) {
+            int base = f * ch;
+            double framePower = 0;
+            for (int c = 0; c < ch; c++) {
+                double x = samples[base + c];
+                trackPeak(c, x);
+
+                // Transposed direct form II, one pass per stage
+                double y1 = sb0 * x + s1z1[c];
+                s1z1[c] = sb1 * x - sa1 * y1 + s1z2[c];
+                s1z2[c] = sb2 * x - sa2 * y1;
+
+                double y2 = hb0 * y1 + s2z1[c];
+                s2z1[c] = hb1 * y1 - ha1 * y2 + s2z2[c];
+                s2z2[c] = hb2 * y1 - ha2 * y2;
+
+                framePower += weights[c] * y2 * y2;
+            }
+            historyPos = (historyPos + 1) % PHASE_TAPS;
+
+            subBlockSum += framePower;
+            if (++subBlockCount == subBlockFrames) {
+                pushSubBlock(subBlockSum / subBlockFrames);
+                subBlockSum = 0;
+                subBlockCount = 0;
+            }
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void pushSubBlock(double power) {
+        recentSubBlocks[subBlocksSeen % 4] = power;
+        subBlocksSeen++;
+        if (subBlocksSeen < 4) return;
+
+        double block = (recentSubBlocks[0] + recentSubBlocks[1] + recentSubBlocks[2] + recentSubBlocks[3]) / 4.0;
+        if (blockCount == blocks.length) {
+            double[] grown = new double[blocks.length * 2];
+            System.arraycopy(blocks, 0, grown, 0, blockCount);
+            blocks = grown;
+        }
+        blocks[blockCount++] = block;
+    }
+
+    private void trackPeak(int channel, double x) {
+        double[] h = history[channel];
+        h[historyPos] = x;
+        double abs = Math.abs(x);
+        if (abs > peak) peak = abs;
+
+        for (int p = 0; p < OVERSAMPLE; p++) {
+            double[] taps = PHASES[p];
+            double acc = 0;
+            int idx = historyPos;
+            for (int t = 0; t < PHASE_TAPS; t++) {
+                acc += taps[t] * h[idx];
+                idx = idx == 0 ? PHASE_TAPS - 1 : idx - 1;
+            }
+            abs = Math.abs(acc);
+            if (abs > peak) peak = abs;
+        }
+    }
+
+    private static double[][] buildInterpolator() {
+        int length = OVERSAMPLE * PHASE_TAPS;
+        double center = (length - 1) / 2.0;
+        double[][] phases = new double[OVERSAMPLE][PHASE_TAPS];
+        for (int n = 0; n < length; n++) {
+            double t = (n - center) / OVERSAMPLE;
+            double sinc = t == 0 ? 1.0 : Math.sin(Math.PI * t) / (Math.PI * t);
+            double window = 0.5 - 0.5 * Math.cos(2.0 * Math.PI * (n + 0.5) / length);
+            phases[n % OVERSAMPLE][n / OVERSAMPLE] = sinc * window;
+        }
+        return phases;
+    }
+
+    public Result result() {
+        double absoluteGate = Math.pow(10.0, (ABSOLUTE_GATE_LUFS + 0.691) / 10.0);
+        double sum = 0;
+        int count = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blocks[i] > absoluteGate) {
+                sum += blocks[i];
+                count++;
+            }
+        }
+        if (count == 0) return new Result(Double.NaN, peak, 0, 0);
+
+        double relativeGate = (sum / count) * Math.pow(10.0, RELATIVE_GATE_LU / 10.0);
+        double gatedSum = 0;
+        int gatedCount = 0;
+        for (int i = 0; i < blockCount; i++) {
+            if (blocks[i] > absoluteGate && blocks[i] > relativeGate) {
+                gatedSum += blocks[i];
+                gatedCount++;
+            }
+        }
+        double gatedPower = gatedCount > 0 ? gatedSum / gatedCount : 0;
+        return new Result(toLufs(gatedPower), peak, gatedPower, gatedCount);
+    }
+
+    static double toLufs(double power) {
+        return power > 0 ? -0.691 + 10.0 * Math.log10(power) : Double.NaN;
+    }
+
+    public static final class Result {
+        public final double integratedLufs;
+        public final double truePeak;
+        public final double gatedPower;
+        public final int gatedBlocks;
+
+        Result(double integratedLufs, double truePeak, double gatedPower, int gatedBlocks) {
+            this.integratedLufs = integratedLufs;
+            this.truePeak = truePeak;
+            this.gatedPower = gatedPower;
+            this.gatedBlocks = gatedBlocks;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.coflyn.flow;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Parsed lyrics held as parallel arrays sorted by start time (ms).
+ * Word timings are only present for enhanced LRC lines. Unsynced
+ * (plain text) lyrics keep every line at time 0 with synced = false.
+ */
+public final class LrcDocument {
+
+    public static final LrcDocument EMPTY = new LrcDocument(new long[0], new String[0], null, null, 0);
+
+    private static final int MAGIC = 0x4C524358; // "LRCX"
+    private static final int VERSION = 1;
+
+    private final long[] times;
+    private final String[] texts;
+    private final long[][] wordTimes;
+    private final String[][] words;
+    private final long offset;
+    private final boolean synced;
+
+    LrcDocument(long[] times, String[] texts, long[][] wordTimes, String[][] words, long offset) {
+        this(times, texts, wordTimes, words, offset, true);
+    }
+
+    LrcDocument(long[] times, String[] texts, long[][] wordTimes, String[][] words, long offset, boolean synced) {
+        this.times = times;
+        this.texts = texts;
+        this.wordTimes = wordTimes;
+        this.words = words;
+        this.offset = offset;
+        this.synced = synced;
+    }
+
+    public int size() {
+        return times.length;
+    }
+
+    public boolean isEmpty() {
+        return times.length == 0;
+    }
+
+    /**
+     * Approximate heap held by this document, for cache accounting.
+     */
+    public long estimatedBytes() {
+        long bytes = 64 + times.length * 8L;
+        for (String text : texts) bytes += 40 + (text != null ? text.length() * 2L : 0);
+        if (words != null) {
+            for (int i = 0; i < words.length; i++) {
+                if (words[i] == null) continue;
+                for (String word : words[i]) bytes += 40 + (word != null ? word.length() * 2L : 0);
+                if (wordTimes != null && wordTimes[i] != null) bytes += wordTimes[i].length * 8L;
+            }
+        }
+        return bytes;
+    }
+
+    public long timeAt(int index) {
+        return times[index];
+    }
+
+    public String textAt(int index) {
+        return texts[index];
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public boolean hasWordTimings() {
+        return wordTimes != null;
+    }
+
+    /**
+     * Index of the line showing at the given position, or -1 before the first line.
+     */
+    public int indexAt(long positionMs) {
+        if (!synced) return -1;
+        int lo = 0;
+        int hi = times.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] <= positionMs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Index of the word being sung within a line, or -1 if the line has no word timings.
+     */
+    public int wordIndexAt(int line, long positionMs) {
+        if (wordTimes == null || line < 0 || line >= times.length || wordTimes[line] == null) return -1;
+        long[] stamps = wordTimes[line];
+        int lo = 0;
+        int hi = stamps.length - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (stamps[mid] <= positionMs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    public JSObject lineToJSObject(int index) {
+        JSObject line = new JSObject();
+        line.put("index", index);
+        line.put("time", times[index] / 1000.0); // JS works in seconds
+        line.put("text", texts[index]);
+        if (wordTimes != null && wordTimes[index] != null) {
+            JSArray lineWords = new JSArray();
+            for (int w = 0; w < wordTimes[index].length; w++) {
+                JSObject word = new JSObject();
+                word.put("time", wordTimes[index][w] / 1000.0);
+                word.put("text", words[index][w]);
+                lineWords.put(word);
+            }
+            line.put("words", lineWords);
+        }
+        return line;
+    }
+
+    public JSArray toJSArray() {
+        JSArray lines = new JSArray();
+        for (int i = 0; i < times.length; i++) {
+            lines.put(lineToJSObject(i));
+        }
+        return lines;
+    }
+
+    /**
+     * Compact binary form used by the lyrics cache. Strings are written with
+     * writeUTF, so a single line is limited to 64 KB of modified UTF-8.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeBoolean(synced);
+        out.writeLong(offset);
+        out.writeInt(times.length);
+        for (int i = 0; i < times.length; i++) {
+            out.writeInt((int) times[i]);
+            out.writeUTF(texts[i]);
+            long[] stamps = wordTimes != null ? wordTimes[i] : null;
+            out.writeShort(stamps != null ? stamps.length : 0);
+            if (stamps != null) {
+                for (int w = 0; w < stamps.length; w++) {
+                    out.writeInt((int) stamps[w]);
+                    out.writeUTF(words[i][w]);
+                }
+            }
+        }
+    }
+
+    public static LrcDocument readFrom(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readByte() != VERSION) {
+            throw new IOException("Unsupported lyrics cache entry");
+        }
+        boolean synced = in.readBoolean();
+        long offset = in.readLong();
+        int count = in.readInt();
+
+        long[] times = new long[count];
+        String[] texts = new String[count];
+        long[][] wordTimes = null;
+        String[][] words = null;
+
+        for (int i = 0; i < count; i++) {
+            times[i] = in.readInt();
+            texts[i] = in.readUTF();
+            int wordCount = in.readUnsignedShort();
+            if (wordCount > 0) {
+                if (wordTimes == null) {
+                    wordTimes = new long[count][];
+                    words = new String[count][];
+                }
+                wordTimes[i] = new long[wordCount];
+                words[i] = new String[wordCount];
+                for (int w = 0; w < wordCount; w++) {
+                    wordTimes[i][w] = in.readInt();
+                    words[i][w] = in.readUTF();
+                }
+            }
+        }
+        return new LrcDocument(times, texts, wordTimes, words, offset, synced);
+    }
+}
@@ -0,0 +1,278 @@
+package com.coflyn.flow;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser for LRC and enhanced LRC (A2 extension) lyrics.
+ *
+ * Handles multiple timestamps per line ([00:12.00][01:30.00]text),
+ * word-level timestamps (<00:12.50>word), and the [offset:] tag.
+ * Lines are emitted sorted by time so lookups can binary search.
+ */
+public final class LrcParser {
+
+    private static final String EMPTY_LINE = "\u2022\u2022\u2022";
+    private static final String INTRO_LINE = "\u266A";
+    private static final long INTRO_THRESHOLD_MS = 3000;
+
+    private LrcParser() {}
+
+    public static LrcDocument parse(String content) {
+        if (content == null || content.isEmpty()) return LrcDocument.EMPTY;
+        try {
+            return parse(new StringReader(content));
+        } catch (IOException e) {
+            return LrcDocument.EMPTY;
+        }
+    }
+
+    public static LrcDocument parse(Reader source) throws IOException {
+        BufferedReader reader = source instanceof BufferedReader
+            ? (BufferedReader) source
+            : new BufferedReader(source);
+
+        List<Entry> entries = new ArrayList<>();
+        long offset = 0;
+        long[] stamps = new long[4];
+        String line;
+        int order = 0;
+
+        while ((line = reader.readLine()) != null) {
+            int len = line.length();
+            int pos = 0;
+            int stampCount = 0;
+
+            // Skip a UTF-8 BOM left on the first line by some editors
+            if (len > 0 && line.charAt(0) == '\uFEFF') pos = 1;
+
+            while (pos < len && line.charAt(pos) == '[') {
+                int close = line.indexOf(']', pos);
+                if (close < 0) break;
+
+                long time = parseTimestamp(line, pos + 1, close);
+                if (time >= 0) {
+                    if (stampCount == stamps.length) {
+                        long[] grown = new long[stamps.length * 2];
+                        System.arraycopy(stamps, 0, grown, 0, stamps.length);
+                        stamps = grown;
+                    }
+                    stamps[stampCount++] = time;
+                } else if (stampCount == 0) {
+                    // Metadata tag such as [ar:], [ti:] or [offset:]
+                    int colon = line.indexOf(':', pos);
+                    if (colon > pos && colon < close
+                            && line.regionMatches(true, pos + 1, "offset", 0, colon - pos - 1)) {
+                        offset = parseOffset(line.substring(colon + 1, close));
+                    }
+                    break;
+                } else {
+                    break;
+                }
+                pos = close + 1;
+            }
+
+            if (stampCount == 0) continue;
+
+            String body = line.substring(pos);
+            List<Long> wordTimes = null;
+            List<String> words = null;
+            String text;
+
+            if (body.indexOf('<') >= 0) {
+                wordTimes = new ArrayList<>();
+                words = new ArrayList<>();
+                text = parseWords(body, wordTimes, words);
+                if (wordTimes.isEmpty()) {
+                    wordTimes = null;
+                    words = null;
+                }
+            } else {
+                text = body.trim();
+            }
+
+            if (text.isEmpty()) text = EMPTY_LINE;
+
+            for (int i = 0; i < stampCount; i++) {
+                Entry entry = new Entry();
+                entry.time = stamps[i];
+                entry.text = text;
+                entry.order = order++;
+                if (wordTimes != null) {
+                    // Word stamps are absolute; shift them with the line when it repeats
+                    long shift = stamps[i] - stamps[0];
+                    entry.wordTimes = new long[wordTimes.size()];
+                    for (int w = 0; w < entry.wordTimes.length; w++) {
+                        entry.wordTimes[w] = wordTimes.get(w) + shift;
+                    }
+                    entry.words = words.toArray(new String[0]);
+                }
+                entries.add(entry);
+            }
+        }
+
+        if (entries.isEmpty()) return new LrcDocument(new long[0], new String[0], null, null, offset);
+
+        entries.sort((a, b) -> a.time != b.time ? Long.compare(a.time, b.time) : Integer.compare(a.order, b.order));
+
+        boolean intro = Math.max(0, entries.get(0).time - offset) > INTRO_THRESHOLD_MS;
+        int count = entries.size() + (intro ? 1 : 0);
+        long[] times = new long[count];
+        String[] texts = new String[count];
+        long[][] lineWordTimes = null;
+        String[][] lineWords = null;
+
+        int base = 0;
+        if (intro) {
+            times[0] = 0;
+            texts[0] = INTRO_LINE;
+            base = 1;
+        }
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            // A positive [offset:] makes lyrics appear sooner
+            times[base + i] = Math.max(0, entry.time - offset);
+            texts[base + i] = entry.text;
+            if (entry.wordTimes != null) {
+                if (lineWordTimes == null) {
+                    lineWordTimes = new long[count][];
+                    lineWords = new String[count][];
+                }
+                for (int w = 0; w < entry.wordTimes.length; w++) {
+                    entry.wordTimes[w] = Math.max(0, entry.wordTimes[w] - offset);
+                }
+                lineWordTimes[base + i] = entry.wordTimes;
+                lineWords[base + i] = entry.words;
+            }
+        }
+
+        return new LrcDocument(times, texts, lineWordTimes, lineWords, offset);
+    }
+
+    /**
+     * Parses LRC if the content has timestamps, otherwise keeps it as plain
+     * unsynced lyrics (one entry per non-blank line).
+     */
+    public static LrcDocument parseOrPlain(String content) {
+        LrcDocument parsed = parse(content);
+        if (!parsed.isEmpty() || content == null) return parsed;
+
+        List<String> lines = new ArrayList<>();
+        for (String line : content.split("\\r?\\n")) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty()) lines.add(trimmed);
+        }
+        if (lines.isEmpty()) return LrcDocument.EMPTY;
+        return new LrcDocument(new long[lines.size()], lines.toArray(new String[0]), null, null, 0, false);
+    }
+
+    /**
+     * Parses mm:ss, mm:ss.xx or mm:ss:xx between start (inclusive) and end (exclusive).
+     * Returns -1 if the region is not a timestamp.
+     */
+    static long parseTimestamp(CharSequence s, int start, int end) {
+        int i = start;
+        long minutes = 0;
+        int digits = 0;
+        while (i < end && isDigit(s.charAt(i))) {
+            minutes = minutes * 10 + (s.charAt(i) - '0');
+            i++;
+            digits++;
+        }
+        if (digits == 0 || i >= end || s.charAt(i) != ':') return -1;
+        i++;
+
+        long seconds = 0;
+        digits = 0;
+        while (i < end && isDigit(s.charAt(i))) {
+            seconds = seconds * 10 + (s.charAt(i) - '0');
+            i++;
+            digits++;
+        }
+        if (digits == 0) return -1;
+
+        long millis = 0;
+        if (i < end && (s.charAt(i) == '.' || s.charAt(i) == ':')) {
+            i++;
+            int scale = 100;
+            digits = 0;
+            while (i < end && isDigit(s.charAt(i))) {
+                if (scale > 0) {
+                    millis += (s.charAt(i) - '0') * scale;
+                    scale /= 10;
+                }
+                i++;
+                digits++;
+            }
+            if (digits == 0) return -1;
+        }
+        if (i != end) return -1;
+
+        return (minutes * 60 + seconds) * 1000 + millis;
+    }
+
+    private static long parseOffset(String value) {
+        try {
+            return Long.parseLong(value.trim().replace("+", ""));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Splits an enhanced LRC body into words, collecting their start times,
+     * and returns the plain text of the line.
+     */
+    private static String parseWords(String body, List<Long> times, List<String> words) {
+        StringBuilder text = new StringBuilder(body.length());
+        int len = body.length();
+        int i = 0;
+        long pending = -1;
+        StringBuilder word = new StringBuilder();
+
+        while (i < len) {
+            char c = body.charAt(i);
+            if (c == '<') {
+                int close = body.indexOf('>', i);
+                long time = close > 0 ? parseTimestamp(body, i + 1, close) : -1;
+                if (time >= 0) {
+                    flushWord(word, pending, times, words);
+                    pending = time;
+                    i = close + 1;
+                    continue;
+                }
+            }
+            word.append(c);
+            text.append(c);
+            i++;
+        }
+        flushWord(word, pending, times, words);
+
+        return text.toString().trim();
+    }
+
+    private static void flushWord(StringBuilder word, long time, List<Long> times, List<String> words) {
+        if (time >= 0 && word.length() > 0 && word.toString().trim().length() > 0) {
+            times.add(time);
+            words.add(word.toString());
+        }
+        word.setLength(0);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static final class Entry {
+        long time;
+        int order;
+        String text;
+        long[] wordTimes;
+        String[] words;
+    }
+}
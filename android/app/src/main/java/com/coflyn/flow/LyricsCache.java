@@ -0,0 +1,122 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.util.Log;
+import android.util.LruCache;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+
+/**
+ * Pre-parsed lyrics keyed by track ID.
+ *
+ * Entries are written during folder scans in LrcDocument's binary form, so
+ * opening the lyrics view is a small file read instead of a picker plus a
+ * full-text transfer. A few recently used documents stay in memory.
+ */
+public final class LyricsCache implements CacheManager.Trimmable {
+
+    private static final String TAG = "FlowLyrics";
+    private static final String DIR_NAME = "lyrics";
+    private static final int MEMORY_ENTRIES = 16;
+
+    private static LyricsCache instance;
+
+    private final File dir;
+    private final LruCache<String, LrcDocument> memory = new LruCache<>(MEMORY_ENTRIES);
+
+    private LyricsCache(Context context) {
+        dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.exists()) dir.mkdirs();
+        CacheManager.get(context).register(this);
+    }
+
+    public static synchronized LyricsCache get(Context context) {
+        if (instance == null) {
+            instance = new LyricsCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public void put(String trackId, LrcDocument lyrics) {
+        if (trackId == null || lyrics == null || lyrics.isEmpty()) return;
+        File file = fileFor(trackId);
+        File tmp = new File(dir, file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            lyrics.writeTo(out);
+        } catch (Exception e) {
+            Log.d(TAG, "Failed to cache lyrics for " + trackId + ": " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(file)) tmp.delete();
+        memory.put(trackId, lyrics);
+    }
+
+    /**
+     * Cached lyrics for the track, or null if none were found during scanning.
+     */
+    public LrcDocument get(String trackId) {
+        if (trackId == null) return null;
+        LrcDocument cached = memory.get(trackId);
+        if (cached != null) return cached;
+
+        File file = fileFor(trackId);
+        if (!file.exists()) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            LrcDocument lyrics = LrcDocument.readFrom(in);
+            memory.put(trackId, lyrics);
+            return lyrics;
+        } catch (Exception e) {
+            Log.d(TAG, "Dropping unreadable lyrics cache for " + trackId + ": " + e.getMessage());
+            file.delete();
+            return null;
+        }
+    }
+
+    public boolean contains(String trackId) {
+        return trackId != null && (memory.get(trackId) != null || fileFor(trackId).exists());
+    }
+
+    @Override
+    public String cacheName() {
+        return "lyrics";
+    }
+
+    @Override
+    public long memoryBytes() {
+        long bytes = 0;
+        for (LrcDocument lyrics : memory.snapshot().values()) bytes += lyrics.estimatedBytes();
+        return bytes;
+    }
+
+    @Override
+    public long diskBytes() {
+        long bytes = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) bytes += file.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Parsed lyrics are re-read from the disk cache on demand.
+     */
+    @Override
+    public void trim(int tier) {
+        if (tier >= CacheManager.TRIM_MODERATE) {
+            memory.evictAll();
+        } else {
+            memory.trimToSize(MEMORY_ENTRIES / 4);
+        }
+    }
+
+    private File fileFor(String trackId) {
+        return new File(dir, trackId + ".lrcx");
+    }
+}
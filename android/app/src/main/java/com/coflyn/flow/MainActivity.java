@@ -7,8 +7,13 @@ public class MainActivity extends BridgeActivity {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         android.util.Log.d("FlowMain", "MainActivity onCreate");
+        // Bring back the last session's notification before the WebView starts loading
+        MediaPlaybackService.restore(this);
         registerPlugin(MusicScannerPlugin.class);
         registerPlugin(NowPlayingPlugin.class);
         super.onCreate(savedInstanceState);
+
+        // Stream local audio and art with Range support instead of relying on file:// and content:// handling
+        getBridge().setWebViewClient(new LocalMediaWebViewClient(getBridge()));
     }
 }
@@ -4,7 +4,6 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
-import android.app.Service;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.BroadcastReceiver;
@@ -16,16 +15,29 @@ import android.graphics.BitmapFactory;
 import android.media.MediaMetadataRetriever;
 import android.net.Uri;
 import android.os.Build;
-import android.os.IBinder;
+import android.os.Bundle;
+import android.support.v4.media.MediaBrowserCompat;
+import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.util.Log;
 import androidx.core.app.NotificationCompat;
+import androidx.core.content.FileProvider;
+import androidx.media.MediaBrowserServiceCompat;
 import androidx.media.app.NotificationCompat.MediaStyle;
+import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class MediaPlaybackService extends Service {
+public class MediaPlaybackService extends MediaBrowserServiceCompat {
 
     private static final String TAG = "FlowPlayback";
     public static final String CHANNEL_ID = "flow_playback_channel";
@@ -39,9 +51,41 @@ public class MediaPlaybackService extends Service {
     public static final String ACTION_STOP = "com.coflyn.flow.STOP";
     public static final String ACTION_SET_STATE = "com.coflyn.flow.SET_STATE";
     public static final String ACTION_UPDATE_POSITION = "com.coflyn.flow.UPDATE_POSITION";
+    public static final String ACTION_RESTORE = "com.coflyn.flow.RESTORE";
+    private static final String ACTION_COMMANDS = "com.coflyn.flow.COMMANDS";
+
+    // Notification buttons; any media controller can already do these through the session
+    private static final Set<String> TRANSPORT_ACTIONS = new HashSet<>(Arrays.asList(
+        ACTION_PLAY, ACTION_PAUSE, ACTION_NEXT, ACTION_PREV
+    ));
+
+    // The service is exported for media browsers, so anything that carries state
+    // (URIs, track IDs, positions) is handed over in-process through this queue
+    private static final ConcurrentLinkedQueue<Intent> pendingCommands = new ConcurrentLinkedQueue<>();
 
     public static final String BROADCAST_ACTION = "com.coflyn.flow.MEDIA_ACTION";
 
+    // Browse tree served to Android Auto, Wear OS and Assistant
+    private static final String NODE_ROOT = "root";
+    private static final String NODE_EMPTY_ROOT = "empty_root";
+    private static final String NODE_ALBUMS = "albums";
+    private static final String NODE_ARTISTS = "artists";
+    private static final String NODE_RECENTS = "recents";
+    private static final String NODE_PLAYLISTS = "playlists";
+    private static final String PREFIX_ALBUM = "album:";
+    private static final String PREFIX_ARTIST = "artist:";
+    private static final String PREFIX_TRACK = "track:";
+    private static final String PREFIX_PLAYLIST = "playlist:";
+    private static final int DEFAULT_PAGE_SIZE = 100;
+    private static final int MAX_UNPAGED = 500;
+
+    private static final String CONTENT_STYLE_SUPPORTED = "android.media.browse.CONTENT_STYLE_SUPPORTED";
+    private static final String CONTENT_STYLE_BROWSABLE_HINT = "android.media.browse.CONTENT_STYLE_BROWSABLE_HINT";
+    private static final String CONTENT_STYLE_PLAYABLE_HINT = "android.media.browse.CONTENT_STYLE_PLAYABLE_HINT";
+    private static final int CONTENT_STYLE_LIST = 1;
+    private static final int CONTENT_STYLE_GRID = 2;
+
+
     private MediaSessionCompat mediaSession;
     private String currentTitle = "Flow";
     private String currentArtist = "";
@@ -52,11 +96,41 @@ public class MediaPlaybackService extends Service {
     private long currentDuration = 0;
     private String lastCoverKey = "";
     private BroadcastReceiver headsetReceiver;
+    private boolean inForeground = false;
+    private final ExecutorService browseExecutor = Executors.newSingleThreadExecutor();
+    // User data edits load, append to and sometimes compact the log; keep them off the main thread
+    private final ExecutorService userDataWriter = Executors.newSingleThreadExecutor();
+    private String lastRecentId;
+    private PackageValidator packageValidator;
+
+    // Paused art is given back under memory pressure and reloaded on resume or the next track
+    private final CacheManager.Trimmable artCache = new CacheManager.Trimmable() {
+        @Override
+        public String cacheName() {
+            return "notificationArt";
+        }
+
+        @Override
+        public long memoryBytes() {
+            Bitmap art = currentArt;
+            return art != null ? art.getAllocationByteCount() : 0;
+        }
+
+        @Override
+        public void trim(int tier) {
+            if (tier < CacheManager.TRIM_FULL || isPlaying || currentArt == null) return;
+            currentArt = null;
+            lastCoverKey = "";
+            updateNotification();
+        }
+    };
 
     @Override
     public void onCreate() {
         super.onCreate();
         createNotificationChannel();
+        CacheManager.get(this).register(artCache);
+        packageValidator = new PackageValidator(this);
 
         mediaSession = new MediaSessionCompat(this, "FlowMediaSession");
         mediaSession.setFlags(
@@ -64,16 +138,20 @@ public class MediaPlaybackService extends Service {
             MediaSessionCompat.FLAG_HANDLES_TRANSPORT_CONTROLS
         );
 
+        setSessionToken(mediaSession.getSessionToken());
+
         mediaSession.setCallback(new MediaSessionCompat.Callback() {
             @Override
             public void onPlay() {
-                isPlaying = true;
+                setPlaying(true);
+                reloadTrimmedArt();
                 updateNotification();
+                SessionSnapshot.get(MediaPlaybackService.this).requestPlay();
                 broadcastAction("play");
             }
             @Override
             public void onPause() {
-                isPlaying = false;
+                setPlaying(false);
                 updateNotification();
                 broadcastAction("pause");
             }
@@ -89,11 +167,19 @@ public class MediaPlaybackService extends Service {
             public void onSeekTo(long pos) {
                 currentPosition = pos;
                 updatePlaybackState();
+                SessionSnapshot.get(MediaPlaybackService.this).setPosition(pos, true);
                 broadcastAction("seekTo:" + pos);
             }
             @Override
+            public void onPlayFromMediaId(String mediaId, Bundle extras) {
+                if (mediaId != null && mediaId.startsWith(PREFIX_TRACK)) {
+                    broadcastAction("playId:" + mediaId.substring(PREFIX_TRACK.length()));
+                }
+            }
+            @Override
             public void onStop() {
                 stopForeground(true);
+                inForeground = false;
                 stopSelf();
             }
         });
@@ -127,6 +213,26 @@ public class MediaPlaybackService extends Service {
         sendBroadcast(intent);
     }
 
+    /**
+     * Queues a command from inside this process and wakes the service to run it.
+     * Only the wake-up crosses Binder, so other apps can't forge one.
+     */
+    public static void send(Context context, Intent command, boolean foreground) {
+        pendingCommands.add(command);
+        Intent wake = new Intent(context, MediaPlaybackService.class);
+        wake.setAction(ACTION_COMMANDS);
+        try {
+            if (foreground && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                context.startForegroundService(wake);
+            } else {
+                context.startService(wake);
+            }
+        } catch (RuntimeException e) {
+            pendingCommands.remove(command);
+            throw e;
+        }
+    }
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent == null) return START_STICKY;
@@ -134,22 +240,52 @@ public class MediaPlaybackService extends Service {
         String action = intent.getAction();
         if (action == null) action = "";
 
-        // Android 12+ Requirement: Must call startForeground within 5 seconds of Service start.
-        if (!action.equals(ACTION_STOP)) {
+        if (ACTION_COMMANDS.equals(action)) {
+            // Android 12+ Requirement: Must call startForeground within 5 seconds of Service start.
+            Intent next = pendingCommands.peek();
+            if (next == null || !ACTION_STOP.equals(next.getAction())) {
+                updateNotification();
+            }
+            Intent command;
+            while ((command = pendingCommands.poll()) != null) {
+                handleCommand(command);
+            }
+        } else if (TRANSPORT_ACTIONS.contains(action)) {
             updateNotification();
+            handleCommand(intent);
+        } else {
+            Log.w(TAG, "Ignoring start intent with action " + action);
+            if (!inForeground) {
+                // A startForegroundService from elsewhere still has to be answered before stopping
+                updateNotification();
+                stopForeground(true);
+                inForeground = false;
+                stopSelf(startId);
+                return START_NOT_STICKY;
+            }
         }
 
+        return START_STICKY;
+    }
+
+    private void handleCommand(Intent intent) {
+        String action = intent.getAction();
+        if (action == null) return;
+
         switch (action) {
             case ACTION_UPDATE:
-                updateNotification(); 
-
                 currentTitle = intent.getStringExtra("title");
                 currentArtist = intent.getStringExtra("artist");
                 currentAlbum = intent.getStringExtra("album");
                 String trackUri = intent.getStringExtra("trackUri");
                 String coverUri = intent.getStringExtra("coverUri");
-                isPlaying = intent.getBooleanExtra("isPlaying", false);
+                String trackId = intent.getStringExtra("trackId");
+                if (trackId != null && !trackId.isEmpty()) addRecent(trackId);
+                setPlaying(intent.getBooleanExtra("isPlaying", false));
                 currentDuration = intent.getLongExtra("duration", 0);
+                currentPosition = 0;
+                SessionSnapshot.get(this).setTrack(trackId, currentTitle, currentArtist, currentAlbum,
+                    coverUri, trackUri, currentDuration);
 
                 if (currentTitle == null) currentTitle = "Flow";
                 if (currentArtist == null) currentArtist = "";
@@ -165,14 +301,17 @@ public class MediaPlaybackService extends Service {
                 break;
 
             case ACTION_PLAY:
-                isPlaying = true;
+                setPlaying(true);
+                reloadTrimmedArt();
                 updateNotification();
+                SessionSnapshot.get(this).requestPlay();
                 broadcastAction("play");
                 break;
 
             case ACTION_PAUSE:
-                isPlaying = false;
+                setPlaying(false);
                 updateNotification();
+                SessionSnapshot.get(this).setPosition(currentPosition, true);
                 broadcastAction("pause");
                 break;
 
@@ -185,27 +324,66 @@ public class MediaPlaybackService extends Service {
                 break;
 
             case ACTION_SET_STATE:
-                isPlaying = intent.getBooleanExtra("isPlaying", false);
+                setPlaying(intent.getBooleanExtra("isPlaying", false));
                 updateNotification();
+                if (!isPlaying) SessionSnapshot.get(this).setPosition(currentPosition, true);
                 break;
                 
             case ACTION_UPDATE_POSITION:
                 currentPosition = intent.getLongExtra("position", 0);
                 currentDuration = intent.getLongExtra("duration", 0);
                 updatePlaybackState();
+                SessionSnapshot.get(this).setPosition(currentPosition, !isPlaying);
+                break;
+
+            case ACTION_RESTORE:
+                restoreSession();
                 break;
 
             case ACTION_STOP:
                 stopForeground(true);
+                inForeground = false;
                 stopSelf();
                 break;
 
             default:
-                updateNotification();
                 break;
         }
+    }
 
-        return START_STICKY;
+    /**
+     * Starts the service with the last session's notification and lockscreen
+     * state, without waiting for the WebView. Call early in process start.
+     */
+    public static void restore(Context context) {
+        if (!SessionSnapshot.exists(context)) return;
+        try {
+            send(context, new Intent(ACTION_RESTORE), true);
+        } catch (Exception e) {
+            Log.w(TAG, "Session restore failed: " + e.getMessage());
+        }
+    }
+
+    private void restoreSession() {
+        // A live session from JS always wins over the snapshot
+        if (lastRecentId != null) return;
+
+        SessionSnapshot session = SessionSnapshot.get(this);
+        if (!session.load()) return;
+
+        currentTitle = session.title.isEmpty() ? "Flow" : session.title;
+        currentArtist = session.artist;
+        currentAlbum = session.album;
+        currentDuration = session.duration;
+        currentPosition = session.position;
+        isPlaying = false;
+
+        String coverKey = session.coverUri + "|" + session.trackUri;
+        if (!coverKey.equals(lastCoverKey)) {
+            lastCoverKey = coverKey;
+            loadCoverArt(session.coverUri, session.trackUri);
+        }
+        updateNotification();
     }
 
     /**
@@ -214,50 +392,72 @@ public class MediaPlaybackService extends Service {
      * 2. MediaMetadataRetriever from the track's content URI (embedded art)
      */
     private void loadCoverArt(String coverUri, String trackUri) {
+        // Art decoded ahead of the transition by prepareNext needs no I/O here
+        Bitmap warm = TrackPrewarmer.get().takeArt(coverUri, trackUri);
+        if (warm != null) {
+            currentArt = warm;
+            updateNotification();
+            return;
+        }
+
         new Thread(() -> {
-            Bitmap art = null;
-
-            // Method 1: Try album art content URI
-            if (coverUri != null && !coverUri.isEmpty()) {
-                try {
-                    ContentResolver resolver = getContentResolver();
-                    InputStream in = resolver.openInputStream(Uri.parse(coverUri));
-                    if (in != null) {
-                        art = BitmapFactory.decodeStream(in);
-                        in.close();
-                    }
-                } catch (Exception e) {
-                    Log.d(TAG, "Album art URI failed: " + e.getMessage());
-                }
-            }
+            currentArt = decodeNotificationArt(this, coverUri, trackUri);
+            new android.os.Handler(getMainLooper()).post(this::updateNotification);
+        }).start();
+    }
 
-            // Method 2: Try embedded art via MediaMetadataRetriever
-            if (art == null && trackUri != null && !trackUri.isEmpty()) {
-                MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-                try {
-                    retriever.setDataSource(this, Uri.parse(trackUri));
-                    byte[] artBytes = retriever.getEmbeddedPicture();
-                    if (artBytes != null) {
-                        art = BitmapFactory.decodeByteArray(artBytes, 0, artBytes.length);
-                    }
-                } catch (Exception e) {
-                    Log.d(TAG, "Embedded art extraction failed: " + e.getMessage());
-                } finally {
-                    try { retriever.release(); } catch (Exception ignored) {}
+    private void reloadTrimmedArt() {
+        if (currentArt != null || !lastCoverKey.isEmpty()) return;
+        SessionSnapshot session = SessionSnapshot.get(this);
+        if (session.trackId.isEmpty()) return;
+        lastCoverKey = session.coverUri + "|" + session.trackUri;
+        loadCoverArt(session.coverUri, session.trackUri);
+    }
+
+    /**
+     * Blocking art load, scaled for the notification. Shared with TrackPrewarmer.
+     */
+    static Bitmap decodeNotificationArt(Context context, String coverUri, String trackUri) {
+        Bitmap art = null;
+
+        // Method 1: Try album art content URI
+        if (coverUri != null && !coverUri.isEmpty()) {
+            try {
+                ContentResolver resolver = context.getContentResolver();
+                InputStream in = resolver.openInputStream(Uri.parse(coverUri));
+                if (in != null) {
+                    art = BitmapFactory.decodeStream(in);
+                    in.close();
                 }
+            } catch (Exception e) {
+                Log.d(TAG, "Album art URI failed: " + e.getMessage());
             }
+        }
 
-            // Scale down for notification (max 512x512 to save memory)
-            if (art != null && (art.getWidth() > 512 || art.getHeight() > 512)) {
-                float scale = 512f / Math.max(art.getWidth(), art.getHeight());
-                art = Bitmap.createScaledBitmap(art,
-                    (int)(art.getWidth() * scale),
-                    (int)(art.getHeight() * scale), true);
+        // Method 2: Try embedded art via MediaMetadataRetriever
+        if (art == null && trackUri != null && !trackUri.isEmpty()) {
+            MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+            try {
+                retriever.setDataSource(context, Uri.parse(trackUri));
+                byte[] artBytes = retriever.getEmbeddedPicture();
+                if (artBytes != null) {
+                    art = BitmapFactory.decodeByteArray(artBytes, 0, artBytes.length);
+                }
+            } catch (Exception e) {
+                Log.d(TAG, "Embedded art extraction failed: " + e.getMessage());
+            } finally {
+                try { retriever.release(); } catch (Exception ignored) {}
             }
+        }
 
-            currentArt = art;
-            new android.os.Handler(getMainLooper()).post(this::updateNotification);
-        }).start();
+        // Scale down for notification (max 512x512 to save memory)
+        if (art != null && (art.getWidth() > 512 || art.getHeight() > 512)) {
+            float scale = 512f / Math.max(art.getWidth(), art.getHeight());
+            art = Bitmap.createScaledBitmap(art,
+                (int)(art.getWidth() * scale),
+                (int)(art.getHeight() * scale), true);
+        }
+        return art;
     }
 
     private void updatePlaybackState() {
@@ -340,6 +540,7 @@ public class MediaPlaybackService extends Service {
         } else {
             startForeground(NOTIFICATION_ID, notification);
         }
+        inForeground = true;
     }
 
     private PendingIntent createActionIntent(String action, int requestCode) {
@@ -367,9 +568,148 @@ public class MediaPlaybackService extends Service {
         }
     }
 
+    private void setPlaying(boolean playing) {
+        isPlaying = playing;
+        AudioEffectsChain.get(this).setActive(playing);
+    }
+
+    /**
+     * Updates arrive on every play/pause; only a new track moves to the front.
+     */
+    private void addRecent(String trackId) {
+        if (trackId.equals(lastRecentId)) return;
+        lastRecentId = trackId;
+        userDataWriter.execute(() -> {
+            UserDataStore.get(this).addRecent(trackId);
+            notifyChildrenChanged(NODE_RECENTS);
+        });
+    }
+
+    // === Browse tree ===
+
     @Override
-    public IBinder onBind(Intent intent) {
-        return null;
+    public BrowserRoot onGetRoot(String clientPackageName, int clientUid, Bundle rootHints) {
+        if (!packageValidator.isKnownCaller(clientPackageName, clientUid)) {
+            // Let unknown controllers connect for transport controls without exposing the library
+            return new BrowserRoot(NODE_EMPTY_ROOT, null);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putBoolean(CONTENT_STYLE_SUPPORTED, true);
+        extras.putInt(CONTENT_STYLE_BROWSABLE_HINT, CONTENT_STYLE_GRID);
+        extras.putInt(CONTENT_STYLE_PLAYABLE_HINT, CONTENT_STYLE_LIST);
+        return new BrowserRoot(NODE_ROOT, extras);
+    }
+
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowserCompat.MediaItem>> result) {
+        onLoadChildren(parentId, result, null);
+    }
+
+    @Override
+    public void onLoadChildren(String parentId, Result<List<MediaBrowserCompat.MediaItem>> result, Bundle options) {
+        int page = 0;
+        int pageSize = MAX_UNPAGED;
+        if (options != null && options.containsKey(MediaBrowserCompat.EXTRA_PAGE)) {
+            page = Math.max(0, options.getInt(MediaBrowserCompat.EXTRA_PAGE, 0));
+            pageSize = options.getInt(MediaBrowserCompat.EXTRA_PAGE_SIZE, DEFAULT_PAGE_SIZE);
+            if (pageSize <= 0) pageSize = DEFAULT_PAGE_SIZE;
+        }
+        final int offset = page * pageSize;
+        final int count = pageSize;
+        final String client = getCurrentBrowserInfo() != null ? getCurrentBrowserInfo().getPackageName() : null;
+
+        result.detach();
+        browseExecutor.execute(() -> {
+            try {
+                result.sendResult(loadChildren(parentId, offset, count, client));
+            } catch (Exception e) {
+                Log.w(TAG, "Browse failed for " + parentId + ": " + e.getMessage());
+                result.sendResult(new ArrayList<>());
+            }
+        });
+    }
+
+    private List<MediaBrowserCompat.MediaItem> loadChildren(String parentId, int offset, int count, String client) {
+        List<MediaBrowserCompat.MediaItem> items = new ArrayList<>();
+        LibraryIndex index = LibraryIndex.get(this);
+
+        if (NODE_ROOT.equals(parentId)) {
+            if (offset > 0) return items;
+            items.add(browsable(NODE_ALBUMS, "Albums", index.albumCount() + " albums", null, client));
+            items.add(browsable(NODE_ARTISTS, "Artists", index.artistCount() + " artists", null, client));
+            items.add(browsable(NODE_RECENTS, "Recents", null, null, client));
+            items.add(browsable(NODE_PLAYLISTS, "Playlists", null, null, client));
+        } else if (NODE_ALBUMS.equals(parentId)) {
+            for (LibraryIndex.Entry entry : index.albumPage(offset, count)) {
+                items.add(browsable(PREFIX_ALBUM + entry.albumId, entry.album, entry.artist, entry.cover, client));
+            }
+        } else if (NODE_ARTISTS.equals(parentId)) {
+            for (LibraryIndex.Entry entry : index.artistPage(offset, count)) {
+                items.add(browsable(PREFIX_ARTIST + entry.artistId, entry.artist, null, null, client));
+            }
+        } else if (NODE_RECENTS.equals(parentId)) {
+            addPlayable(items, index.resolvePage(UserDataStore.get(this).recents(), offset, count), client);
+        } else if (NODE_PLAYLISTS.equals(parentId)) {
+            List<UserDataStore.Playlist> playlists = UserDataStore.get(this).playlists();
+            for (int i = offset; i < Math.min(playlists.size(), offset + count); i++) {
+                UserDataStore.Playlist playlist = playlists.get(i);
+                String cover = playlist.cover != null && !playlist.cover.startsWith("data:") ? playlist.cover : null;
+                items.add(browsable(PREFIX_PLAYLIST + playlist.id, playlist.name,
+                    playlist.trackIds.size() + " tracks", cover, client));
+            }
+        } else if (parentId.startsWith(PREFIX_PLAYLIST)) {
+            List<String> ids = UserDataStore.get(this).playlistTracks(parentId.substring(PREFIX_PLAYLIST.length()));
+            addPlayable(items, index.resolvePage(ids, offset, count), client);
+        } else if (parentId.startsWith(PREFIX_ALBUM)) {
+            addPlayable(items, index.albumTrackPage(parentId.substring(PREFIX_ALBUM.length()), offset, count), client);
+        } else if (parentId.startsWith(PREFIX_ARTIST)) {
+            addPlayable(items, index.artistTrackPage(parentId.substring(PREFIX_ARTIST.length()), offset, count), client);
+        }
+        return items;
+    }
+
+    private void addPlayable(List<MediaBrowserCompat.MediaItem> items, List<LibraryIndex.Entry> entries, String client) {
+        for (LibraryIndex.Entry entry : entries) {
+            MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+                .setMediaId(PREFIX_TRACK + entry.id)
+                .setTitle(entry.title)
+                .setSubtitle(entry.artist)
+                .setDescription(entry.album)
+                .setIconUri(artUri(entry.cover, client))
+                .build();
+            items.add(new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_PLAYABLE));
+        }
+    }
+
+    private MediaBrowserCompat.MediaItem browsable(String id, String title, String subtitle, String cover, String client) {
+        MediaDescriptionCompat description = new MediaDescriptionCompat.Builder()
+            .setMediaId(id)
+            .setTitle(title)
+            .setSubtitle(subtitle)
+            .setIconUri(artUri(cover, client))
+            .build();
+        return new MediaBrowserCompat.MediaItem(description, MediaBrowserCompat.MediaItem.FLAG_BROWSABLE);
+    }
+
+    /**
+     * Art is passed by URI and only decoded by the controller when shown.
+     * Cached covers are file paths, so they go through the FileProvider with
+     * a read grant for the browsing client.
+     */
+    private Uri artUri(String cover, String client) {
+        if (cover == null || cover.isEmpty()) return null;
+        if (!cover.startsWith("file://")) return Uri.parse(cover);
+        try {
+            Uri uri = FileProvider.getUriForFile(this, getPackageName() + ".fileprovider",
+                new File(Uri.parse(cover).getPath()));
+            if (client != null && !client.equals(getPackageName())) {
+                grantUriPermission(client, uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            }
+            return uri;
+        } catch (Exception e) {
+            return null;
+        }
     }
 
     @Override
@@ -381,6 +721,10 @@ public class MediaPlaybackService extends Service {
         if (headsetReceiver != null) {
             unregisterReceiver(headsetReceiver);
         }
+        browseExecutor.shutdownNow();
+        userDataWriter.shutdown(); // Let a pending recent land
+        AudioEffectsChain.get(this).setActive(false);
+        CacheManager.get(this).unregister(artCache);
         super.onDestroy();
     }
 }
@@ -2,8 +2,11 @@ package com.coflyn.flow;
 
 import android.Manifest;
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.ContentResolver;
+import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
@@ -21,10 +24,15 @@ import com.getcapacitor.annotation.Permission;
 import android.util.Log;
 import java.io.File;
 import java.io.InputStream;
-import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.json.JSONObject;
 
 @CapacitorPlugin(
     name = "ZMusicScanner",
@@ -40,10 +48,39 @@ import java.util.List;
 )
 public class MusicScannerPlugin extends Plugin {
 
+    private final Map<String, List<PluginCall>> pendingFolderScans = new HashMap<>();
+    private BroadcastReceiver scanProgressReceiver;
+
     public MusicScannerPlugin() {
         Log.d("MusicScanner", "MusicScannerPlugin initialized");
     }
 
+    @Override
+    public void load() {
+        scanProgressReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                onScanProgress(intent);
+            }
+        };
+
+        IntentFilter filter = new IntentFilter(ScanScheduler.BROADCAST_ACTION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            getContext().registerReceiver(scanProgressReceiver, filter, Context.RECEIVER_NOT_EXPORTED);
+        } else {
+            getContext().registerReceiver(scanProgressReceiver, filter);
+        }
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        if (scanProgressReceiver != null) {
+            try {
+                getContext().unregisterReceiver(scanProgressReceiver);
+            } catch (Exception ignored) {}
+        }
+    }
+
     @PluginMethod
     public void ping(PluginCall call) {
         JSObject ret = new JSObject();
@@ -59,6 +96,8 @@ public class MusicScannerPlugin extends Plugin {
             JSArray artists = new JSArray();
 
             ContentResolver resolver = getContext().getContentResolver();
+            LibraryIndex index = LibraryIndex.get(getContext());
+            Set<String> seenIds = new HashSet<>();
 
             // === Scan Tracks ===
             Uri audioUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
@@ -72,8 +111,15 @@ public class MusicScannerPlugin extends Plugin {
                 MediaStore.Audio.Media.DURATION,
                 MediaStore.Audio.Media.DATA,
                 MediaStore.Audio.Media.TRACK,
-                MediaStore.Audio.Media.YEAR
+                MediaStore.Audio.Media.YEAR,
+                MediaStore.Audio.Media.DATE_ADDED
             };
+            // Genre became a plain audio column in Android 11
+            boolean hasGenre = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+            if (hasGenre) {
+                trackProjection = Arrays.copyOf(trackProjection, trackProjection.length + 1);
+                trackProjection[trackProjection.length - 1] = MediaStore.Audio.Media.GENRE;
+            }
 
             String selection = MediaStore.Audio.Media.IS_MUSIC + " != 0";
             String sortOrder = MediaStore.Audio.Media.TITLE + " ASC";
@@ -91,6 +137,10 @@ public class MusicScannerPlugin extends Plugin {
                     String artist = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
                     String album = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM));
                     String data = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA));
+                    long dateAdded = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED));
+                    String genre = hasGenre
+                        ? cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.GENRE))
+                        : null;
 
                     // Build content URI for the track
                     Uri contentUri = Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, String.valueOf(id));
@@ -108,12 +158,19 @@ public class MusicScannerPlugin extends Plugin {
                     track.put("src", data); // File path
                     track.put("contentUri", contentUri.toString());
                     track.put("cover", albumArtUri.toString());
+                    track.put("dateAdded", dateAdded * 1000); // Seconds to ms
+                    track.put("genre", genre != null ? genre : "");
 
+                    index.upsert(track, LibraryIndex.SOURCE_MEDIA);
+                    seenIds.add(track.getString("id"));
                     tracks.put(track);
                 }
                 cursor.close();
             }
 
+            index.retainSource(LibraryIndex.SOURCE_MEDIA, seenIds);
+            attachGain(tracks, index);
+
             // === Scan Albums ===
             Uri albumUri = MediaStore.Audio.Albums.EXTERNAL_CONTENT_URI;
             String[] albumProjection = {
@@ -149,10 +206,13 @@ public class MusicScannerPlugin extends Plugin {
                     albumObj.put("year", year);
                     albumObj.put("numSongs", numSongs);
 
+                    index.upsertAlbum(albumObj);
                     albums.put(albumObj);
                 }
                 albumCursor.close();
             }
+            index.save();
+            ScanScheduler.scheduleLoudness(getContext());
 
             // === Scan Artists ===
             Uri artistUri = MediaStore.Audio.Artists.EXTERNAL_CONTENT_URI;
@@ -230,6 +290,13 @@ public class MusicScannerPlugin extends Plugin {
         }
     }
 
+    /**
+     * Queues a walk of the folder on FolderScanJobService and resolves when it
+     * completes, with `scanProgress` events on the way. The result reports the
+     * worker count the scan settled on and its throughput (files/s). With `background`, a
+     * folder that was scanned before resolves at once from the last result
+     * and is refreshed when the device is idle and charging.
+     */
     @PluginMethod
     public void scanFolder(PluginCall call) {
         String folderUriStr = call.getString("folderUri");
@@ -238,111 +305,119 @@ public class MusicScannerPlugin extends Plugin {
             return;
         }
 
-        new Thread(() -> {
-            try {
-                Uri folderUri = Uri.parse(folderUriStr);
-                androidx.documentfile.provider.DocumentFile rootDir = 
-                    androidx.documentfile.provider.DocumentFile.fromTreeUri(getContext(), folderUri);
-
-                if (rootDir == null || !rootDir.exists()) {
-                    call.reject("Folder not found or inaccessible");
-                    return;
-                }
-
-                JSArray tracks = new JSArray();
-                scanDirectory(rootDir, tracks);
-
-                JSObject result = new JSObject();
-                result.put("tracks", tracks);
-                result.put("folder", rootDir.getName());
-                call.resolve(result);
+        androidx.documentfile.provider.DocumentFile rootDir =
+            androidx.documentfile.provider.DocumentFile.fromTreeUri(getContext(), Uri.parse(folderUriStr));
+        if (rootDir == null || !rootDir.exists()) {
+            call.reject("Folder not found or inaccessible");
+            return;
+        }
 
-            } catch (Exception e) {
-                call.reject("Folder scan failed: " + e.getMessage(), e);
+        FolderScanner scanner = new FolderScanner(getContext());
+        if (call.getBoolean("background", false) && !scanner.hasCheckpoint(folderUriStr)) {
+            List<String> last = scanner.lastResult(folderUriStr);
+            if (last != null) {
+                call.resolve(folderResult(last, rootDir.getName()));
+                ScanScheduler.scheduleFolder(getContext(), folderUriStr, false);
+                return;
             }
-        }).start();
-    }
+        }
 
-    private void scanDirectory(androidx.documentfile.provider.DocumentFile dir, JSArray tracks) {
-        androidx.documentfile.provider.DocumentFile[] files = dir.listFiles();
-        for (androidx.documentfile.provider.DocumentFile file : files) {
-            if (file.isDirectory()) {
-                scanDirectory(file, tracks);
-            } else if (file.isFile() && isAudioFile(file.getType())) {
-                JSObject track = processAudioFile(file);
-                if (track != null) {
-                    tracks.put(track);
-                }
+        synchronized (pendingFolderScans) {
+            List<PluginCall> calls = pendingFolderScans.get(folderUriStr);
+            if (calls == null) {
+                calls = new ArrayList<>();
+                pendingFolderScans.put(folderUriStr, calls);
             }
+            calls.add(call);
         }
+        ScanScheduler.scheduleFolder(getContext(), folderUriStr, true);
     }
 
-    private boolean isAudioFile(String mimeType) {
-        return mimeType != null && (mimeType.startsWith("audio/") || mimeType.equals("application/ogg"));
-    }
-
-    private JSObject processAudioFile(androidx.documentfile.provider.DocumentFile file) {
-        try {
-            android.media.MediaMetadataRetriever mmr = new android.media.MediaMetadataRetriever();
-            mmr.setDataSource(getContext(), file.getUri());
+    /**
+     * Forgets a folder the user removed: drops its tracks from the library,
+     * its checkpoint and any queued scan.
+     */
+    @PluginMethod
+    public void removeFolder(PluginCall call) {
+        String folderUri = call.getString("folderUri");
+        if (folderUri == null) {
+            call.reject("Folder URI is required");
+            return;
+        }
 
-            String title = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_TITLE);
-            String artist = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_ARTIST);
-            String album = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_ALBUM);
-            String durationStr = mmr.extractMetadata(android.media.MediaMetadataRetriever.METADATA_KEY_DURATION);
-            
-            // Generate stable IDs based on file info
-            long id = file.getUri().toString().hashCode(); 
-            long albumId = (album != null ? album : "Unknown").hashCode();
-            long artistId = (artist != null ? artist : "Unknown").hashCode();
-
-            JSObject track = new JSObject();
-            track.put("id", "t_" + Math.abs(id));
-            track.put("title", title != null ? title : file.getName());
-            track.put("artist", artist != null ? artist : "Unknown Artist");
-            track.put("album", album != null ? album : "Unknown Album");
-            track.put("albumId", "a_" + Math.abs(albumId));
-            track.put("artistId", "ar_" + Math.abs(artistId));
-            track.put("duration", durationStr != null ? Long.parseLong(durationStr) / 1000 : 0);
-            track.put("src", file.getUri().toString());
-            track.put("contentUri", file.getUri().toString());
-            
-            // Extract and cache album art
-            byte[] artData = mmr.getEmbeddedPicture();
-            String artPath = cacheAlbumArt(artData, "a_" + Math.abs(albumId));
-            track.put("cover", artPath != null ? "file://" + artPath : "");
+        new Thread(() -> {
+            ScanScheduler.finishFolder(getContext(), folderUri);
+            new FolderScanner(getContext()).forget(folderUri);
+            call.resolve();
+        }).start();
+    }
 
-            try {
-                mmr.release();
-            } catch (Exception ignored) {}
+    private void onScanProgress(Intent intent) {
+        String folderUri = intent.getStringExtra(ScanScheduler.EXTRA_FOLDER);
+        String state = intent.getStringExtra(ScanScheduler.EXTRA_STATE);
+        if (folderUri == null || state == null) return;
+
+        JSObject event = new JSObject();
+        event.put("folderUri", folderUri);
+        event.put("state", state);
+        event.put("name", intent.getStringExtra(ScanScheduler.EXTRA_NAME));
+        event.put("directories", intent.getIntExtra(ScanScheduler.EXTRA_DIRECTORIES, 0));
+        event.put("tracks", intent.getIntExtra(ScanScheduler.EXTRA_TRACKS, 0));
+        notifyListeners("scanProgress", event);
+
+        if (state.equals(ScanScheduler.STATE_PROGRESS)) return;
+        List<PluginCall> calls;
+        synchronized (pendingFolderScans) {
+            calls = pendingFolderScans.remove(folderUri);
+        }
+        FolderScanner.Result scan = ScanScheduler.takeResult(folderUri);
+        if (calls == null) return;
+
+        if (state.equals(ScanScheduler.STATE_COMPLETE) && scan != null) {
+            // Receivers run on the main thread; building a large result doesn't belong there
+            new Thread(() -> {
+                androidx.documentfile.provider.DocumentFile rootDir =
+                    androidx.documentfile.provider.DocumentFile.fromTreeUri(getContext(), Uri.parse(folderUri));
+                JSObject result = folderResult(scan.ids, rootDir != null ? rootDir.getName() : null);
+                result.put("concurrency", scan.concurrency);
+                result.put("peakConcurrency", scan.peakConcurrency);
+                result.put("throughput", Math.round(scan.throughput * 10) / 10.0);
+                for (PluginCall call : calls) call.resolve(result);
+            }).start();
+        } else {
+            String error = intent.getStringExtra(ScanScheduler.EXTRA_ERROR);
+            for (PluginCall call : calls) call.reject("Folder scan failed: " + error);
+        }
+    }
 
-            return track;
-        } catch (Exception e) {
-            // Fallback for unreadable files
-            return null;
+    private JSObject folderResult(List<String> ids, String folderName) {
+        LibraryIndex index = LibraryIndex.get(getContext());
+        JSArray tracks = new JSArray();
+        for (String id : ids) {
+            LibraryIndex.Entry entry = index.getTrack(id);
+            if (entry != null) tracks.put(entry.toTrack());
         }
+        attachGain(tracks, index);
+
+        JSObject result = new JSObject();
+        result.put("tracks", tracks);
+        result.put("folder", folderName);
+        return result;
     }
 
-    private String cacheAlbumArt(byte[] data, String fileName) {
-        if (data == null || data.length == 0) return null;
-        try {
-            File cacheDir = getContext().getCacheDir();
-            File artDir = new File(cacheDir, "album_covers");
-            if (!artDir.exists()) artDir.mkdirs();
-
-            File file = new File(artDir, fileName + ".jpg");
-            // Optimization: If file exists and acts as a cache, skip writing. 
-            // However, different albums might conflict if hashing is weak, but for now assuming albumId hash + file name is unique enough or consistent.
-            if (file.exists() && file.length() > 0) {
-                return file.getAbsolutePath();
+    /**
+     * Adds the persisted loudness analysis, when available, as a `gain` field.
+     */
+    private void attachGain(JSArray tracks, LibraryIndex index) {
+        for (int i = 0; i < tracks.length(); i++) {
+            JSONObject track = tracks.optJSONObject(i);
+            if (track == null) continue;
+            JSObject gain = index.gainFor(track.optString("id"));
+            if (gain != null) {
+                try {
+                    track.put("gain", gain);
+                } catch (org.json.JSONException ignored) {}
             }
-
-            java.io.FileOutputStream fos = new java.io.FileOutputStream(file);
-            fos.write(data);
-            fos.close();
-            return file.getAbsolutePath();
-        } catch (Exception e) {
-            return null;
         }
     }
 
@@ -351,6 +426,7 @@ public class MusicScannerPlugin extends Plugin {
         try {
             JSArray tracks = new JSArray();
             ContentResolver resolver = getContext().getContentResolver();
+            LibraryIndex index = LibraryIndex.get(getContext());
             Uri audioUri = MediaStore.Audio.Media.EXTERNAL_CONTENT_URI;
             
             String[] projection = {
@@ -362,8 +438,14 @@ public class MusicScannerPlugin extends Plugin {
                 MediaStore.Audio.Media.ARTIST_ID,
                 MediaStore.Audio.Media.DURATION,
                 MediaStore.Audio.Media.DATA,
-                MediaStore.Audio.Media.RELATIVE_PATH
+                MediaStore.Audio.Media.RELATIVE_PATH,
+                MediaStore.Audio.Media.DATE_ADDED
             };
+            boolean hasGenre = Build.VERSION.SDK_INT >= Build.VERSION_CODES.R;
+            if (hasGenre) {
+                projection = Arrays.copyOf(projection, projection.length + 1);
+                projection[projection.length - 1] = MediaStore.Audio.Media.GENRE;
+            }
 
             // Modern Android uses RELATIVE_PATH
             String selection = "(" + MediaStore.Audio.Media.RELATIVE_PATH + " LIKE ? OR " + 
@@ -385,6 +467,10 @@ public class MusicScannerPlugin extends Plugin {
                     String artist = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ARTIST));
                     String album = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.ALBUM));
                     String data = cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATA));
+                    long dateAdded = cursor.getLong(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.DATE_ADDED));
+                    String genre = hasGenre
+                        ? cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Audio.Media.GENRE))
+                        : null;
 
                     Uri contentUri = Uri.withAppendedPath(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, String.valueOf(id));
                     Uri albumArtUri = Uri.parse("content://media/external/audio/albumart/" + albumId);
@@ -399,12 +485,19 @@ public class MusicScannerPlugin extends Plugin {
                     track.put("src", data);
                     track.put("contentUri", contentUri.toString());
                     track.put("cover", albumArtUri.toString());
+                    track.put("dateAdded", dateAdded * 1000);
+                    track.put("genre", genre != null ? genre : "");
 
+                    index.upsert(track, LibraryIndex.SOURCE_MEDIA);
                     tracks.put(track);
                 }
                 cursor.close();
             }
 
+            attachGain(tracks, index);
+            index.save();
+            ScanScheduler.scheduleLoudness(getContext());
+
             JSObject result = new JSObject();
             result.put("tracks", tracks);
             call.resolve(result);
@@ -414,6 +507,60 @@ public class MusicScannerPlugin extends Plugin {
         }
     }
 
+    /**
+     * Groups tracks that are the same recording indexed under different IDs.
+     * Runs in the background, emitting `dedupProgress` events, and resolves
+     * with clusters of track IDs plus the one to keep.
+     */
+    @PluginMethod
+    public void findDuplicates(PluginCall call) {
+        new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                List<DuplicateDetector.Cluster> clusters = DuplicateDetector.detect(
+                    getContext(),
+                    LibraryIndex.get(getContext()).snapshot(),
+                    (done, total) -> {
+                        JSObject progress = new JSObject();
+                        progress.put("done", done);
+                        progress.put("total", total);
+                        notifyListeners("dedupProgress", progress);
+                    }
+                );
+                DuplicateDetector.save(getContext(), clusters);
+
+                JSArray result = new JSArray();
+                for (DuplicateDetector.Cluster cluster : clusters) {
+                    JSArray ids = new JSArray();
+                    for (LibraryIndex.Entry entry : cluster.tracks) ids.put(entry.id);
+                    JSObject obj = new JSObject();
+                    obj.put("ids", ids);
+                    obj.put("keep", cluster.keep.id);
+                    result.put(obj);
+                }
+
+                JSObject response = new JSObject();
+                response.put("clusters", result);
+                call.resolve(response);
+            } catch (Exception e) {
+                call.reject("Duplicate detection failed: " + e.getMessage(), e);
+            }
+        }, "FlowDedup").start();
+    }
+
+    @PluginMethod
+    public void getDuplicates(PluginCall call) {
+        new Thread(() -> {
+            try {
+                JSObject response = new JSObject();
+                response.put("clusters", new JSArray(DuplicateDetector.load(getContext()).toString()));
+                call.resolve(response);
+            } catch (Exception e) {
+                call.reject("Failed to load duplicates: " + e.getMessage());
+            }
+        }).start();
+    }
+
     @PluginMethod
     public void requestPermissions(PluginCall call) {
         super.requestPermissions(call);
@@ -424,6 +571,40 @@ public class MusicScannerPlugin extends Plugin {
         super.checkPermissions(call);
     }
 
+    @PluginMethod
+    public void getLyrics(PluginCall call) {
+        String trackId = call.getString("trackId");
+        if (trackId == null) {
+            call.reject("Track ID is required");
+            return;
+        }
+
+        LrcDocument lyrics = LyricsCache.get(getContext()).get(trackId);
+        JSObject response = new JSObject();
+        response.put("found", lyrics != null);
+        if (lyrics != null) {
+            response.put("lines", lyrics.toJSArray());
+            response.put("offset", lyrics.getOffset());
+            response.put("synced", lyrics.isSynced());
+        }
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void parseLrc(PluginCall call) {
+        String content = call.getString("content");
+        if (content == null) {
+            call.reject("LRC content is required");
+            return;
+        }
+
+        LrcDocument lyrics = LrcParser.parse(content);
+        JSObject response = new JSObject();
+        response.put("lines", lyrics.toJSArray());
+        response.put("offset", lyrics.getOffset());
+        call.resolve(response);
+    }
+
     @PluginMethod
     public void pickLrcFile(PluginCall call) {
         Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
@@ -441,16 +622,16 @@ public class MusicScannerPlugin extends Plugin {
                 Uri uri = data.getData();
                 try {
                     InputStream is = getContext().getContentResolver().openInputStream(uri);
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-                    StringBuilder sb = new StringBuilder();
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        sb.append(line).append("\n");
+                    LrcDocument lyrics;
+                    try {
+                        lyrics = LrcParser.parse(new InputStreamReader(is));
+                    } finally {
+                        is.close();
                     }
-                    is.close();
 
                     JSObject response = new JSObject();
-                    response.put("content", sb.toString());
+                    response.put("lines", lyrics.toJSArray());
+                    response.put("offset", lyrics.getOffset());
                     response.put("uri", uri.toString());
                     call.resolve(response);
                 } catch (Exception e) {
@@ -463,4 +644,352 @@ public class MusicScannerPlugin extends Plugin {
             call.reject("User cancelled file selection");
         }
     }
+
+    /**
+     * Imports an M3U, M3U8 or PLS file, picked by the user unless a `uri` is
+     * given, matching its entries against the library:
+     * { uri?, name?, create = true } -> { name, total, trackIds, missing, playlist? }
+     * With `create` the resolved tracks become a playlist in the native store.
+     */
+    @PluginMethod
+    public void importPlaylist(PluginCall call) {
+        String uri = call.getString("uri");
+        if (uri != null) {
+            runPlaylistImport(call, Uri.parse(uri));
+            return;
+        }
+
+        Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+        intent.addCategory(Intent.CATEGORY_OPENABLE);
+        intent.setType("*/*");
+        startActivityForResult(call, intent, "importPlaylistResult");
+    }
+
+    @ActivityCallback
+    public void importPlaylistResult(PluginCall call, ActivityResult result) {
+        if (call == null) return;
+        if (result.getResultCode() != Activity.RESULT_OK) {
+            call.reject("User cancelled file selection");
+            return;
+        }
+        Intent data = result.getData();
+        if (data == null || data.getData() == null) {
+            call.reject("No file selected");
+            return;
+        }
+        runPlaylistImport(call, data.getData());
+    }
+
+    private void runPlaylistImport(PluginCall call, Uri uri) {
+        new Thread(() -> {
+            try {
+                Context context = getContext();
+                PlaylistImporter.Result imported;
+                try (InputStream in = context.getContentResolver().openInputStream(uri)) {
+                    if (in == null) throw new java.io.FileNotFoundException(uri.toString());
+                    imported = new PlaylistImporter(LibraryIndex.get(context).snapshot()).read(in);
+                }
+
+                String name = call.getString("name");
+                if (name == null || name.isEmpty()) name = playlistName(uri);
+
+                JSArray ids = new JSArray();
+                for (String id : imported.ids) ids.put(id);
+                JSArray missing = new JSArray();
+                for (PlaylistImporter.Item item : imported.missing) {
+                    JSObject miss = new JSObject();
+                    miss.put("position", item.position);
+                    miss.put("location", item.location);
+                    miss.put("title", item.title);
+                    miss.put("artist", item.artist);
+                    missing.put(miss);
+                }
+
+                JSObject response = new JSObject();
+                response.put("name", name);
+                response.put("total", imported.total);
+                response.put("trackIds", ids);
+                response.put("missing", missing);
+                response.put("matchedByPath", imported.byPath);
+                response.put("matchedByTags", imported.byTags);
+                response.put("elapsedMs", imported.elapsedMs);
+
+                if (call.getBoolean("create", true)) {
+                    long now = System.currentTimeMillis();
+                    UserDataStore.Playlist playlist = UserDataStore.get(context)
+                        .createPlaylist("pl_" + now, name, now, imported.ids);
+                    response.put("playlist", playlist.toJSObject());
+                }
+                call.resolve(response);
+            } catch (Exception e) {
+                call.reject("Playlist import failed: " + e.getMessage());
+            }
+        }, "FlowPlaylistImport").start();
+    }
+
+    private String playlistName(Uri uri) {
+        androidx.documentfile.provider.DocumentFile file =
+            androidx.documentfile.provider.DocumentFile.fromSingleUri(getContext(), uri);
+        String name = file != null ? file.getName() : null;
+        if (name == null) name = uri.getLastPathSegment();
+        if (name == null) return "Imported playlist";
+        int slash = name.lastIndexOf('/');
+        if (slash >= 0) name = name.substring(slash + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Pages through the native library snapshot, so the UI can load a
+     * large library without keeping it as JSON in localStorage:
+     * { offset = 0, limit = 5000 } -> { total, tracks, albums?, artists? }
+     * Albums and artists are only included with the first page.
+     */
+    @PluginMethod
+    public void getLibrary(PluginCall call) {
+        int offset = Math.max(0, call.getInt("offset", 0));
+        int limit = Math.max(1, call.getInt("limit", 5000));
+
+        new Thread(() -> {
+            try {
+                LibraryIndex index = LibraryIndex.get(getContext());
+                index.save();
+                JSObject result = new JSObject();
+                File file = index.snapshotFile();
+                if (!file.exists()) {
+                    result.put("total", 0);
+                    result.put("tracks", new JSArray());
+                    call.resolve(result);
+                    return;
+                }
+
+                LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+                JSArray tracks = new JSArray();
+                int end = Math.min(snapshot.trackCount(), offset + limit);
+                for (int i = offset; i < end; i++) {
+                    tracks.put(snapshot.track(i).toTrack());
+                }
+                attachGain(tracks, index);
+                result.put("total", snapshot.trackCount());
+                result.put("tracks", tracks);
+
+                if (offset == 0) {
+                    JSArray albums = new JSArray();
+                    for (int i = 0; i < snapshot.albumCount(); i++) {
+                        LibrarySnapshot.Album album = snapshot.album(i);
+                        JSObject albumObj = new JSObject();
+                        albumObj.put("id", album.id);
+                        albumObj.put("title", album.title);
+                        albumObj.put("artist", album.artist);
+                        albumObj.put("cover", album.cover);
+                        albumObj.put("year", album.year);
+                        albumObj.put("numSongs", album.tracks.length);
+                        albums.put(albumObj);
+                    }
+                    JSArray artists = new JSArray();
+                    for (int i = 0; i < snapshot.artistCount(); i++) {
+                        LibrarySnapshot.Artist artist = snapshot.artist(i);
+                        JSObject artistObj = new JSObject();
+                        artistObj.put("id", artist.id);
+                        artistObj.put("name", artist.name);
+                        artistObj.put("numTracks", artist.tracks.length);
+                        artistObj.put("numAlbums", artist.albumCount);
+                        artistObj.put("image", "");
+                        artists.put(artistObj);
+                    }
+                    result.put("albums", albums);
+                    result.put("artists", artists);
+                }
+                call.resolve(result);
+            } catch (Exception e) {
+                call.reject("Failed to load library: " + e.getMessage());
+            }
+        }).start();
+    }
+
+    /**
+     * Estimated memory (and disk) held by each native cache, plus the Java heap.
+     */
+    @PluginMethod
+    public void getCacheStats(PluginCall call) {
+        new Thread(() -> {
+            // Caches register on first use; make sure the long-lived ones are counted
+            Context context = getContext();
+            LibraryIndex.get(context);
+            LyricsCache.get(context);
+            AlbumArtCache.get(context);
+            SmartPlaylistEngine.get(context);
+            call.resolve(CacheManager.get(context).stats());
+        }).start();
+    }
+
+    @PluginMethod
+    public void getUserData(PluginCall call) {
+        call.resolve(UserDataStore.get(getContext()).toJSObject());
+    }
+
+    @PluginMethod
+    public void importUserData(PluginCall call) {
+        boolean imported = UserDataStore.get(getContext()).importLegacy(call.getData());
+        JSObject response = UserDataStore.get(getContext()).toJSObject();
+        response.put("imported", imported);
+        call.resolve(response);
+    }
+
+    /**
+     * Evaluates smart playlist rules natively and returns only the top IDs:
+     * { rules: [{ key, type, limit, ...params }] } -> { key: [ids] }
+     */
+    @PluginMethod
+    public void getSmartPlaylists(PluginCall call) {
+        JSArray rules = call.getArray("rules");
+        if (rules == null) {
+            call.reject("Rules are required");
+            return;
+        }
+
+        try {
+            SmartPlaylistEngine engine = SmartPlaylistEngine.get(getContext());
+            JSObject response = new JSObject();
+            for (int i = 0; i < rules.length(); i++) {
+                JSONObject rule = rules.getJSONObject(i);
+                String key = rule.optString("key", rule.optString("type"));
+                JSArray ids = new JSArray();
+                for (String id : engine.evaluate(rule, rule.optInt("limit", 20))) ids.put(id);
+                response.put(key, ids);
+            }
+            call.resolve(response);
+        } catch (Exception e) {
+            call.reject("Failed to evaluate rules: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Wipes play counts, recents, favorites and playlists, for "Reset to defaults".
+     */
+    @PluginMethod
+    public void clearUserData(PluginCall call) {
+        new Thread(() -> {
+            UserDataStore.get(getContext()).clear();
+            // Drop results and the co-play graph built from the old history
+            SmartPlaylistEngine.get(getContext()).trim(CacheManager.TRIM_FULL);
+            call.resolve();
+        }).start();
+    }
+
+    @PluginMethod
+    public void recordPlay(PluginCall call) {
+        String trackId = call.getString("trackId");
+        if (trackId == null) {
+            call.reject("Track ID is required");
+            return;
+        }
+
+        int count = UserDataStore.get(getContext()).recordPlay(trackId, System.currentTimeMillis());
+        JSObject response = new JSObject();
+        response.put("count", count);
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void toggleFavorite(PluginCall call) {
+        String trackId = call.getString("trackId");
+        if (trackId == null) {
+            call.reject("Track ID is required");
+            return;
+        }
+
+        UserDataStore store = UserDataStore.get(getContext());
+        Boolean favorite = call.getBoolean("favorite");
+        if (favorite != null) {
+            store.setFavorite(trackId, favorite);
+        } else {
+            favorite = store.toggleFavorite(trackId);
+        }
+        JSObject response = new JSObject();
+        response.put("favorite", favorite);
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void createPlaylist(PluginCall call) {
+        String name = call.getString("name");
+        if (name == null) {
+            call.reject("Playlist name is required");
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        String id = call.getString("id", "pl_" + now);
+        long createdAt = call.getLong("createdAt", now);
+        call.resolve(UserDataStore.get(getContext()).createPlaylist(id, name, createdAt).toJSObject());
+    }
+
+    @PluginMethod
+    public void deletePlaylist(PluginCall call) {
+        String id = call.getString("playlistId");
+        if (id == null) {
+            call.reject("Playlist ID is required");
+            return;
+        }
+
+        JSObject response = new JSObject();
+        response.put("changed", UserDataStore.get(getContext()).deletePlaylist(id));
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void renamePlaylist(PluginCall call) {
+        String id = call.getString("playlistId");
+        String name = call.getString("name");
+        if (id == null || name == null) {
+            call.reject("Playlist ID and name are required");
+            return;
+        }
+
+        JSObject response = new JSObject();
+        response.put("changed", UserDataStore.get(getContext()).renamePlaylist(id, name));
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void setPlaylistCover(PluginCall call) {
+        String id = call.getString("playlistId");
+        if (id == null) {
+            call.reject("Playlist ID is required");
+            return;
+        }
+
+        JSObject response = new JSObject();
+        response.put("changed", UserDataStore.get(getContext()).setPlaylistCover(id, call.getString("cover")));
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void addToPlaylist(PluginCall call) {
+        String id = call.getString("playlistId");
+        String trackId = call.getString("trackId");
+        if (id == null || trackId == null) {
+            call.reject("Playlist ID and track ID are required");
+            return;
+        }
+
+        JSObject response = new JSObject();
+        response.put("changed", UserDataStore.get(getContext()).addToPlaylist(id, trackId));
+        call.resolve(response);
+    }
+
+    @PluginMethod
+    public void removeFromPlaylist(PluginCall call) {
+        String id = call.getString("playlistId");
+        String trackId = call.getString("trackId");
+        if (id == null || trackId == null) {
+            call.reject("Playlist ID and track ID are required");
+            return;
+        }
+
+        JSObject response = new JSObject();
+        response.put("changed", UserDataStore.get(getContext()).removeFromPlaylist(id, trackId));
+        call.resolve(response);
+    }
 }
@@ -6,6 +6,10 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
@@ -23,6 +27,24 @@ public class NowPlayingPlugin extends Plugin {
 
     private BroadcastReceiver mediaActionReceiver;
 
+    // Playback clock extrapolated from the last position report, used to drive lyric events.
+    // The clock, pre-warm and lyrics state below is only touched on the main looper.
+    private final Handler clockHandler = new Handler(Looper.getMainLooper());
+    private final Runnable lyricTick = this::emitLyricLine;
+    private long clockPosition = 0;
+    private long clockTimestamp = 0;
+    private boolean clockPlaying = false;
+
+    // Next-track pre-warm, fired a configurable lead time before the current track ends
+    private final Runnable prewarmTick = this::firePrewarm;
+    private long clockDuration = 0;
+    private String nextTrackId = null;
+    private long prewarmLeadMs = 15000;
+
+    private LrcDocument lyrics = LrcDocument.EMPTY;
+    private boolean lyricEvents = false;
+    private int lastLyricIndex = -2;
+
     @Override
     public void load() {
         mediaActionReceiver = new BroadcastReceiver() {
@@ -30,6 +52,15 @@ public class NowPlayingPlugin extends Plugin {
             public void onReceive(Context context, Intent intent) {
                 String action = intent.getStringExtra("action");
                 if (action != null) {
+                    if (action.startsWith("seekTo:")) {
+                        try {
+                            applyClock(Long.parseLong(action.substring(7)), clockPlaying);
+                        } catch (NumberFormatException ignored) {}
+                    } else if (action.equals("play")) {
+                        applyClock(currentPosition(), true);
+                    } else if (action.equals("pause")) {
+                        applyClock(currentPosition(), false);
+                    }
                     JSObject data = new JSObject();
                     data.put("action", action);
                     notifyListeners("mediaAction", data);
@@ -43,6 +74,7 @@ public class NowPlayingPlugin extends Plugin {
         } else {
             getContext().registerReceiver(mediaActionReceiver, filter);
         }
+        CacheManager.get(getContext()).register(TrackPrewarmer.get());
     }
 
     @PluginMethod
@@ -52,25 +84,30 @@ public class NowPlayingPlugin extends Plugin {
         String album = call.getString("album", "");
         String coverUri = call.getString("coverUri", "");
         String trackUri = call.getString("trackUri", "");
+        String trackId = call.getString("trackId", "");
         boolean isPlaying = call.getBoolean("isPlaying", false);
         long duration = (long)(call.getDouble("duration", 0.0) * 1000); // JS sends seconds, convert to ms
 
-        Intent serviceIntent = new Intent(getContext(), MediaPlaybackService.class);
-        serviceIntent.setAction(MediaPlaybackService.ACTION_UPDATE);
+        // New track starts from zero; any pending pre-warm was for the track now starting
+        clockHandler.post(() -> {
+            clockDuration = duration;
+            nextTrackId = null;
+            clockHandler.removeCallbacks(prewarmTick);
+        });
+        setClock(0, isPlaying);
+
+        Intent serviceIntent = new Intent(MediaPlaybackService.ACTION_UPDATE);
         serviceIntent.putExtra("title", title);
         serviceIntent.putExtra("artist", artist);
         serviceIntent.putExtra("album", album);
         serviceIntent.putExtra("coverUri", coverUri);
         serviceIntent.putExtra("trackUri", trackUri);
+        serviceIntent.putExtra("trackId", trackId);
         serviceIntent.putExtra("isPlaying", isPlaying);
         serviceIntent.putExtra("duration", duration);
 
         try {
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-                getContext().startForegroundService(serviceIntent);
-            } else {
-                getContext().startService(serviceIntent);
-            }
+            MediaPlaybackService.send(getContext(), serviceIntent, true);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to update notification: " + e.getMessage());
@@ -81,12 +118,13 @@ public class NowPlayingPlugin extends Plugin {
     public void updatePlaybackState(PluginCall call) {
         boolean isPlaying = call.getBoolean("isPlaying", false);
 
-        Intent serviceIntent = new Intent(getContext(), MediaPlaybackService.class);
-        serviceIntent.setAction(MediaPlaybackService.ACTION_SET_STATE);
+        Intent serviceIntent = new Intent(MediaPlaybackService.ACTION_SET_STATE);
         serviceIntent.putExtra("isPlaying", isPlaying);
 
+        clockHandler.post(() -> applyClock(currentPosition(), isPlaying));
+
         try {
-            getContext().startService(serviceIntent);
+            MediaPlaybackService.send(getContext(), serviceIntent, false);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to update playback state: " + e.getMessage());
@@ -97,14 +135,19 @@ public class NowPlayingPlugin extends Plugin {
     public void updatePosition(PluginCall call) {
         long position = (long)(call.getDouble("position", 0.0) * 1000); // seconds to ms
         long duration = (long)(call.getDouble("duration", 0.0) * 1000);
+        Boolean isPlaying = call.getBoolean("isPlaying");
 
-        Intent serviceIntent = new Intent(getContext(), MediaPlaybackService.class);
-        serviceIntent.setAction(MediaPlaybackService.ACTION_UPDATE_POSITION);
+        clockHandler.post(() -> {
+            if (duration > 0) clockDuration = duration;
+            applyClock(position, isPlaying != null ? isPlaying : clockPlaying);
+        });
+
+        Intent serviceIntent = new Intent(MediaPlaybackService.ACTION_UPDATE_POSITION);
         serviceIntent.putExtra("position", position);
         serviceIntent.putExtra("duration", duration);
 
         try {
-            getContext().startService(serviceIntent);
+            MediaPlaybackService.send(getContext(), serviceIntent, false);
             call.resolve();
         } catch (Exception e) {
             call.reject("Failed to update position: " + e.getMessage());
@@ -113,10 +156,9 @@ public class NowPlayingPlugin extends Plugin {
 
     @PluginMethod
     public void destroy(PluginCall call) {
-        Intent serviceIntent = new Intent(getContext(), MediaPlaybackService.class);
-        serviceIntent.setAction(MediaPlaybackService.ACTION_STOP);
+        Intent serviceIntent = new Intent(MediaPlaybackService.ACTION_STOP);
         try {
-            getContext().startService(serviceIntent);
+            MediaPlaybackService.send(getContext(), serviceIntent, false);
         } catch (Exception ignored) {}
         call.resolve();
     }
@@ -132,8 +174,272 @@ public class NowPlayingPlugin extends Plugin {
         }
     }
 
+    /**
+     * Saves the queue as track IDs for the session snapshot.
+     */
+    @PluginMethod
+    public void updateQueue(PluginCall call) {
+        JSArray ids = call.getArray("ids");
+        if (ids == null) {
+            call.reject("Queue IDs are required");
+            return;
+        }
+
+        try {
+            SessionSnapshot.get(getContext()).setQueue(ids.<String>toList(), call.getInt("index", -1));
+            call.resolve();
+        } catch (Exception e) {
+            call.reject("Failed to save queue: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the last session for JS to restore, and whether a play was
+     * requested (e.g. from a media button) before JS was ready to handle it.
+     */
+    @PluginMethod
+    public void getSession(PluginCall call) {
+        SessionSnapshot session = SessionSnapshot.get(getContext());
+        boolean found = session.load();
+        boolean play = session.attachClient();
+
+        JSObject response = new JSObject();
+        response.put("found", found);
+        response.put("play", play);
+        if (found) {
+            response.put("trackId", session.trackId);
+            response.put("position", session.position / 1000.0); // ms to seconds
+            JSArray queue = new JSArray();
+            for (String id : session.queue) queue.put(id);
+            response.put("queue", queue);
+            response.put("index", session.queueIndex);
+        }
+        call.resolve(response);
+    }
+
+    /**
+     * Returns the equalizer settings plus the band frequencies and preset names.
+     */
+    @PluginMethod
+    public void getEqualizer(PluginCall call) {
+        call.resolve(AudioEffectsChain.get(getContext()).describe());
+    }
+
+    /**
+     * Updates any of: enabled, preset, bands (dB per frequency), bassBoost (0..1),
+     * preamp (dB), gainMode ("off" | "track" | "album") and limiter.
+     */
+    @PluginMethod
+    public void setEqualizer(PluginCall call) {
+        try {
+            AudioEffectsChain effects = AudioEffectsChain.get(getContext());
+            effects.update(call.getData());
+            call.resolve(effects.describe());
+        } catch (Exception e) {
+            call.reject("Failed to update equalizer: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Volume-normalization gain for a track in dB under the current gainMode.
+     * The WebView applies it to its own output rather than the device mix.
+     */
+    @PluginMethod
+    public void getTrackGain(PluginCall call) {
+        String trackId = call.getString("trackId");
+        if (trackId == null) {
+            call.reject("Track ID is required");
+            return;
+        }
+        new Thread(() -> {
+            JSObject ret = new JSObject();
+            ret.put("gain", (double) AudioEffectsChain.get(getContext()).trackGain(trackId));
+            call.resolve(ret);
+        }).start();
+    }
+
+    /**
+     * Pre-warms the next track leadSeconds before the current one ends (or
+     * immediately if that point has passed): reads the head of its file,
+     * decodes its notification art and prefetches its waveform.
+     */
+    @PluginMethod
+    public void prepareNext(PluginCall call) {
+        String trackId = call.getString("trackId");
+        if (trackId == null) {
+            call.reject("Track ID is required");
+            return;
+        }
+        long leadMs = (long)(call.getDouble("leadSeconds", 15.0) * 1000);
+
+        clockHandler.post(() -> {
+            nextTrackId = trackId;
+            prewarmLeadMs = Math.max(0, leadMs);
+            schedulePrewarm();
+        });
+        call.resolve();
+    }
+
+    private void schedulePrewarm() {
+        clockHandler.removeCallbacks(prewarmTick);
+        if (nextTrackId == null) return;
+
+        long remaining = clockDuration > 0 ? clockDuration - currentPosition() : 0;
+        long delay = remaining - prewarmLeadMs;
+        if (delay <= 0) {
+            firePrewarm();
+        } else if (clockPlaying) {
+            clockHandler.postDelayed(prewarmTick, delay);
+        }
+    }
+
+    private void firePrewarm() {
+        if (nextTrackId == null) return;
+        TrackPrewarmer.get().prepare(getContext(), nextTrackId);
+        nextTrackId = null;
+    }
+
+    @PluginMethod
+    public void getWaveform(PluginCall call) {
+        String trackId = call.getString("trackId");
+        int buckets = call.getInt("buckets", 200);
+        if (trackId == null) {
+            call.reject("Track ID is required");
+            return;
+        }
+        if (buckets <= 0 || buckets > WaveformExtractor.MAX_BUCKETS) {
+            call.reject("Buckets must be between 1 and " + WaveformExtractor.MAX_BUCKETS);
+            return;
+        }
+
+        WaveformExtractor.get(getContext(), trackId, buckets, new WaveformExtractor.Callback() {
+            @Override
+            public void onWaveform(byte[] min, byte[] max) {
+                JSArray minArr = new JSArray();
+                JSArray maxArr = new JSArray();
+                for (int i = 0; i < min.length; i++) {
+                    minArr.put(min[i] / 127.0);
+                    maxArr.put(max[i] / 127.0);
+                }
+                JSObject ret = new JSObject();
+                ret.put("trackId", trackId);
+                ret.put("buckets", buckets);
+                ret.put("min", minArr);
+                ret.put("max", maxArr);
+                call.resolve(ret);
+            }
+
+            @Override
+            public void onError(String message) {
+                call.reject("Failed to build waveform: " + message);
+            }
+        });
+    }
+
+    @PluginMethod
+    public void prefetchWaveform(PluginCall call) {
+        String trackId = call.getString("trackId");
+        if (trackId != null) {
+            WaveformExtractor.prefetch(getContext(), trackId, call.getInt("buckets", 200));
+        }
+        call.resolve();
+    }
+
+    /**
+     * Loads lyrics into the native clock. When events are enabled a `lyricLine`
+     * event is pushed each time the active line changes, so the lyrics view
+     * doesn't need to poll currentTime.
+     */
+    @PluginMethod
+    public void setLyrics(PluginCall call) {
+        String content = call.getString("content", "");
+        boolean emitEvents = call.getBoolean("emitEvents", true);
+
+        LrcDocument parsed = LrcParser.parse(content);
+        clockHandler.post(() -> {
+            lyrics = parsed;
+            lyricEvents = emitEvents;
+            lastLyricIndex = -2;
+            emitLyricLine();
+        });
+
+        JSObject ret = new JSObject();
+        ret.put("lines", parsed.toJSArray());
+        ret.put("offset", parsed.getOffset());
+        call.resolve(ret);
+    }
+
+    @PluginMethod
+    public void clearLyrics(PluginCall call) {
+        clockHandler.post(() -> {
+            clockHandler.removeCallbacks(lyricTick);
+            lyrics = LrcDocument.EMPTY;
+            lyricEvents = false;
+            lastLyricIndex = -2;
+        });
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getLyricLine(PluginCall call) {
+        Double position = call.getDouble("position");
+        clockHandler.post(() -> {
+            long positionMs = position != null ? (long)(position * 1000) : currentPosition();
+            int index = lyrics.indexAt(positionMs);
+            JSObject ret = index >= 0 ? lyrics.lineToJSObject(index) : new JSObject();
+            ret.put("index", index);
+            if (index >= 0) ret.put("word", lyrics.wordIndexAt(index, positionMs));
+            call.resolve(ret);
+        });
+    }
+
+    private long currentPosition() {
+        if (!clockPlaying) return clockPosition;
+        return clockPosition + (SystemClock.elapsedRealtime() - clockTimestamp);
+    }
+
+    private void setClock(long positionMs, boolean playing) {
+        clockHandler.post(() -> applyClock(positionMs, playing));
+    }
+
+    private void applyClock(long positionMs, boolean playing) {
+        clockPosition = Math.max(0, positionMs);
+        clockTimestamp = SystemClock.elapsedRealtime();
+        clockPlaying = playing;
+        emitLyricLine();
+        schedulePrewarm();
+    }
+
+    /**
+     * Emits the current line if it changed and schedules a wake-up for the next one.
+     * Always runs on the main looper.
+     */
+    private void emitLyricLine() {
+        clockHandler.removeCallbacks(lyricTick);
+        if (!lyricEvents || lyrics.isEmpty()) return;
+
+        long position = currentPosition();
+        int index = lyrics.indexAt(position);
+
+        if (index != lastLyricIndex) {
+            lastLyricIndex = index;
+            JSObject data = index >= 0 ? lyrics.lineToJSObject(index) : new JSObject();
+            data.put("index", index);
+            data.put("position", position / 1000.0);
+            notifyListeners("lyricLine", data);
+        }
+
+        if (clockPlaying && index + 1 < lyrics.size()) {
+            long delay = lyrics.timeAt(index + 1) - position;
+            clockHandler.postDelayed(lyricTick, Math.max(delay, 16));
+        }
+    }
+
     @Override
     protected void handleOnDestroy() {
+        clockHandler.removeCallbacksAndMessages(null);
+        TrackPrewarmer.get().release();
+        SessionSnapshot.get(getContext()).detachClient();
         if (mediaActionReceiver != null) {
             try {
                 getContext().unregisterReceiver(mediaActionReceiver);
@@ -0,0 +1,123 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+import android.os.Build;
+import android.os.Process;
+import android.util.Log;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides which media browser clients may see the library.
+ *
+ * A package name alone proves nothing, since any sideloaded app can claim
+ * one, and a system-image flag excludes the Play Store builds of Android
+ * Auto and Wear. Instead a caller is trusted when it is us or the system,
+ * when it is signed with the platform key, or when it is a known client
+ * signed with that client's publisher key. Digests are the SHA-256 of the
+ * signing certificate, as printed by apksigner.
+ */
+public final class PackageValidator {
+
+    private static final String TAG = "FlowPackageValidator";
+
+    // Google's release signing keys; its media clients are signed with one of these
+    private static final Set<String> GOOGLE_KEYS = new HashSet<>(Arrays.asList(
+        "fdb00c43dbde8b51cb312aa81d3b5fa17713adb94b28f598d77f8eb89daceedf",
+        "1975b2f17177bc89a5dff31f9e64a6cae281a53dc1d1d59b1d147fe1c82afa00"
+    ));
+
+    private static final Map<String, Set<String>> KNOWN_CALLERS = new HashMap<>();
+    static {
+        KNOWN_CALLERS.put("com.google.android.projection.gearhead", GOOGLE_KEYS); // Android Auto
+        KNOWN_CALLERS.put("com.google.android.carassistant", GOOGLE_KEYS);
+        KNOWN_CALLERS.put("com.google.android.autosimulator", GOOGLE_KEYS);
+        KNOWN_CALLERS.put("com.google.android.googlequicksearchbox", GOOGLE_KEYS); // Assistant
+        KNOWN_CALLERS.put("com.google.android.wearable.app", GOOGLE_KEYS); // Wear OS
+        KNOWN_CALLERS.put("com.google.android.apps.wearables.maestro.companion", GOOGLE_KEYS);
+    }
+
+    private final PackageManager pm;
+    private final Map<String, Boolean> verdicts = new HashMap<>();
+    private String platformDigest;
+
+    public PackageValidator(Context context) {
+        this.pm = context.getPackageManager();
+    }
+
+    /**
+     * Whether the client connecting as packageName from uid may browse.
+     * Results are cached per package and UID for the life of the service.
+     */
+    public synchronized boolean isKnownCaller(String packageName, int uid) {
+        if (uid == Process.myUid() || uid == Process.SYSTEM_UID) return true;
+        if (packageName == null) return false;
+
+        String key = packageName + ":" + uid;
+        Boolean cached = verdicts.get(key);
+        if (cached != null) return cached;
+
+        boolean known = ownsPackage(packageName, uid) && isTrustedSigner(packageName);
+        if (!known) Log.i(TAG, "Unknown media browser client " + packageName);
+        verdicts.put(key, known);
+        return known;
+    }
+
+    private boolean ownsPackage(String packageName, int uid) {
+        String[] owned = pm.getPackagesForUid(uid);
+        return owned != null && Arrays.asList(owned).contains(packageName);
+    }
+
+    private boolean isTrustedSigner(String packageName) {
+        String digest = signingDigest(packageName);
+        if (digest == null) return false;
+
+        if (platformDigest == null) platformDigest = signingDigest("android");
+        if (digest.equals(platformDigest)) return true;
+
+        Set<String> keys = KNOWN_CALLERS.get(packageName);
+        return keys != null && keys.contains(digest);
+    }
+
+    /**
+     * SHA-256 of the package's current signing certificate, or null when it
+     * can't be read or the package has more than one signer.
+     */
+    @SuppressWarnings("deprecation")
+    private String signingDigest(String packageName) {
+        Signature[] signatures;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                PackageInfo info = pm.getPackageInfo(packageName, PackageManager.GET_SIGNING_CERTIFICATES);
+                if (info.signingInfo == null || info.signingInfo.hasMultipleSigners()) return null;
+                // The current signer, not keys it has rotated away from
+                signatures = info.signingInfo.getApkContentsSigners();
+            } else {
+                signatures = pm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES).signatures;
+            }
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        if (signatures == null || signatures.length != 1) return null;
+        return sha256(signatures[0].toByteArray());
+    }
+
+    static String sha256(byte[] certificate) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(certificate);
+            StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (byte b : hash) hex.append(String.format("%02x", b & 0xff));
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.net.Uri;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Decodes the first audio track of a file to interleaved float PCM with
+ * MediaExtractor + MediaCodec, handing blocks to a Sink.
+ *
+ * The sample buffer passed to the sink is reused between calls, so sinks
+ * must consume it before returning.
+ */
+public final class PcmDecoder {
+
+    private static final long TIMEOUT_US = 10_000;
+
+    public interface Sink {
+        void onFormat(int sampleRate, int channels);
+
+        /**
+         * As above, with the AudioFormat.CHANNEL_OUT_* mask of the interleaved
+         * channels, or 0 if the decoder didn't report one.
+         */
+        default void onFormat(int sampleRate, int channels, int channelMask) {
+            onFormat(sampleRate, channels);
+        }
+
+        /** Interleaved samples in [-1, 1]; only the first frames * channels values are valid. */
+        void onSamples(float[] samples, int frames);
+
+        /** Checked between buffers so long decodes can stop promptly. */
+        default boolean isCancelled() {
+            return false;
+        }
+    }
+
+    private PcmDecoder() {}
+
+    /**
+     * Decodes up to maxDurationUs of audio (or the whole file when <= 0).
+     * Returns the decoded duration in microseconds.
+     */
+    public static long decode(Context context, Uri uri, long maxDurationUs, Sink sink) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(context, uri, null);
+
+            int trackIndex = -1;
+            MediaFormat format = null;
+            for (int i = 0; i < extractor.getTrackCount(); i++) {
+                MediaFormat candidate = extractor.getTrackFormat(i);
+                String mime = candidate.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    trackIndex = i;
+                    format = candidate;
+                    break;
+                }
+            }
+            if (trackIndex < 0) throw new IOException("No audio track in " + uri);
+
+            extractor.selectTrack(trackIndex);
+            format.setInteger(MediaFormat.KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_16BIT);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            return drain(extractor, codec, format, maxDurationUs, sink);
+        } finally {
+            if (codec != null) {
+                try { codec.stop(); } catch (Exception ignored) {}
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private static long drain(MediaExtractor extractor, MediaCodec codec, MediaFormat inputFormat,
+                              long maxDurationUs, Sink sink) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        boolean inputDone = false;
+        boolean outputDone = false;
+
+        int sampleRate = inputFormat.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+        int channels = inputFormat.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+        int channelMask = channelMask(inputFormat);
+        int encoding = AudioFormat.ENCODING_PCM_16BIT;
+        boolean formatReported = false;
+        float[] samples = new float[0];
+        long lastPresentationUs = 0;
+
+        while (!outputDone) {
+            if (sink.isCancelled()) break;
+
+            if (!inputDone) {
+                int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                if (inIndex >= 0) {
+                    ByteBuffer input = codec.getInputBuffer(inIndex);
+                    int size = input != null ? extractor.readSampleData(input, 0) : -1;
+                    long time = extractor.getSampleTime();
+                    if (size < 0 || (maxDurationUs > 0 && time > maxDurationUs)) {
+                        codec.queueInputBuffer(inIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inIndex, 0, size, time, 0);
+                        extractor.advance();
+                    }
+                }
+            }
+
+            int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat out = codec.getOutputFormat();
+                sampleRate = out.getInteger(MediaFormat.KEY_SAMPLE_RATE);
+                channels = out.getInteger(MediaFormat.KEY_CHANNEL_COUNT);
+                channelMask = channelMask(out);
+                if (out.containsKey(MediaFormat.KEY_PCM_ENCODING)) {
+                    encoding = out.getInteger(MediaFormat.KEY_PCM_ENCODING);
+                }
+                sink.onFormat(sampleRate, channels, channelMask);
+                formatReported = true;
+            } else if (outIndex >= 0) {
+                if (!formatReported) {
+                    sink.onFormat(sampleRate, channels, channelMask);
+                    formatReported = true;
+                }
+
+                ByteBuffer output = codec.getOutputBuffer(outIndex);
+                if (output != null && info.size > 0) {
+                    output.position(info.offset);
+                    output.limit(info.offset + info.size);
+                    output.order(ByteOrder.nativeOrder());
+
+                    int count;
+                    if (encoding == AudioFormat.ENCODING_PCM_FLOAT) {
+                        FloatBuffer floats = output.asFloatBuffer();
+                        count = floats.remaining();
+                        if (samples.length < count) samples = new float[count];
+                        floats.get(samples, 0, count);
+                    } else {
+                        ShortBuffer shorts = output.asShortBuffer();
+                        count = shorts.remaining();
+                        if (samples.length < count) samples = new float[count];
+                        for (int i = 0; i < count; i++) {
+                            samples[i] = shorts.get() / 32768f;
+                        }
+                    }
+                    sink.onSamples(samples, count / channels);
+                    lastPresentationUs = info.presentationTimeUs;
+                }
+
+                codec.releaseOutputBuffer(outIndex, false);
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    outputDone = true;
+                }
+            }
+        }
+        return lastPresentationUs;
+    }
+
+    private static int channelMask(MediaFormat format) {
+        return format.containsKey(MediaFormat.KEY_CHANNEL_MASK)
+            ? format.getInteger(MediaFormat.KEY_CHANNEL_MASK) : 0;
+    }
+}
@@ -0,0 +1,305 @@
+package com.coflyn.flow;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reads M3U / M3U8 / PLS playlists written by desktop players and maps
+ * their entries onto library tracks.
+ *
+ * The file is read line by line, never held whole. Entries are resolved
+ * first by path: both sides are reduced to their last few path components
+ * (so "C:\Music\A\B\01.flac", "../A/B/01.flac" and a SAF document under
+ * primary:Music/A/B match each other), and only a unique suffix counts.
+ * Entries whose path finds nothing fall back to title/artist/duration,
+ * taken from #EXTINF / TitleN / LengthN or from an "Artist - Title" file name.
+ */
+public final class PlaylistImporter {
+
+    private static final String TAG = "FlowPlaylistImport";
+    private static final int SUFFIX_DEPTH = 3;
+
+    // Marks a suffix or title shared by several tracks; those never match
+    private static final LibraryIndex.Entry AMBIGUOUS = new LibraryIndex.Entry();
+
+    public static final class Item {
+        public final int position;
+        public final String location;
+        public String title = "";
+        public String artist = "";
+        public long duration = -1; // seconds, -1 if unknown
+
+        Item(int position, String location) {
+            this.position = position;
+            this.location = location;
+        }
+    }
+
+    public static final class Result {
+        public final List<String> ids = new ArrayList<>();
+        public final List<Item> missing = new ArrayList<>();
+        public int total;
+        public int byPath;
+        public int byTags;
+        public long elapsedMs;
+    }
+
+    private final List<LibraryIndex.Entry> tracks;
+    private Map<String, LibraryIndex.Entry> bySuffix;
+    private Map<String, List<LibraryIndex.Entry>> byTags;
+    private Map<String, LibraryIndex.Entry> byTitle;
+
+    public PlaylistImporter(List<LibraryIndex.Entry> tracks) {
+        this.tracks = tracks;
+    }
+
+    /**
+     * Parses and resolves a playlist. Blocking; call from a background thread.
+     */
+    public Result read(InputStream in) throws IOException {
+        long started = SystemClock.elapsedRealtime();
+        Result result = new Result();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(in, StandardCharsets.UTF_8), 16 * 1024)) {
+            String first = nextLine(reader);
+            if (first == null) return result;
+            if (first.equalsIgnoreCase("[playlist]")) {
+                readPls(reader, result);
+            } else {
+                readM3u(reader, first, result);
+            }
+        }
+        result.elapsedMs = SystemClock.elapsedRealtime() - started;
+        Log.d(TAG, "Resolved " + result.ids.size() + "/" + result.total + " entries ("
+            + result.byPath + " by path, " + result.byTags + " by tags) in " + result.elapsedMs + " ms");
+        return result;
+    }
+
+    // === Formats ===
+
+    private void readM3u(BufferedReader reader, String first, Result result) throws IOException {
+        String title = null;
+        long duration = -1;
+        String line = first;
+        do {
+            if (line.startsWith("#")) {
+                if (line.regionMatches(true, 0, "#EXTINF:", 0, 8)) {
+                    int comma = line.indexOf(',', 8);
+                    duration = parseDuration(line.substring(8, comma >= 0 ? comma : line.length()));
+                    title = comma >= 0 ? line.substring(comma + 1).trim() : null;
+                }
+                continue;
+            }
+            Item item = new Item(result.total, line);
+            describe(item, title, duration);
+            resolve(item, result);
+            title = null;
+            duration = -1;
+        } while ((line = nextLine(reader)) != null);
+    }
+
+    /**
+     * PLS keys are numbered and may come in any order; entries are collected
+     * by number and resolved in that order once the section ends.
+     */
+    private void readPls(BufferedReader reader, Result result) throws IOException {
+        TreeMap<Integer, String[]> entries = new TreeMap<>();
+        String line;
+        while ((line = nextLine(reader)) != null) {
+            int eq = line.indexOf('=');
+            if (eq <= 0) continue;
+            String key = line.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+            String value = line.substring(eq + 1).trim();
+
+            int field;
+            if (key.startsWith("file")) field = 0;
+            else if (key.startsWith("title")) field = 1;
+            else if (key.startsWith("length")) field = 2;
+            else continue;
+
+            int number;
+            try {
+                number = Integer.parseInt(key.substring(field == 0 ? 4 : field == 1 ? 5 : 6));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String[] entry = entries.get(number);
+            if (entry == null) {
+                entry = new String[3];
+                entries.put(number, entry);
+            }
+            entry[field] = value;
+        }
+
+        for (String[] entry : entries.values()) {
+            if (entry[0] == null || entry[0].isEmpty()) continue;
+            Item item = new Item(result.total, entry[0]);
+            describe(item, entry[1], entry[2] != null ? parseDuration(entry[2]) : -1);
+            resolve(item, result);
+        }
+    }
+
+    private static String nextLine(BufferedReader reader) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isEmpty() && line.charAt(0) == '\uFEFF') line = line.substring(1);
+            line = line.trim();
+            if (!line.isEmpty()) return line;
+        }
+        return null;
+    }
+
+    private static long parseDuration(String value) {
+        String s = value.trim();
+        int space = s.indexOf(' '); // #EXTINF:123 tvg-id="...",...
+        if (space >= 0) s = s.substring(0, space);
+        try {
+            long seconds = (long) Double.parseDouble(s);
+            return seconds > 0 ? seconds : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Fills title/artist from the "Artist - Title" display text, or the file name without one.
+     */
+    private static void describe(Item item, String display, long duration) {
+        item.duration = duration;
+        String text = display;
+        if (text == null || text.isEmpty()) {
+            String[] parts = components(item.location);
+            if (parts.length == 0) return;
+            text = parts[parts.length - 1];
+            int dot = text.lastIndexOf('.');
+            if (dot > 0) text = text.substring(0, dot);
+        }
+        int dash = text.indexOf(" - ");
+        if (dash > 0) {
+            item.artist = text.substring(0, dash).trim();
+            item.title = text.substring(dash + 3).trim();
+        } else {
+            item.title = text.trim();
+        }
+    }
+
+    // === Resolution ===
+
+    private void resolve(Item item, Result result) {
+        result.total++;
+        LibraryIndex.Entry match = matchPath(item.location);
+        if (match != null) {
+            result.byPath++;
+        } else {
+            match = matchTags(item);
+            if (match != null) result.byTags++;
+        }
+        if (match != null) {
+            result.ids.add(match.id);
+        } else {
+            result.missing.add(item);
+        }
+    }
+
+    private LibraryIndex.Entry matchPath(String location) {
+        String[] parts = components(location);
+        if (parts.length == 0) return null;
+        if (bySuffix == null) buildPathIndex();
+
+        for (int depth = Math.min(SUFFIX_DEPTH, parts.length); depth >= 1; depth--) {
+            LibraryIndex.Entry entry = bySuffix.get(suffix(parts, depth));
+            if (entry == AMBIGUOUS) return null; // Shorter suffixes are at least as ambiguous
+            if (entry != null) return entry;
+        }
+        return null;
+    }
+
+    private LibraryIndex.Entry matchTags(Item item) {
+        if (item.title.isEmpty()) return null;
+        if (byTags == null) {
+            byTags = DuplicateDetector.groupByTags(tracks);
+            byTitle = new HashMap<>();
+            for (LibraryIndex.Entry entry : tracks) {
+                putUnique(byTitle, DuplicateDetector.normalise(entry.title), entry);
+            }
+        }
+
+        if (item.artist.isEmpty()) {
+            LibraryIndex.Entry entry = byTitle.get(DuplicateDetector.normalise(item.title));
+            return entry != AMBIGUOUS ? entry : null;
+        }
+        if (item.duration > 0) {
+            return DuplicateDetector.findCandidate(byTags, item.title, item.artist, item.duration);
+        }
+        List<LibraryIndex.Entry> group = byTags.get(DuplicateDetector.tagKey(item.title, item.artist));
+        return group != null && group.size() == 1 ? group.get(0) : null;
+    }
+
+    private void buildPathIndex() {
+        bySuffix = new HashMap<>(tracks.size() * SUFFIX_DEPTH * 2);
+        for (LibraryIndex.Entry entry : tracks) {
+            String[] parts = components(entry.path);
+            if (parts.length == 0) parts = components(entry.uri);
+            for (int depth = 1; depth <= Math.min(SUFFIX_DEPTH, parts.length); depth++) {
+                putUnique(bySuffix, suffix(parts, depth), entry);
+            }
+        }
+    }
+
+    private static void putUnique(Map<String, LibraryIndex.Entry> map, String key, LibraryIndex.Entry entry) {
+        if (key.isEmpty()) return;
+        LibraryIndex.Entry existing = map.put(key, entry);
+        if (existing != null && existing != entry) map.put(key, AMBIGUOUS);
+    }
+
+    private static String suffix(String[] parts, int depth) {
+        StringBuilder key = new StringBuilder();
+        for (int i = parts.length - depth; i < parts.length; i++) {
+            if (key.length() > 0) key.append('/');
+            key.append(parts[i]);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Path components of a playlist entry or a library location, normalised for
+     * comparison: file:// and SAF document URIs decoded, separators unified,
+     * "." and ".." dropped, Unicode composed and case folded.
+     */
+    static String[] components(String location) {
+        if (location == null || location.isEmpty()) return new String[0];
+        String path = location;
+        if (path.startsWith("content://")) {
+            // .../document/primary%3AMusic%2FA%2F01.flac -> Music/A/01.flac
+            String document = Uri.parse(path).getLastPathSegment();
+            if (document == null) return new String[0];
+            int colon = document.indexOf(':');
+            path = colon >= 0 ? document.substring(colon + 1) : document;
+        } else if (path.regionMatches(true, 0, "file:", 0, 5)) {
+            path = Uri.decode(path.substring(5));
+        } else if (path.contains("://")) {
+            return new String[0]; // Streams can't be in the local library
+        }
+
+        path = Normalizer.normalize(path.replace('\\', '/'), Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        List<String> parts = new ArrayList<>();
+        for (String part : path.split("/")) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.endsWith(":")) continue;
+            parts.add(part);
+        }
+        return parts.toArray(new String[0]);
+    }
+}
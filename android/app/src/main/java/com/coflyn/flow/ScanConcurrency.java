@@ -0,0 +1,147 @@
+package com.coflyn.flow;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * Decides how many files the folder scanner extracts in parallel.
+ *
+ * Works like TCP congestion control: after each window of files it adds a
+ * worker while throughput keeps improving and per-file latency holds, and
+ * halves the count when latency climbs (storage or CPU saturated). On top
+ * of that, thermal status and whether the app is in the foreground cap the
+ * count, so a scan never heats the phone or starves the UI of cores.
+ */
+public final class ScanConcurrency {
+
+    private static final int WINDOW_PER_WORKER = 4;
+    private static final long RECHECK_MS = 2000;
+    private static final double GAIN = 1.05;
+    private static final double LATENCY_BACKOFF = 1.5;
+
+    private final Context context;
+    private final int ceiling;
+
+    private int workers = 2;
+    private int peak;
+
+    // Current window
+    private int windowFiles = 0;
+    private long windowLatency = 0;
+    private long windowStart;
+
+    // Best observed so far at the current worker count
+    private double lastThroughput = 0;
+    private double baseLatency = 0;
+
+    private int cap;
+    private long capCheckedAt = 0;
+
+    private long files = 0;
+    private long started;
+
+    public ScanConcurrency(Context context) {
+        this.context = context.getApplicationContext();
+        ceiling = Math.max(1, Math.min(6, Runtime.getRuntime().availableProcessors() - 1));
+        cap = ceiling;
+        started = windowStart = SystemClock.elapsedRealtime();
+        workers = Math.min(workers, ceiling);
+        peak = workers;
+    }
+
+    /**
+     * Worker count to use right now.
+     */
+    public synchronized int workers() {
+        long now = SystemClock.elapsedRealtime();
+        if (now - capCheckedAt >= RECHECK_MS) {
+            cap = computeCap();
+            capCheckedAt = now;
+        }
+        int current = Math.max(1, Math.min(workers, cap));
+        peak = Math.max(peak, current);
+        return current;
+    }
+
+    /**
+     * Reports one file's extraction time.
+     */
+    public synchronized void record(long latencyMs) {
+        files++;
+        windowFiles++;
+        windowLatency += latencyMs;
+
+        int active = Math.max(1, Math.min(workers, cap));
+        if (windowFiles < active * WINDOW_PER_WORKER) return;
+
+        long now = SystemClock.elapsedRealtime();
+        double throughput = windowFiles * 1000.0 / Math.max(1, now - windowStart);
+        double latency = (double) windowLatency / windowFiles;
+
+        if (baseLatency > 0 && latency > baseLatency * LATENCY_BACKOFF) {
+            workers = Math.max(1, active / 2);
+            baseLatency = latency;
+        } else if (throughput > lastThroughput * GAIN && active < cap) {
+            workers = active + 1;
+            if (baseLatency == 0 || latency < baseLatency) baseLatency = latency;
+        } else {
+            workers = active;
+        }
+        lastThroughput = throughput;
+
+        windowFiles = 0;
+        windowLatency = 0;
+        windowStart = now;
+    }
+
+    public int ceiling() {
+        return ceiling;
+    }
+
+    public synchronized int peak() {
+        return peak;
+    }
+
+    public synchronized int current() {
+        return Math.max(1, Math.min(workers, cap));
+    }
+
+    /**
+     * Files per second since the controller was created.
+     */
+    public synchronized double throughput() {
+        long elapsed = SystemClock.elapsedRealtime() - started;
+        return elapsed > 0 ? files * 1000.0 / elapsed : 0;
+    }
+
+    private int computeCap() {
+        int limit = ceiling;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            PowerManager power = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+            if (power != null) {
+                int status = power.getCurrentThermalStatus();
+                if (status >= PowerManager.THERMAL_STATUS_SEVERE) {
+                    limit = 1;
+                } else if (status >= PowerManager.THERMAL_STATUS_MODERATE) {
+                    limit = Math.min(limit, 2);
+                } else if (status >= PowerManager.THERMAL_STATUS_LIGHT) {
+                    limit = Math.max(1, limit / 2);
+                }
+            }
+        }
+        if (isForeground()) {
+            // Leave cores for the WebView while the user is looking at it
+            limit = Math.max(1, Math.min(limit, ceiling / 2));
+        }
+        return limit;
+    }
+
+    private static boolean isForeground() {
+        ActivityManager.RunningAppProcessInfo info = new ActivityManager.RunningAppProcessInfo();
+        ActivityManager.getMyMemoryState(info);
+        return info.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_FOREGROUND;
+    }
+}
@@ -0,0 +1,167 @@
+package com.coflyn.flow;
+
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+
+/**
+ * Single place that decides when heavy library work runs.
+ *
+ * Folder walks the user asked for start right away; refreshes, loudness
+ * analysis and duplicate confirmation wait for the device to be idle,
+ * charging and not low on battery.
+ * Either way the work runs as a persisted job, so it survives the process
+ * and resumes from its checkpoints. Folders wait in a small persisted queue
+ * served by FolderScanJobService, which reports progress via BROADCAST_ACTION.
+ */
+public final class ScanScheduler {
+
+    public static final String BROADCAST_ACTION = "com.coflyn.flow.SCAN_PROGRESS";
+    public static final String EXTRA_FOLDER = "folderUri";
+    public static final String EXTRA_STATE = "state";
+    public static final String EXTRA_NAME = "name";
+    public static final String EXTRA_DIRECTORIES = "directories";
+    public static final String EXTRA_TRACKS = "tracks";
+    public static final String EXTRA_ERROR = "error";
+
+    public static final String STATE_PROGRESS = "progress";
+    public static final String STATE_COMPLETE = "complete";
+    public static final String STATE_ERROR = "error";
+
+    static final int LOUDNESS_JOB_ID = 2801;
+    static final int FOLDER_JOB_ID = 2802;
+    static final int DEDUP_JOB_ID = 2803;
+
+    private static final String PREFS = "flow_scan_queue";
+    private static final String KEY_FOLDERS = "folders";
+
+    // Finished scans waiting for the plugin to pick them up (same process as the job)
+    private static final Map<String, FolderScanner.Result> results = new HashMap<>();
+
+    private ScanScheduler() {}
+
+    public static void scheduleLoudness(Context context) {
+        JobScheduler scheduler = scheduler(context);
+        if (scheduler == null || scheduler.getPendingJob(LOUDNESS_JOB_ID) != null) return;
+        JobInfo.Builder builder = new JobInfo.Builder(LOUDNESS_JOB_ID,
+            new ComponentName(context, LoudnessJobService.class));
+        scheduler.schedule(maintenance(builder).build());
+    }
+
+    /**
+     * Queues a duplicate confirmation pass for when the device is idle and charging.
+     */
+    public static void scheduleDedup(Context context) {
+        JobScheduler scheduler = scheduler(context);
+        if (scheduler == null || scheduler.getPendingJob(DEDUP_JOB_ID) != null) return;
+        JobInfo.Builder builder = new JobInfo.Builder(DEDUP_JOB_ID,
+            new ComponentName(context, DedupJobService.class));
+        scheduler.schedule(maintenance(builder).build());
+    }
+
+    /**
+     * Queues a folder walk. Interactive scans start now; others wait for maintenance conditions.
+     */
+    public static void scheduleFolder(Context context, String folderUri, boolean interactive) {
+        synchronized (ScanScheduler.class) {
+            List<String> queue = queue(context);
+            if (!queue.contains(folderUri)) {
+                queue.add(folderUri);
+                saveQueue(context, queue);
+            }
+        }
+
+        JobScheduler scheduler = scheduler(context);
+        if (scheduler == null || FolderScanJobService.isRunning()) return; // The running job drains the queue
+        JobInfo pending = scheduler.getPendingJob(FOLDER_JOB_ID);
+        if (!interactive && pending != null) return;
+
+        JobInfo.Builder builder = new JobInfo.Builder(FOLDER_JOB_ID,
+            new ComponentName(context, FolderScanJobService.class));
+        if (interactive) {
+            builder.setOverrideDeadline(0).setPersisted(true);
+        } else {
+            maintenance(builder);
+        }
+        scheduler.schedule(builder.build());
+    }
+
+    private static JobInfo.Builder maintenance(JobInfo.Builder builder) {
+        builder.setRequiresCharging(true)
+            .setRequiresDeviceIdle(true)
+            .setPersisted(true);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            builder.setRequiresBatteryNotLow(true);
+        }
+        return builder;
+    }
+
+    private static JobScheduler scheduler(Context context) {
+        return (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+    }
+
+    // === Folder queue ===
+
+    static synchronized String nextFolder(Context context) {
+        List<String> queue = queue(context);
+        return queue.isEmpty() ? null : queue.get(0);
+    }
+
+    static synchronized void finishFolder(Context context, String folderUri) {
+        List<String> queue = queue(context);
+        if (queue.remove(folderUri)) saveQueue(context, queue);
+    }
+
+    private static List<String> queue(Context context) {
+        String json = prefs(context).getString(KEY_FOLDERS, "[]");
+        List<String> folders = new ArrayList<>();
+        try {
+            JSONArray array = new JSONArray(json);
+            for (int i = 0; i < array.length(); i++) folders.add(array.getString(i));
+        } catch (JSONException ignored) {
+            // Corrupt queue; folders are re-queued by the next scan request
+        }
+        return folders;
+    }
+
+    private static void saveQueue(Context context, List<String> folders) {
+        prefs(context).edit().putString(KEY_FOLDERS, new JSONArray(folders).toString()).apply();
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+    }
+
+    // === Reporting ===
+
+    static synchronized void putResult(String folderUri, FolderScanner.Result result) {
+        results.put(folderUri, result);
+    }
+
+    public static synchronized FolderScanner.Result takeResult(String folderUri) {
+        return results.remove(folderUri);
+    }
+
+    static void broadcast(Context context, String folderUri, String state, String name,
+                          int directories, int tracks, String error) {
+        Intent intent = new Intent(BROADCAST_ACTION);
+        intent.setPackage(context.getPackageName());
+        intent.putExtra(EXTRA_FOLDER, folderUri);
+        intent.putExtra(EXTRA_STATE, state);
+        intent.putExtra(EXTRA_NAME, name);
+        intent.putExtra(EXTRA_DIRECTORIES, directories);
+        intent.putExtra(EXTRA_TRACKS, tracks);
+        if (error != null) intent.putExtra(EXTRA_ERROR, error);
+        context.sendBroadcast(intent);
+    }
+}
@@ -0,0 +1,203 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Compact record of the last playback session: current track, position,
+ * queue IDs and art key. Written in the background as playback changes
+ * and read synchronously at process start, so the notification and
+ * lockscreen can be restored before the WebView has booted.
+ *
+ * Also remembers a play request (e.g. a media button) that arrived before
+ * JS attached, so it can be honoured once the session is restored there.
+ */
+public final class SessionSnapshot {
+
+    private static final String TAG = "FlowSession";
+    private static final String FILE_NAME = "session.bin";
+    private static final int MAGIC = 0x46534553; // "FSES"
+    private static final int VERSION = 1;
+    private static final long POSITION_SAVE_INTERVAL = 5000; // ms of playback between position saves
+
+    private static SessionSnapshot instance;
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "FlowSession");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private boolean writePending = false;
+
+    public String trackId = "";
+    public String title = "";
+    public String artist = "";
+    public String album = "";
+    public String coverUri = "";
+    public String trackUri = "";
+    public long position = 0; // ms
+    public long duration = 0; // ms
+    public List<String> queue = new ArrayList<>();
+    public int queueIndex = -1;
+
+    private long savedPosition = 0;
+    private boolean loaded = false;
+    private boolean clientAttached = false;
+    private boolean playRequested = false;
+
+    private SessionSnapshot(Context context) {
+        file = new File(context.getFilesDir(), FILE_NAME);
+    }
+
+    public static synchronized SessionSnapshot get(Context context) {
+        if (instance == null) {
+            instance = new SessionSnapshot(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public static boolean exists(Context context) {
+        return new File(context.getFilesDir(), FILE_NAME).exists();
+    }
+
+    /**
+     * Reads the snapshot from disk once. Returns false if there is nothing to restore.
+     */
+    public synchronized boolean load() {
+        if (loaded) return !trackId.isEmpty();
+        loaded = true;
+        if (!file.exists()) return false;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return false;
+            trackId = in.readUTF();
+            title = in.readUTF();
+            artist = in.readUTF();
+            album = in.readUTF();
+            coverUri = in.readUTF();
+            trackUri = in.readUTF();
+            position = in.readLong();
+            duration = in.readLong();
+            queueIndex = in.readInt();
+            int count = in.readInt();
+            List<String> ids = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) ids.add(in.readUTF());
+            queue = ids;
+            savedPosition = position;
+        } catch (IOException e) {
+            Log.w(TAG, "Session snapshot unreadable: " + e.getMessage());
+            trackId = "";
+            return false;
+        }
+        return !trackId.isEmpty();
+    }
+
+    // === Updates from playback ===
+
+    public synchronized void setTrack(String trackId, String title, String artist, String album,
+                                      String coverUri, String trackUri, long duration) {
+        loaded = true;
+        if (!nonNull(trackId).equals(this.trackId)) this.position = 0;
+        this.trackId = nonNull(trackId);
+        this.title = nonNull(title);
+        this.artist = nonNull(artist);
+        this.album = nonNull(album);
+        // Inline (data:) art would blow the record's string limit; the notification can't use it anyway
+        this.coverUri = coverUri != null && coverUri.length() < 4096 ? coverUri : "";
+        this.trackUri = nonNull(trackUri);
+        this.duration = duration;
+        scheduleWrite();
+    }
+
+    /**
+     * Positions arrive every second; only every few seconds of progress,
+     * or a pause, is worth a write.
+     */
+    public synchronized void setPosition(long position, boolean paused) {
+        this.position = position;
+        if (paused || Math.abs(position - savedPosition) >= POSITION_SAVE_INTERVAL) scheduleWrite();
+    }
+
+    public synchronized void setQueue(List<String> ids, int index) {
+        loaded = true;
+        queue = new ArrayList<>(ids);
+        queueIndex = index;
+        scheduleWrite();
+    }
+
+    // === Hand-off to JS ===
+
+    /**
+     * A play request arrived; remember it if JS isn't there to act on it.
+     */
+    public synchronized void requestPlay() {
+        if (!clientAttached) playRequested = true;
+    }
+
+    public synchronized void detachClient() {
+        clientAttached = false;
+    }
+
+    /**
+     * Marks JS as attached and returns whether a play was requested before it was.
+     */
+    public synchronized boolean attachClient() {
+        clientAttached = true;
+        boolean requested = playRequested;
+        playRequested = false;
+        return requested;
+    }
+
+    // === Persistence ===
+
+    private void scheduleWrite() {
+        if (writePending) return;
+        writePending = true;
+        writer.execute(this::write);
+    }
+
+    private void write() {
+        File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        synchronized (this) {
+            writePending = false;
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(trackId);
+                out.writeUTF(title);
+                out.writeUTF(artist);
+                out.writeUTF(album);
+                out.writeUTF(coverUri);
+                out.writeUTF(trackUri);
+                out.writeLong(position);
+                out.writeLong(duration);
+                out.writeInt(queueIndex);
+                out.writeInt(queue.size());
+                for (String id : queue) out.writeUTF(id);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write session snapshot: " + e.getMessage());
+                tmp.delete();
+                return;
+            }
+            savedPosition = position;
+        }
+        if (!tmp.renameTo(file)) tmp.delete();
+    }
+
+    private static String nonNull(String value) {
+        return value != null ? value : "";
+    }
+}
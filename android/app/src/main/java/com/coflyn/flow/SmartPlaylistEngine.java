@@ -0,0 +1,305 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.util.LruCache;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import org.json.JSONObject;
+
+/**
+ * Evaluates smart playlist rules against the library index and play
+ * history, returning only the top-K track IDs.
+ *
+ * Results are cached per rule and reused until the index or user data
+ * changes (or the hour rolls over, for rules with time windows), so
+ * repeated page renders don't touch the library at all. The artist
+ * co-play graph is folded in from new plays only.
+ *
+ * Rules are JSON objects with a "type":
+ *   mostPlayed     { minPlays = 1, windowDays = 0 (all time) }
+ *   recentlyAdded  { }
+ *   forgotten      { notPlayedDays = 0 }
+ *   genre          { genre, notPlayedDays = 14 }
+ *   similarArtists { artistId = artists of recent plays }
+ */
+public final class SmartPlaylistEngine implements CacheManager.Trimmable {
+
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+    private static final long HOUR_MS = 60L * 60 * 1000;
+    private static final long CO_PLAY_GAP_MS = 30L * 60 * 1000;
+    private static final int SEED_RECENTS = 5;
+    private static final int ID_BYTES = 48;
+    private static final int EDGE_BYTES = 64;
+
+    private static SmartPlaylistEngine instance;
+
+    private final LibraryIndex index;
+    private final UserDataStore userData;
+    private final LruCache<String, Cached> results = new LruCache<>(32);
+
+    // Artist co-play weights from consecutive plays within CO_PLAY_GAP_MS
+    private final Map<String, Map<String, Integer>> coPlays = new HashMap<>();
+    private long foldedSeq = 0;
+    private String lastArtist;
+    private long lastTime;
+
+    private static final class Cached {
+        final int indexVersion;
+        final int userVersion;
+        final long hour;
+        final List<String> ids;
+
+        Cached(int indexVersion, int userVersion, long hour, List<String> ids) {
+            this.indexVersion = indexVersion;
+            this.userVersion = userVersion;
+            this.hour = hour;
+            this.ids = ids;
+        }
+    }
+
+    private SmartPlaylistEngine(Context context) {
+        index = LibraryIndex.get(context);
+        userData = UserDataStore.get(context);
+        CacheManager.get(context).register(this);
+    }
+
+    public static synchronized SmartPlaylistEngine get(Context context) {
+        if (instance == null) {
+            instance = new SmartPlaylistEngine(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    public synchronized List<String> evaluate(JSONObject rule, int limit) {
+        long now = System.currentTimeMillis();
+        int indexVersion = index.version();
+        int userVersion = userData.version();
+        String key = rule.toString() + "#" + limit;
+
+        Cached cached = results.get(key);
+        if (cached != null && cached.indexVersion == indexVersion && cached.userVersion == userVersion
+                && cached.hour == now / HOUR_MS) {
+            return cached.ids;
+        }
+
+        List<String> ids = compute(rule, Math.max(0, limit), now);
+        results.put(key, new Cached(indexVersion, userVersion, now / HOUR_MS, ids));
+        return ids;
+    }
+
+    private List<String> compute(JSONObject rule, int limit, long now) {
+        switch (rule.optString("type")) {
+            case "mostPlayed":
+                return mostPlayed(rule.optInt("minPlays", 1), rule.optInt("windowDays", 0), limit, now);
+            case "recentlyAdded":
+                return recentlyAdded(limit);
+            case "forgotten":
+                return forgotten(rule.optInt("notPlayedDays", 0), limit, now);
+            case "genre":
+                return genre(rule.optString("genre", ""), rule.optInt("notPlayedDays", 14), limit, now);
+            case "similarArtists":
+                return similarArtists(rule.optString("artistId", ""), limit);
+            default:
+                throw new IllegalArgumentException("Unknown rule type: " + rule.optString("type"));
+        }
+    }
+
+    private List<String> mostPlayed(int minPlays, int windowDays, int limit, long now) {
+        Map<String, Integer> counts = new HashMap<>();
+        if (windowDays > 0) {
+            long since = now - windowDays * DAY_MS;
+            for (UserDataStore.Play play : userData.playsAfter(0)) {
+                if (play.time < since) continue;
+                Integer n = counts.get(play.id);
+                counts.put(play.id, n == null ? 1 : n + 1);
+            }
+        } else {
+            for (LibraryIndex.Entry entry : index.snapshot()) {
+                int n = userData.playCount(entry.id);
+                if (n > 0) counts.put(entry.id, n);
+            }
+        }
+
+        List<String> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> count : counts.entrySet()) {
+            if (count.getValue() >= minPlays && index.getTrack(count.getKey()) != null) {
+                candidates.add(count.getKey());
+            }
+        }
+        Comparator<String> order = (a, b) -> {
+            int byCount = Integer.compare(counts.get(b), counts.get(a));
+            return byCount != 0 ? byCount : Long.compare(userData.lastPlayed(b), userData.lastPlayed(a));
+        };
+        return topK(candidates, order, limit);
+    }
+
+    private List<String> recentlyAdded(int limit) {
+        List<LibraryIndex.Entry> tracks = index.snapshot();
+        List<String> candidates = new ArrayList<>(tracks.size());
+        Map<String, Long> added = new HashMap<>();
+        for (LibraryIndex.Entry entry : tracks) {
+            candidates.add(entry.id);
+            added.put(entry.id, entry.dateAdded);
+        }
+        return topK(candidates, (a, b) -> Long.compare(added.get(b), added.get(a)), limit);
+    }
+
+    private List<String> forgotten(int notPlayedDays, int limit, long now) {
+        long cutoff = notPlayedDays > 0 ? now - notPlayedDays * DAY_MS : Long.MAX_VALUE;
+        List<String> candidates = new ArrayList<>();
+        for (LibraryIndex.Entry entry : index.snapshot()) {
+            if (userData.lastPlayed(entry.id) < cutoff) candidates.add(entry.id);
+        }
+        Comparator<String> order = (a, b) -> {
+            int byCount = Integer.compare(userData.playCount(a), userData.playCount(b));
+            return byCount != 0 ? byCount : Long.compare(userData.lastPlayed(a), userData.lastPlayed(b));
+        };
+        return topK(candidates, order, limit);
+    }
+
+    private List<String> genre(String genre, int notPlayedDays, int limit, long now) {
+        String wanted = genre.trim().toLowerCase(Locale.ROOT);
+        if (wanted.isEmpty()) return new ArrayList<>();
+        long cutoff = notPlayedDays > 0 ? now - notPlayedDays * DAY_MS : Long.MAX_VALUE;
+
+        List<String> candidates = new ArrayList<>();
+        for (LibraryIndex.Entry entry : index.snapshot()) {
+            if (hasGenre(entry.genre, wanted) && userData.lastPlayed(entry.id) < cutoff) {
+                candidates.add(entry.id);
+            }
+        }
+        // Favour tracks the user has liked before, but not lately
+        return topK(candidates, (a, b) -> Integer.compare(userData.playCount(b), userData.playCount(a)), limit);
+    }
+
+    /**
+     * Multi-valued genre tags are split on the usual separators.
+     */
+    private static boolean hasGenre(String tag, String wanted) {
+        if (tag == null || tag.isEmpty()) return false;
+        for (String part : tag.split("[;,/]")) {
+            if (part.trim().toLowerCase(Locale.ROOT).equals(wanted)) return true;
+        }
+        return false;
+    }
+
+    private List<String> similarArtists(String artistId, int limit) {
+        foldCoPlays();
+
+        Set<String> seeds = new HashSet<>();
+        if (!artistId.isEmpty()) {
+            seeds.add(artistId);
+        } else {
+            for (String id : userData.recents()) {
+                LibraryIndex.Entry entry = index.getTrack(id);
+                if (entry != null && entry.artistId != null && !entry.artistId.isEmpty()) seeds.add(entry.artistId);
+                if (seeds.size() >= SEED_RECENTS) break;
+            }
+        }
+
+        Map<String, Integer> weights = new HashMap<>();
+        for (String seed : seeds) {
+            Map<String, Integer> neighbours = coPlays.get(seed);
+            if (neighbours == null) continue;
+            for (Map.Entry<String, Integer> neighbour : neighbours.entrySet()) {
+                if (seeds.contains(neighbour.getKey())) continue;
+                Integer w = weights.get(neighbour.getKey());
+                weights.put(neighbour.getKey(), (w == null ? 0 : w) + neighbour.getValue());
+            }
+        }
+        if (weights.isEmpty()) return new ArrayList<>();
+
+        List<String> candidates = new ArrayList<>();
+        for (String artist : weights.keySet()) {
+            for (LibraryIndex.Entry entry : index.artistTrackPage(artist, 0, Integer.MAX_VALUE)) {
+                candidates.add(entry.id);
+            }
+        }
+        Map<String, Integer> trackWeights = new HashMap<>();
+        for (String id : candidates) trackWeights.put(id, weights.get(index.getTrack(id).artistId));
+        Comparator<String> order = (a, b) -> {
+            int byArtist = Integer.compare(trackWeights.get(b), trackWeights.get(a));
+            return byArtist != 0 ? byArtist : Integer.compare(userData.playCount(b), userData.playCount(a));
+        };
+        return topK(candidates, order, limit);
+    }
+
+    /**
+     * Folds plays recorded since the last call into the co-play graph.
+     */
+    private void foldCoPlays() {
+        for (UserDataStore.Play play : userData.playsAfter(foldedSeq)) {
+            foldedSeq = play.seq;
+            LibraryIndex.Entry entry = index.getTrack(play.id);
+            String artist = entry != null ? entry.artistId : null;
+            if (artist != null && lastArtist != null && !artist.equals(lastArtist)
+                    && play.time - lastTime <= CO_PLAY_GAP_MS) {
+                link(lastArtist, artist);
+                link(artist, lastArtist);
+            }
+            lastArtist = artist;
+            lastTime = play.time;
+        }
+    }
+
+    private void link(String from, String to) {
+        Map<String, Integer> neighbours = coPlays.get(from);
+        if (neighbours == null) {
+            neighbours = new HashMap<>();
+            coPlays.put(from, neighbours);
+        }
+        Integer w = neighbours.get(to);
+        neighbours.put(to, w == null ? 1 : w + 1);
+    }
+
+    @Override
+    public String cacheName() {
+        return "smartPlaylists";
+    }
+
+    @Override
+    public synchronized long memoryBytes() {
+        long bytes = 0;
+        for (Cached cached : results.snapshot().values()) bytes += (long) cached.ids.size() * ID_BYTES;
+        for (Map<String, Integer> neighbours : coPlays.values()) bytes += (long) (neighbours.size() + 1) * EDGE_BYTES;
+        return bytes;
+    }
+
+    /**
+     * Results are recomputed on demand; the co-play graph is refolded from
+     * the play history, so it only goes under heavier pressure.
+     */
+    @Override
+    public synchronized void trim(int tier) {
+        results.evictAll();
+        if (tier >= CacheManager.TRIM_MODERATE) {
+            coPlays.clear();
+            foldedSeq = 0;
+            lastArtist = null;
+            lastTime = 0;
+        }
+    }
+
+    /**
+     * The first k items by the given order, without sorting the whole list.
+     */
+    static List<String> topK(List<String> items, Comparator<String> order, int k) {
+        if (k <= 0) return new ArrayList<>();
+        PriorityQueue<String> heap = new PriorityQueue<>(k + 1, order.reversed());
+        for (String item : items) {
+            heap.offer(item);
+            if (heap.size() > k) heap.poll();
+        }
+        List<String> top = new ArrayList<>(heap);
+        Collections.sort(top, order);
+        return top;
+    }
+}
@@ -0,0 +1,139 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Warms up the next track before a transition: reads the head of its file,
+ * decodes its notification art and prefetches its waveform, so the
+ * transition doesn't block on any of them.
+ *
+ * The WebView's preloading <audio> element buffers the next file too, but
+ * only once preloadNext runs and at whatever pace the WebView picks. The
+ * bounded read here goes through LocalMediaHandler's own open path, so the
+ * provider lookup is done and the container headers are in the page cache
+ * by the time either reader asks for them.
+ *
+ * Holds at most one prepared track; preparing another releases the old one.
+ */
+public final class TrackPrewarmer implements CacheManager.Trimmable {
+
+    private static final String TAG = "FlowPrewarm";
+    private static final int READ_AHEAD_BYTES = 256 * 1024;
+
+    private static final TrackPrewarmer instance = new TrackPrewarmer();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "FlowPrewarm");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private String preparedId;
+    private String artKey;
+    private Bitmap art;
+
+    private TrackPrewarmer() {}
+
+    public static TrackPrewarmer get() {
+        return instance;
+    }
+
+    public void prepare(Context context, String trackId) {
+        Context app = context.getApplicationContext();
+        executor.execute(() -> prepareBlocking(app, trackId));
+    }
+
+    private void prepareBlocking(Context context, String trackId) {
+        synchronized (this) {
+            if (trackId.equals(preparedId)) return;
+        }
+
+        LibraryIndex.Entry entry = LibraryIndex.get(context).getTrack(trackId);
+        if (entry == null) {
+            Log.d(TAG, "Nothing to prepare for unknown track " + trackId);
+            return;
+        }
+
+        readAhead(context, entry.uri != null && !entry.uri.isEmpty() ? entry.uri : entry.path);
+        Bitmap decoded = MediaPlaybackService.decodeNotificationArt(context, entry.cover, entry.uri);
+        WaveformExtractor.prefetch(context, trackId, 200);
+
+        synchronized (this) {
+            releaseLocked();
+            preparedId = trackId;
+            artKey = coverKey(entry.cover, entry.uri);
+            art = decoded;
+        }
+    }
+
+    /**
+     * Reads and discards up to READ_AHEAD_BYTES from the start of the file.
+     */
+    private static void readAhead(Context context, String target) {
+        if (target == null || target.isEmpty()) return;
+        try {
+            ParcelFileDescriptor pfd = LocalMediaHandler.open(context, target);
+            if (pfd == null) return;
+            try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(pfd)) {
+                byte[] buffer = new byte[64 * 1024];
+                int total = 0;
+                int n;
+                while (total < READ_AHEAD_BYTES
+                        && (n = in.read(buffer, 0, Math.min(buffer.length, READ_AHEAD_BYTES - total))) > 0) {
+                    total += n;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Read-ahead failed for " + target + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Hands over pre-decoded notification art matching the service's cover key, or null.
+     */
+    public synchronized Bitmap takeArt(String coverUri, String trackUri) {
+        if (art == null || !coverKey(coverUri, trackUri).equals(artKey)) return null;
+        Bitmap taken = art;
+        art = null;
+        return taken;
+    }
+
+    public synchronized void release() {
+        releaseLocked();
+    }
+
+    @Override
+    public String cacheName() {
+        return "prewarm";
+    }
+
+    @Override
+    public synchronized long memoryBytes() {
+        return art != null ? art.getAllocationByteCount() : 0;
+    }
+
+    /**
+     * A dropped pre-warm only costs the next transition its head start.
+     */
+    @Override
+    public void trim(int tier) {
+        release();
+    }
+
+    private void releaseLocked() {
+        preparedId = null;
+        art = null;
+        artKey = null;
+    }
+
+    private static String coverKey(String coverUri, String trackUri) {
+        return (coverUri != null ? coverUri : "") + "|" + (trackUri != null ? trackUri : "");
+    }
+}
@@ -0,0 +1,642 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Play counts, recents, favorites and playlists, kept in memory and
+ * persisted as an append-only log of small JSON records, one per line.
+ *
+ * Each edit appends a single line, so its cost doesn't depend on library
+ * size. When the log grows well past the live state it is compacted:
+ * the state is rewritten as a minimal set of records and swapped in
+ * atomically. A torn last line after a crash is cut off on load, so the
+ * next append starts on a fresh line.
+ */
+public final class UserDataStore {
+
+    private static final String TAG = "FlowUserData";
+    private static final String FILE_NAME = "user_data.log";
+
+    public static final int MAX_RECENTS = 50;
+    public static final long HISTORY_WINDOW_MS = 90L * 24 * 60 * 60 * 1000;
+    private static final int COMPACT_MIN_RECORDS = 512;
+
+    private static UserDataStore instance;
+
+    private final File file;
+    private OutputStream log;
+    private int logRecords = 0;
+    private boolean migrated = false;
+    private long playSeq = 0;
+    private int version = 0;
+
+    private final Map<String, PlayStats> stats = new HashMap<>();
+    private final ArrayDeque<Play> history = new ArrayDeque<>();
+    private final List<String> recents = new ArrayList<>();
+    private final LinkedHashSet<String> favorites = new LinkedHashSet<>();
+    private final LinkedHashMap<String, Playlist> playlists = new LinkedHashMap<>();
+
+    public static final class PlayStats {
+        public int count;
+        public long lastPlayed;
+    }
+
+    public static final class Play {
+        public final String id;
+        public final long time;
+        public final long seq;
+
+        Play(String id, long time, long seq) {
+            this.id = id;
+            this.time = time;
+            this.seq = seq;
+        }
+    }
+
+    public static final class Playlist {
+        public final String id;
+        public String name;
+        public String cover;
+        public long createdAt;
+        public final LinkedHashSet<String> trackIds = new LinkedHashSet<>();
+
+        Playlist(String id) {
+            this.id = id;
+        }
+
+        JSObject toJSObject() {
+            JSObject json = new JSObject();
+            json.put("id", id);
+            json.put("name", name);
+            json.put("cover", cover);
+            json.put("createdAt", createdAt);
+            JSArray tracks = new JSArray();
+            for (String trackId : trackIds) tracks.put(trackId);
+            json.put("trackIds", tracks);
+            return json;
+        }
+    }
+
+    private UserDataStore(Context context) {
+        this(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    UserDataStore(File file) {
+        this.file = file;
+        load();
+    }
+
+    public static synchronized UserDataStore get(Context context) {
+        if (instance == null) {
+            instance = new UserDataStore(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    // === Edits ===
+
+    /**
+     * Counts a play and returns the track's new total.
+     */
+    public synchronized int recordPlay(String trackId, long time) {
+        applyPlay(trackId, time);
+        pruneHistory(time);
+        append(record("play").put("id", trackId).put("t", time));
+        return stats.get(trackId).count;
+    }
+
+    public synchronized void addRecent(String trackId) {
+        applyRecent(trackId);
+        append(record("recent").put("id", trackId));
+    }
+
+    public synchronized void setFavorite(String trackId, boolean favorite) {
+        if (favorite == favorites.contains(trackId)) return;
+        applyFavorite(trackId, favorite);
+        append(record("favorite").put("id", trackId).put("on", favorite));
+    }
+
+    public synchronized boolean toggleFavorite(String trackId) {
+        boolean favorite = !favorites.contains(trackId);
+        setFavorite(trackId, favorite);
+        return favorite;
+    }
+
+    public synchronized Playlist createPlaylist(String id, String name, long createdAt) {
+        return createPlaylist(id, name, createdAt, Collections.<String>emptyList());
+    }
+
+    /**
+     * Creates a playlist already holding the given tracks, as one log record.
+     */
+    public synchronized Playlist createPlaylist(String id, String name, long createdAt, Collection<String> trackIds) {
+        Playlist playlist = new Playlist(id);
+        playlist.name = name;
+        playlist.createdAt = createdAt;
+        playlist.trackIds.addAll(trackIds);
+        playlists.put(id, playlist);
+        append(playlistRecord(playlist));
+        return playlist;
+    }
+
+    public synchronized boolean deletePlaylist(String id) {
+        if (playlists.remove(id) == null) return false;
+        append(record("playlistDelete").put("pl", id));
+        return true;
+    }
+
+    public synchronized boolean renamePlaylist(String id, String name) {
+        Playlist playlist = playlists.get(id);
+        if (playlist == null) return false;
+        playlist.name = name;
+        append(record("playlistRename").put("pl", id).put("name", name));
+        return true;
+    }
+
+    public synchronized boolean setPlaylistCover(String id, String cover) {
+        Playlist playlist = playlists.get(id);
+        if (playlist == null) return false;
+        playlist.cover = cover;
+        append(record("playlistCover").put("pl", id).put("cover", cover));
+        return true;
+    }
+
+    /**
+     * Returns false if the playlist doesn't exist or already has the track.
+     */
+    public synchronized boolean addToPlaylist(String id, String trackId) {
+        Playlist playlist = playlists.get(id);
+        if (playlist == null || !playlist.trackIds.add(trackId)) return false;
+        append(record("playlistAdd").put("pl", id).put("id", trackId));
+        return true;
+    }
+
+    public synchronized boolean removeFromPlaylist(String id, String trackId) {
+        Playlist playlist = playlists.get(id);
+        if (playlist == null || !playlist.trackIds.remove(trackId)) return false;
+        append(record("playlistRemove").put("pl", id).put("id", trackId));
+        return true;
+    }
+
+    /**
+     * Forgets every play, recent, favorite and playlist, leaving a log that
+     * only records the store as migrated so localStorage isn't re-imported.
+     */
+    public synchronized void clear() {
+        stats.clear();
+        history.clear();
+        recents.clear();
+        favorites.clear();
+        playlists.clear();
+        migrated = true;
+        version++;
+        compact();
+    }
+
+    // === Reads ===
+
+    public synchronized List<String> recents() {
+        return new ArrayList<>(recents);
+    }
+
+    public synchronized boolean isFavorite(String trackId) {
+        return favorites.contains(trackId);
+    }
+
+    public synchronized int playCount(String trackId) {
+        PlayStats entry = stats.get(trackId);
+        return entry != null ? entry.count : 0;
+    }
+
+    public synchronized List<Playlist> playlists() {
+        return new ArrayList<>(playlists.values());
+    }
+
+    public synchronized List<String> playlistTracks(String id) {
+        Playlist playlist = playlists.get(id);
+        return playlist != null ? new ArrayList<>(playlist.trackIds) : new ArrayList<>();
+    }
+
+    public synchronized long lastPlayed(String trackId) {
+        PlayStats entry = stats.get(trackId);
+        return entry != null ? entry.lastPlayed : 0;
+    }
+
+    /**
+     * Plays in the history window recorded after the given sequence number,
+     * oldest first. Pass 0 for the whole window.
+     */
+    public synchronized List<Play> playsAfter(long seq) {
+        ArrayList<Play> plays = new ArrayList<>();
+        Iterator<Play> it = history.descendingIterator();
+        while (it.hasNext()) {
+            Play play = it.next();
+            if (play.seq <= seq) break;
+            plays.add(play);
+        }
+        Collections.reverse(plays);
+        return plays;
+    }
+
+    /**
+     * Bumped on every edit, so derived views can tell whether they are stale.
+     */
+    public synchronized int version() {
+        return version;
+    }
+
+    public synchronized boolean isMigrated() {
+        return migrated;
+    }
+
+    /**
+     * Everything the home page needs in one call.
+     */
+    public synchronized JSObject toJSObject() {
+        JSObject result = new JSObject();
+        result.put("migrated", migrated);
+
+        JSArray recent = new JSArray();
+        for (String id : recents) recent.put(id);
+        result.put("recent", recent);
+
+        JSArray favs = new JSArray();
+        for (String id : favorites) favs.put(id);
+        result.put("favorites", favs);
+
+        JSObject counts = new JSObject();
+        for (Map.Entry<String, PlayStats> entry : stats.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().count);
+        }
+        result.put("playCounts", counts);
+
+        JSArray lists = new JSArray();
+        for (Playlist playlist : playlists.values()) lists.put(playlist.toJSObject());
+        result.put("playlists", lists);
+        return result;
+    }
+
+    /**
+     * One-time import of the data library.js kept in localStorage. Ignored
+     * once the store has been migrated, so a retry can't double-count plays.
+     */
+    public synchronized boolean importLegacy(JSObject data) {
+        if (migrated) return false;
+
+        JSONObject counts = data.optJSONObject("playCounts");
+        if (counts != null) {
+            Iterator<String> keys = counts.keys();
+            while (keys.hasNext()) {
+                String id = keys.next();
+                int count = counts.optInt(id, 0);
+                if (count <= 0) continue;
+                PlayStats entry = statsFor(id);
+                entry.count += count;
+                append(record("count").put("id", id).put("n", entry.count).put("last", entry.lastPlayed));
+            }
+        }
+
+        // Oldest first so the most recent ends up at the front
+        JSONArray recent = data.optJSONArray("recent");
+        if (recent != null) {
+            for (int i = recent.length() - 1; i >= 0; i--) {
+                String id = recent.optString(i, null);
+                if (id != null) addRecent(id);
+            }
+        }
+
+        JSONArray favs = data.optJSONArray("favorites");
+        if (favs != null) {
+            for (int i = 0; i < favs.length(); i++) {
+                String id = favs.optString(i, null);
+                if (id != null) setFavorite(id, true);
+            }
+        }
+
+        JSONArray lists = data.optJSONArray("playlists");
+        if (lists != null) {
+            for (int i = 0; i < lists.length(); i++) {
+                JSONObject json = lists.optJSONObject(i);
+                if (json == null || json.optString("id").isEmpty()) continue;
+                Playlist playlist = parsePlaylist(json);
+                playlists.put(playlist.id, playlist);
+                append(playlistRecord(playlist));
+            }
+        }
+
+        migrated = true;
+        append(record("migrated"));
+        return true;
+    }
+
+    // === Log ===
+
+    private void load() {
+        if (file.exists()) {
+            truncateTornTail();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isEmpty()) continue;
+                    logRecords++;
+                    try {
+                        apply(new JSONObject(line));
+                    } catch (JSONException e) {
+                        Log.w(TAG, "Skipping unreadable record: " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read user data: " + e.getMessage());
+            }
+        }
+        pruneHistory(System.currentTimeMillis());
+        if (needsCompaction()) compact();
+        Log.d(TAG, "Loaded " + stats.size() + " play counts, " + favorites.size() + " favorites, "
+            + playlists.size() + " playlists from " + logRecords + " records");
+    }
+
+    /**
+     * Cuts a partial last line left by a crash mid-append. Otherwise the next
+     * record would be appended onto the fragment and lost with it on replay.
+     */
+    private void truncateTornTail() {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long length = raf.length();
+            long end = length;
+            byte[] buffer = new byte[4096];
+            while (end > 0) {
+                int n = (int) Math.min(buffer.length, end);
+                raf.seek(end - n);
+                raf.readFully(buffer, 0, n);
+                int i = n - 1;
+                while (i >= 0 && buffer[i] != '\n') i--;
+                if (i >= 0) {
+                    end = end - n + i + 1;
+                    break;
+                }
+                end -= n;
+            }
+            if (end < length) {
+                Log.w(TAG, "Dropping " + (length - end) + " bytes of a torn record");
+                raf.setLength(end);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to check user data tail: " + e.getMessage());
+        }
+    }
+
+    private void apply(JSONObject json) {
+        String id = json.optString("id", null);
+        String pl = json.optString("pl", null);
+        switch (json.optString("op")) {
+            case "play":
+                applyPlay(id, json.optLong("t"));
+                break;
+            case "count": {
+                PlayStats entry = statsFor(id);
+                entry.count = json.optInt("n");
+                entry.lastPlayed = Math.max(entry.lastPlayed, json.optLong("last"));
+                break;
+            }
+            case "recent":
+                applyRecent(id);
+                break;
+            case "favorite":
+                applyFavorite(id, json.optBoolean("on"));
+                break;
+            case "playlist": {
+                Playlist playlist = parsePlaylist(json);
+                playlists.put(playlist.id, playlist);
+                break;
+            }
+            case "playlistDelete":
+                playlists.remove(pl);
+                break;
+            case "playlistRename":
+                if (playlists.containsKey(pl)) playlists.get(pl).name = json.optString("name");
+                break;
+            case "playlistCover":
+                if (playlists.containsKey(pl)) playlists.get(pl).cover = optNullableString(json, "cover");
+                break;
+            case "playlistAdd":
+                if (playlists.containsKey(pl)) playlists.get(pl).trackIds.add(id);
+                break;
+            case "playlistRemove":
+                if (playlists.containsKey(pl)) playlists.get(pl).trackIds.remove(id);
+                break;
+            case "migrated":
+                migrated = true;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void applyPlay(String trackId, long time) {
+        if (trackId == null) return;
+        PlayStats entry = statsFor(trackId);
+        entry.count++;
+        entry.lastPlayed = Math.max(entry.lastPlayed, time);
+        history.addLast(new Play(trackId, time, ++playSeq));
+    }
+
+    private void applyRecent(String trackId) {
+        if (trackId == null) return;
+        recents.remove(trackId);
+        recents.add(0, trackId);
+        while (recents.size() > MAX_RECENTS) recents.remove(recents.size() - 1);
+    }
+
+    private void applyFavorite(String trackId, boolean favorite) {
+        if (trackId == null) return;
+        if (favorite) {
+            favorites.add(trackId);
+        } else {
+            favorites.remove(trackId);
+        }
+    }
+
+    private PlayStats statsFor(String trackId) {
+        PlayStats entry = stats.get(trackId);
+        if (entry == null) {
+            entry = new PlayStats();
+            stats.put(trackId, entry);
+        }
+        return entry;
+    }
+
+    private void pruneHistory(long now) {
+        long cutoff = now - HISTORY_WINDOW_MS;
+        while (!history.isEmpty() && history.peekFirst().time < cutoff) history.pollFirst();
+    }
+
+    private void append(Record record) {
+        version++;
+        try {
+            if (log == null) log = new FileOutputStream(file, true);
+            log.write((record.json.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            logRecords++;
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to append user data: " + e.getMessage());
+            return;
+        }
+        if (needsCompaction()) compact();
+    }
+
+    private int liveRecords() {
+        return stats.size() + history.size() + recents.size() + favorites.size() + playlists.size() + 1;
+    }
+
+    private boolean needsCompaction() {
+        return logRecords > COMPACT_MIN_RECORDS && logRecords > 2 * liveRecords();
+    }
+
+    /**
+     * Rewrites the log as the current state. Plays inside the history
+     * window are kept individually; older ones are folded into a base count.
+     */
+    private void compact() {
+        pruneHistory(System.currentTimeMillis());
+
+        Map<String, Integer> windowPlays = new HashMap<>();
+        for (Play play : history) {
+            Integer n = windowPlays.get(play.id);
+            windowPlays.put(play.id, n == null ? 1 : n + 1);
+        }
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        int written = 0;
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            StringBuilder buffer = new StringBuilder();
+            if (migrated) buffer.append(record("migrated").json).append('\n');
+
+            for (Map.Entry<String, PlayStats> entry : stats.entrySet()) {
+                Integer inWindow = windowPlays.get(entry.getKey());
+                int base = entry.getValue().count - (inWindow != null ? inWindow : 0);
+                buffer.append(record("count").put("id", entry.getKey()).put("n", base)
+                    .put("last", entry.getValue().lastPlayed).json).append('\n');
+                written++;
+            }
+            for (Play play : history) {
+                buffer.append(record("play").put("id", play.id).put("t", play.time).json).append('\n');
+                written++;
+            }
+            for (int i = recents.size() - 1; i >= 0; i--) {
+                buffer.append(record("recent").put("id", recents.get(i)).json).append('\n');
+                written++;
+            }
+            for (String id : favorites) {
+                buffer.append(record("favorite").put("id", id).put("on", true).json).append('\n');
+                written++;
+            }
+            for (Playlist playlist : playlists.values()) {
+                buffer.append(playlistRecord(playlist).json).append('\n');
+                written++;
+            }
+            out.write(buffer.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.w(TAG, "Compaction failed: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+
+        closeLog();
+        if (tmp.renameTo(file)) {
+            Log.d(TAG, "Compacted " + logRecords + " records to " + written);
+            logRecords = written;
+        } else {
+            tmp.delete();
+        }
+    }
+
+    private void closeLog() {
+        if (log == null) return;
+        try {
+            log.close();
+        } catch (IOException ignored) {}
+        log = null;
+    }
+
+    // === Records ===
+
+    /**
+     * JSONObject.put declares JSONException for non-finite numbers only;
+     * records never contain those, so this wrapper keeps call sites flat.
+     */
+    private static final class Record {
+        final JSONObject json = new JSONObject();
+
+        Record put(String key, Object value) {
+            try {
+                json.put(key, value == null ? JSONObject.NULL : value);
+            } catch (JSONException ignored) {}
+            return this;
+        }
+    }
+
+    private static Record record(String op) {
+        return new Record().put("op", op);
+    }
+
+    private static Record playlistRecord(Playlist playlist) {
+        JSONArray tracks = new JSONArray();
+        for (String trackId : playlist.trackIds) tracks.put(trackId);
+        return record("playlist")
+            .put("pl", playlist.id)
+            .put("name", playlist.name)
+            .put("cover", playlist.cover)
+            .put("t", playlist.createdAt)
+            .put("tracks", tracks);
+    }
+
+    /**
+     * Reads either a log record ("pl", "t", "tracks") or a library.js playlist
+     * ("id", "createdAt", "trackIds").
+     */
+    private static Playlist parsePlaylist(JSONObject json) {
+        String id = json.has("pl") ? json.optString("pl") : json.optString("id");
+        Playlist playlist = new Playlist(id);
+        playlist.name = json.optString("name", "");
+        playlist.cover = optNullableString(json, "cover");
+        playlist.createdAt = json.has("t") ? json.optLong("t") : json.optLong("createdAt");
+        JSONArray tracks = json.has("tracks") ? json.optJSONArray("tracks") : json.optJSONArray("trackIds");
+        if (tracks != null) {
+            for (int i = 0; i < tracks.length(); i++) {
+                String trackId = tracks.optString(i, null);
+                if (trackId != null) playlist.trackIds.add(trackId);
+            }
+        }
+        return playlist;
+    }
+
+    private static String optNullableString(JSONObject json, String key) {
+        return json.isNull(key) ? null : json.optString(key);
+    }
+}
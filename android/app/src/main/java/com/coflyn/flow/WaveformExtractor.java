@@ -0,0 +1,203 @@
+package com.coflyn.flow;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Min/max peak data for seek bars.
+ *
+ * A track is decoded once into 10 ms min/max slices, which are then folded
+ * into the requested number of buckets and stored as signed bytes in
+ * cache/waveforms, next to the album art cache. Decoding runs on a single
+ * low-priority thread so prefetches never compete with each other.
+ */
+public final class WaveformExtractor {
+
+    private static final String TAG = "FlowWaveform";
+    private static final String DIR_NAME = "waveforms";
+    private static final int MAGIC = 0x57415646; // "WAVF"
+    private static final int SLICES_PER_SECOND = 100;
+
+    public static final int MAX_BUCKETS = 4096;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+        }, "FlowWaveform");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final Set<String> inFlight = Collections.synchronizedSet(new HashSet<>());
+
+    public interface Callback {
+        void onWaveform(byte[] min, byte[] max);
+
+        void onError(String message);
+    }
+
+    private WaveformExtractor() {}
+
+    /**
+     * Loads the cached waveform or decodes it on the background thread.
+     * The callback runs on that thread.
+     */
+    public static void get(Context context, String trackId, int buckets, Callback callback) {
+        executor.execute(() -> {
+            try {
+                byte[][] peaks = loadOrExtract(context.getApplicationContext(), trackId, buckets);
+                callback.onWaveform(peaks[0], peaks[1]);
+            } catch (Exception e) {
+                callback.onError(e.getMessage() != null ? e.getMessage() : e.toString());
+            }
+        });
+    }
+
+    /**
+     * Generates the waveform ahead of time if it isn't cached yet.
+     */
+    public static void prefetch(Context context, String trackId, int buckets) {
+        Context app = context.getApplicationContext();
+        String key = trackId + "_" + buckets;
+        if (cacheFile(app, trackId, buckets).exists() || !inFlight.add(key)) return;
+        executor.execute(() -> {
+            try {
+                loadOrExtract(app, trackId, buckets);
+            } catch (Exception e) {
+                Log.d(TAG, "Waveform prefetch failed for " + trackId + ": " + e.getMessage());
+            } finally {
+                inFlight.remove(key);
+            }
+        });
+    }
+
+    private static byte[][] loadOrExtract(Context context, String trackId, int buckets) throws IOException {
+        File file = cacheFile(context, trackId, buckets);
+        if (file.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC && in.readInt() == buckets) {
+                    byte[] min = new byte[buckets];
+                    byte[] max = new byte[buckets];
+                    in.readFully(min);
+                    in.readFully(max);
+                    return new byte[][] { min, max };
+                }
+            } catch (IOException e) {
+                Log.d(TAG, "Discarding corrupt waveform " + file.getName());
+            }
+            file.delete();
+        }
+
+        LibraryIndex.Entry entry = LibraryIndex.get(context).getTrack(trackId);
+        if (entry == null) throw new IOException("Unknown track " + trackId);
+        String source = entry.uri != null && !entry.uri.isEmpty() ? entry.uri : entry.path;
+        Uri uri = source.startsWith("/") ? Uri.fromFile(new File(source)) : Uri.parse(source);
+
+        SliceSink sink = new SliceSink();
+        PcmDecoder.decode(context, uri, 0, sink);
+        byte[][] peaks = sink.fold(buckets);
+
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(buckets);
+            out.write(peaks[0]);
+            out.write(peaks[1]);
+        }
+        if (!tmp.renameTo(file)) tmp.delete();
+        return peaks;
+    }
+
+    private static File cacheFile(Context context, String trackId, int buckets) {
+        File dir = new File(context.getCacheDir(), DIR_NAME);
+        if (!dir.exists()) dir.mkdirs();
+        return new File(dir, trackId + "_" + buckets + ".peaks");
+    }
+
+    /**
+     * Collects mono min/max per fixed-length slice while decoding.
+     */
+    private static final class SliceSink implements PcmDecoder.Sink {
+        private int channels = 1;
+        private int sliceFrames = 441;
+        private float[] mins = new float[4096];
+        private float[] maxs = new float[4096];
+        private int slices = 0;
+        private int frameInSlice = 0;
+        private float curMin = 0;
+        private float curMax = 0;
+
+        @Override
+        public void onFormat(int sampleRate, int channels) {
+            this.channels = Math.max(1, channels);
+            this.sliceFrames = Math.max(1, sampleRate / SLICES_PER_SECOND);
+        }
+
+        @Override
+        public void onSamples(float[] samples, int frames) {
+            int ch = channels;
+            for (int f = 0; f < frames; f++) {
+                float sum = 0;
+                int base = f * ch;
+                for (int c = 0; c < ch; c++) sum += samples[base + c];
+                float mono = sum / ch;
+
+                if (mono < curMin) curMin = mono;
+                if (mono > curMax) curMax = mono;
+                if (++frameInSlice == sliceFrames) pushSlice();
+            }
+        }
+
+        private void pushSlice() {
+            if (slices == mins.length) {
+                float[] grownMin = new float[mins.length * 2];
+                float[] grownMax = new float[maxs.length * 2];
+                System.arraycopy(mins, 0, grownMin, 0, slices);
+                System.arraycopy(maxs, 0, grownMax, 0, slices);
+                mins = grownMin;
+                maxs = grownMax;
+            }
+            mins[slices] = curMin;
+            maxs[slices] = curMax;
+            slices++;
+            curMin = 0;
+            curMax = 0;
+            frameInSlice = 0;
+        }
+
+        byte[][] fold(int buckets) {
+            if (frameInSlice > 0) pushSlice();
+            byte[] min = new byte[buckets];
+            byte[] max = new byte[buckets];
+            if (slices == 0) return new byte[][] { min, max };
+
+            for (int b = 0; b < buckets; b++) {
+                int start = (int) ((long) b * slices / buckets);
+                int end = Math.max(start + 1, (int) ((long) (b + 1) * slices / buckets));
+                float lo = 0;
+                float hi = 0;
+                for (int i = start; i < end && i < slices; i++) {
+                    if (mins[i] < lo) lo = mins[i];
+                    if (maxs[i] > hi) hi = maxs[i];
+                }
+                min[b] = (byte) Math.round(Math.max(-1f, lo) * 127f);
+                max[b] = (byte) Math.round(Math.min(1f, hi) * 127f);
+            }
+            return new byte[][] { min, max };
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Cold-load time of the binary snapshot against the JSON index it replaced,
+ * at 10k, 50k and 100k tracks. Timings are printed; the assertions only
+ * check results and that the first page is far cheaper than a JSON parse.
+ */
+public class LibraryLoadBenchmarkTest {
+
+    private static final int[] SIZES = { 10_000, 50_000, 100_000 };
+    private static final int PAGE = 100;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("load-bench").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void snapshotLoadsFasterThanJson() throws Exception {
+        // Warm up the JIT on a small library so the first size isn't penalised
+        measure(2_000);
+
+        System.out.println("tracks   json full   snapshot full   snapshot first page");
+        for (int size : SIZES) {
+            long[] ms = measure(size);
+            System.out.printf("%6d   %6.1f ms   %9.1f ms   %13.2f ms%n",
+                size, ms[0] / 1e6, ms[1] / 1e6, ms[2] / 1e6);
+            assertTrue("First page should not need a full parse at " + size + " tracks", ms[2] < ms[0]);
+        }
+    }
+
+    /**
+     * Nanoseconds for: parsing the JSON index into entries, copying every
+     * snapshot record into entries (what LibraryIndex does), and opening the
+     * snapshot to read one page and look up one ID.
+     */
+    private long[] measure(int size) throws IOException, JSONException {
+        List<LibraryIndex.Entry> tracks = library(size);
+        File json = new File(dir, "library_index.json");
+        File snapshot = new File(dir, "library.bin");
+        writeJson(json, tracks);
+        LibrarySnapshot.write(snapshot, tracks, Collections.emptyList(), Collections.emptyList());
+
+        long start = System.nanoTime();
+        JSONArray array = new JSONArray(new String(Files.readAllBytes(json.toPath()), StandardCharsets.UTF_8));
+        LinkedHashMap<String, LibraryIndex.Entry> fromJson = new LinkedHashMap<>();
+        for (int i = 0; i < array.length(); i++) {
+            LibraryIndex.Entry entry = LibraryIndex.Entry.fromJson(array.getJSONObject(i));
+            fromJson.put(entry.id, entry);
+        }
+        long jsonFull = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        LibrarySnapshot opened = LibrarySnapshot.open(snapshot);
+        LinkedHashMap<String, LibraryIndex.Entry> fromSnapshot = new LinkedHashMap<>();
+        for (int i = 0; i < opened.trackCount(); i++) {
+            LibraryIndex.Entry entry = opened.track(i);
+            fromSnapshot.put(entry.id, entry);
+        }
+        long snapshotFull = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        LibrarySnapshot paged = LibrarySnapshot.open(snapshot);
+        List<LibraryIndex.Entry> page = new ArrayList<>(PAGE);
+        for (int i = 0; i < PAGE; i++) page.add(paged.track(i));
+        LibraryIndex.Entry last = paged.find("t_" + (size - 1));
+        long snapshotPage = System.nanoTime() - start;
+
+        assertEquals(size, fromJson.size());
+        assertEquals(size, fromSnapshot.size());
+        assertEquals(fromJson.get("t_" + (size / 2)).title, fromSnapshot.get("t_" + (size / 2)).title);
+        assertEquals("t_0", page.get(0).id);
+        assertEquals("Song " + (size - 1), last.title);
+
+        json.delete();
+        snapshot.delete();
+        return new long[] { jsonFull, snapshotFull, snapshotPage };
+    }
+
+    private static List<LibraryIndex.Entry> library(int size) {
+        List<LibraryIndex.Entry> tracks = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            LibraryIndex.Entry entry = new LibraryIndex.Entry();
+            entry.id = "t_" + i;
+            entry.title = "Song " + i;
+            entry.artist = "Artist " + (i % 800);
+            entry.album = "Album " + (i % 4000);
+            entry.albumId = "al_" + (i % 4000);
+            entry.artistId = "ar_" + (i % 800);
+            entry.uri = "content://media/external/audio/media/" + i;
+            entry.path = "/storage/emulated/0/Music/Artist " + (i % 800) + "/Song " + i + ".flac";
+            entry.cover = "";
+            entry.source = LibraryIndex.SOURCE_MEDIA;
+            entry.genre = i % 3 == 0 ? "Rock" : "Jazz";
+            entry.duration = 180 + i % 240;
+            entry.dateAdded = 1700000000000L + i;
+            if (i % 2 == 0) {
+                entry.analysed = true;
+                entry.lufs = -14 - (i % 60) / 10.0;
+                entry.peak = 0.9;
+                entry.gatedPower = 0.03;
+                entry.gatedBlocks = 600;
+            }
+            tracks.add(entry);
+        }
+        return tracks;
+    }
+
+    /**
+     * The legacy library_index.json layout that Entry.fromJson reads.
+     */
+    private static void writeJson(File file, List<LibraryIndex.Entry> tracks) throws IOException, JSONException {
+        JSONArray array = new JSONArray();
+        for (LibraryIndex.Entry entry : tracks) {
+            JSONObject json = new JSONObject();
+            json.put("id", entry.id);
+            json.put("title", entry.title);
+            json.put("artist", entry.artist);
+            json.put("album", entry.album);
+            json.put("albumId", entry.albumId);
+            json.put("artistId", entry.artistId);
+            json.put("duration", entry.duration);
+            json.put("uri", entry.uri);
+            json.put("path", entry.path);
+            json.put("cover", entry.cover);
+            json.put("source", entry.source);
+            json.put("genre", entry.genre);
+            json.put("dateAdded", entry.dateAdded);
+            json.put("analysed", entry.analysed);
+            if (entry.analysed) {
+                json.put("lufs", entry.lufs);
+                json.put("peak", entry.peak);
+                json.put("gatedPower", entry.gatedPower);
+                json.put("gatedBlocks", entry.gatedBlocks);
+            }
+            array.put(json);
+        }
+        Files.write(file.toPath(), array.toString().getBytes(StandardCharsets.UTF_8));
+    }
+}
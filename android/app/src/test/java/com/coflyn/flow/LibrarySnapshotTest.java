@@ -0,0 +1,162 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LibrarySnapshotTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("snapshot").toFile();
+        file = new File(dir, "library.bin");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void roundTripsTracksAlbumsAndArtists() throws IOException {
+        LibraryIndex.Entry first = track("t_1", "Intro", "al_1");
+        first.lufs = -14.25;
+        first.peak = 0.98;
+        first.gatedPower = 0.031;
+        first.gatedBlocks = 512;
+        first.analysed = true;
+        first.hasLyrics = true;
+        first.dateAdded = 1700000000000L;
+        LibraryIndex.Entry second = track("t_2", "Caf\u00e9 \u2013 Live", "al_1");
+
+        LibrarySnapshot.Album album = new LibrarySnapshot.Album();
+        album.id = "al_1";
+        album.title = "Album";
+        album.artist = "Artist";
+        album.artistId = "ar_1";
+        album.cover = "file:///covers/al_1.jpg";
+        album.year = 2021;
+        album.tracks = new int[] { 0, 1 };
+
+        LibrarySnapshot.Artist artist = new LibrarySnapshot.Artist();
+        artist.id = "ar_1";
+        artist.name = "Artist";
+        artist.albumCount = 1;
+        artist.tracks = new int[] { 1, 0 };
+
+        LibrarySnapshot.write(file, Arrays.asList(first, second),
+            Collections.singletonList(album), Collections.singletonList(artist));
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        assertEquals(2, snapshot.trackCount());
+        assertEquals(1, snapshot.albumCount());
+        assertEquals(1, snapshot.artistCount());
+
+        LibraryIndex.Entry read = snapshot.track(0);
+        assertEquals("t_1", read.id);
+        assertEquals("Intro", read.title);
+        assertEquals("content://media/external/audio/media/t_1", read.uri);
+        assertEquals(215, read.duration);
+        assertEquals(1700000000000L, read.dateAdded);
+        assertEquals(-14.25, read.lufs, 0);
+        assertEquals(512, read.gatedBlocks);
+        assertTrue(read.analysed);
+        assertTrue(read.hasLyrics);
+
+        read = snapshot.track(1);
+        assertEquals("Caf\u00e9 \u2013 Live", read.title);
+        assertTrue(Double.isNaN(read.lufs));
+        assertFalse(read.analysed);
+        assertEquals("", read.genre); // Null fields come back empty
+
+        LibrarySnapshot.Album readAlbum = snapshot.album(0);
+        assertEquals("file:///covers/al_1.jpg", readAlbum.cover);
+        assertEquals(2021, readAlbum.year);
+        assertEquals(2, readAlbum.tracks.length);
+        assertEquals(1, snapshot.artist(0).tracks[0]);
+    }
+
+    @Test
+    public void looksUpEveryTrackById() throws IOException {
+        List<LibraryIndex.Entry> tracks = new ArrayList<>();
+        for (int i = 0; i < 500; i++) tracks.add(track("t_" + i, "Song " + i, ""));
+        LibrarySnapshot.write(file, tracks, Collections.emptyList(), Collections.emptyList());
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        for (int i = 0; i < tracks.size(); i++) {
+            assertEquals(i, snapshot.indexOf("t_" + i));
+            assertEquals("t_" + i, snapshot.trackId(i));
+        }
+        assertEquals("Song 42", snapshot.find("t_42").title);
+        assertEquals(-1, snapshot.indexOf("t_500"));
+        assertEquals(-1, snapshot.indexOf(null));
+        assertNull(snapshot.find("missing"));
+    }
+
+    @Test
+    public void findsTracksWhoseIdsShareAHash() throws IOException {
+        // "Aa" and "BB" have the same String.hashCode
+        LibrarySnapshot.write(file, Arrays.asList(track("Aa", "One", ""), track("BB", "Two", "")),
+            Collections.emptyList(), Collections.emptyList());
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        assertEquals(0, snapshot.indexOf("Aa"));
+        assertEquals(1, snapshot.indexOf("BB"));
+    }
+
+    @Test
+    public void emptyLibraryRoundTrips() throws IOException {
+        LibrarySnapshot.write(file, Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        LibrarySnapshot snapshot = LibrarySnapshot.open(file);
+
+        assertEquals(0, snapshot.trackCount());
+        assertEquals(-1, snapshot.indexOf("t_1"));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFile() throws IOException {
+        LibrarySnapshot.write(file, Collections.singletonList(track("t_1", "One", "")),
+            Collections.emptyList(), Collections.emptyList());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        LibrarySnapshot.open(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        Files.write(file.toPath(), new byte[64]);
+        LibrarySnapshot.open(file);
+    }
+
+    private static LibraryIndex.Entry track(String id, String title, String albumId) {
+        LibraryIndex.Entry entry = new LibraryIndex.Entry();
+        entry.id = id;
+        entry.title = title;
+        entry.artist = "Artist";
+        entry.album = "Album";
+        entry.albumId = albumId;
+        entry.artistId = "ar_1";
+        entry.uri = "content://media/external/audio/media/" + id;
+        entry.path = "/storage/emulated/0/Music/" + id + ".flac";
+        entry.cover = "";
+        entry.source = "mediastore";
+        entry.duration = 215;
+        return entry;
+    }
+}
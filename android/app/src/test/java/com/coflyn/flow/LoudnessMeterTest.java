@@ -0,0 +1,116 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import android.media.AudioFormat;
+import java.util.Arrays;
+import org.junit.Test;
+
+public class LoudnessMeterTest {
+
+    private static final int RATE = 48000;
+
+    @Test
+    public void stereoSineAtMinus23ReadsMinus23Lufs() {
+        // EBU Tech 3341 case 1: 1 kHz stereo sine at -23 dBFS
+        LoudnessMeter meter = new LoudnessMeter();
+        meter.onFormat(RATE, 2);
+        feed(meter, 2, new int[] { 0, 1 }, -23, 20);
+
+        LoudnessMeter.Result result = meter.result();
+        assertEquals(-23.0, result.integratedLufs, 0.1);
+        assertEquals(Math.pow(10, -23 / 20.0), result.truePeak, 0.002);
+    }
+
+    @Test
+    public void absoluteGateIgnoresSilence() {
+        LoudnessMeter meter = new LoudnessMeter();
+        meter.onFormat(RATE, 2);
+        feed(meter, 2, new int[] { 0, 1 }, -23, 10);
+        feed(meter, 2, new int[0], 0, 10);
+
+        assertEquals(-23.0, meter.result().integratedLufs, 0.1);
+    }
+
+    @Test
+    public void relativeGateIgnoresQuietPassages() {
+        LoudnessMeter meter = new LoudnessMeter();
+        meter.onFormat(RATE, 2);
+        feed(meter, 2, new int[] { 0, 1 }, -23, 10);
+        feed(meter, 2, new int[] { 0, 1 }, -40, 10);
+
+        LoudnessMeter.Result result = meter.result();
+        assertEquals(-23.0, result.integratedLufs, 0.2);
+        assertTrue(result.gatedBlocks < 110); // Only the loud half survives
+    }
+
+    @Test
+    public void silenceHasNoLoudness() {
+        LoudnessMeter meter = new LoudnessMeter();
+        meter.onFormat(RATE, 2);
+        feed(meter, 2, new int[0], 0, 5);
+
+        LoudnessMeter.Result result = meter.result();
+        assertTrue(Double.isNaN(result.integratedLufs));
+        assertEquals(0, result.gatedBlocks);
+    }
+
+    @Test
+    public void fiveChannelSurroundIsWeighted() {
+        // 5.0 is L R C Ls Rs: Ls at index 3 gets the +1.5 dB surround weight
+        LoudnessMeter front = new LoudnessMeter();
+        front.onFormat(RATE, 5);
+        feed(front, 5, new int[] { 0 }, -20, 10);
+
+        LoudnessMeter surround = new LoudnessMeter();
+        surround.onFormat(RATE, 5);
+        feed(surround, 5, new int[] { 3 }, -20, 10);
+
+        double difference = surround.result().integratedLufs - front.result().integratedLufs;
+        assertEquals(10 * Math.log10(1.41), difference, 0.01);
+    }
+
+    @Test
+    public void lowFrequencyChannelIsExcluded() {
+        // 5.1 is L R C LFE Ls Rs
+        LoudnessMeter meter = new LoudnessMeter();
+        meter.onFormat(RATE, 6);
+        feed(meter, 6, new int[] { 3 }, -20, 5);
+
+        assertTrue(Double.isNaN(meter.result().integratedLufs));
+    }
+
+    @Test
+    public void channelMaskOverridesDefaultLayout() {
+        // Front L/R plus side surrounds, no centre
+        int mask = AudioFormat.CHANNEL_OUT_FRONT_LEFT | AudioFormat.CHANNEL_OUT_FRONT_RIGHT
+            | AudioFormat.CHANNEL_OUT_SIDE_LEFT | AudioFormat.CHANNEL_OUT_SIDE_RIGHT;
+        double[] weights = LoudnessMeter.channelWeights(4, mask);
+        assertEquals(1.0, weights[0], 0);
+        assertEquals(1.0, weights[1], 0);
+        assertEquals(1.41, weights[2], 0);
+        assertEquals(1.41, weights[3], 0);
+
+        // A mask that doesn't match the channel count falls back to the default layout
+        weights = LoudnessMeter.channelWeights(2, mask);
+        assertEquals(1.0, weights[1], 0);
+    }
+
+    /**
+     * Feeds a 997 Hz sine at the given level on the listed channels, silence elsewhere.
+     */
+    private static void feed(LoudnessMeter meter, int channels, int[] active, double dbfs, int seconds) {
+        double amplitude = Math.pow(10, dbfs / 20.0);
+        int frames = RATE / 10;
+        float[] samples = new float[frames * channels];
+        long frame = 0;
+        for (int chunk = 0; chunk < seconds * 10; chunk++) {
+            Arrays.fill(samples, 0f);
+            for (int f = 0; f < frames; f++, frame++) {
+                float x = (float) (amplitude * Math.sin(2 * Math.PI * 997 * frame / RATE));
+                for (int c : active) samples[f * channels + c] = x;
+            }
+            meter.onSamples(samples, frames);
+        }
+    }
+}
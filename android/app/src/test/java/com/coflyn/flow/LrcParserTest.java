@@ -0,0 +1,126 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import org.junit.Test;
+
+public class LrcParserTest {
+
+    @Test
+    public void parsesTimestampForms() {
+        assertEquals(62500, LrcParser.parseTimestamp("01:02.5", 0, 7));
+        assertEquals(62340, LrcParser.parseTimestamp("01:02.34", 0, 8));
+        assertEquals(62340, LrcParser.parseTimestamp("01:02:34", 0, 8));
+        assertEquals(62000, LrcParser.parseTimestamp("1:02", 0, 4));
+        assertEquals(-1, LrcParser.parseTimestamp("ar:Someone", 0, 10));
+        assertEquals(-1, LrcParser.parseTimestamp("01:02.", 0, 6));
+    }
+
+    @Test
+    public void sortsRepeatedStampsAndLooksUpByTime() {
+        LrcDocument doc = LrcParser.parse(
+            "[ti:Song]\n"
+            + "[00:01.00]One\n"
+            + "[00:02.00][00:04.00]Chorus\n"
+            + "[00:03.00]\n");
+
+        assertEquals(4, doc.size());
+        assertEquals("One", doc.textAt(0));
+        assertEquals("Chorus", doc.textAt(1));
+        assertEquals("\u2022\u2022\u2022", doc.textAt(2)); // Blank line placeholder
+        assertEquals("Chorus", doc.textAt(3));
+
+        assertEquals(-1, doc.indexAt(999));
+        assertEquals(0, doc.indexAt(1000));
+        assertEquals(1, doc.indexAt(2999));
+        assertEquals(3, doc.indexAt(60000));
+    }
+
+    @Test
+    public void positiveOffsetShowsLinesSooner() {
+        LrcDocument doc = LrcParser.parse("[offset:+500]\n[00:01.00]One\n[00:02.00]Two\n");
+
+        assertEquals(500, doc.getOffset());
+        assertEquals(500, doc.timeAt(0));
+        assertEquals(1500, doc.timeAt(1));
+        assertEquals(1, doc.indexAt(1500));
+    }
+
+    @Test
+    public void negativeOffsetNeverGoesBelowZero() {
+        LrcDocument doc = LrcParser.parse("[offset:-250]\n[00:00.10]One\n");
+
+        assertEquals(-250, doc.getOffset());
+        assertEquals(350, doc.timeAt(0));
+
+        doc = LrcParser.parse("[offset:300]\n[00:00.10]One\n");
+        assertEquals(0, doc.timeAt(0));
+    }
+
+    @Test
+    public void addsIntroLineBeforeLateFirstLine() {
+        LrcDocument doc = LrcParser.parse("[00:10.00]Late start\n");
+
+        assertEquals(2, doc.size());
+        assertEquals(0, doc.timeAt(0));
+        assertEquals("\u266A", doc.textAt(0));
+        assertEquals(0, doc.indexAt(0));
+        assertEquals(1, doc.indexAt(10000));
+    }
+
+    @Test
+    public void wordTimestampsFollowRepeatsAndOffset() {
+        LrcDocument doc = LrcParser.parse(
+            "[offset:100]\n"
+            + "[00:01.00][00:03.00]<00:01.00>Hello <00:01.50>world\n");
+
+        assertTrue(doc.hasWordTimings());
+        assertEquals("Hello world", doc.textAt(0));
+
+        // First occurrence: words at 900 and 1400 after the offset
+        assertEquals(-1, doc.wordIndexAt(0, 899));
+        assertEquals(0, doc.wordIndexAt(0, 900));
+        assertEquals(1, doc.wordIndexAt(0, 1400));
+
+        // Repeat two seconds later carries its words along
+        assertEquals(2900, doc.timeAt(1));
+        assertEquals(0, doc.wordIndexAt(1, 2900));
+        assertEquals(1, doc.wordIndexAt(1, 3400));
+    }
+
+    @Test
+    public void cacheRoundTripKeepsTimesAndWords() throws Exception {
+        LrcDocument doc = LrcParser.parse(
+            "[offset:100]\n[00:01.00]<00:01.00>Hello <00:01.50>world\n[00:02.00]Plain\n");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        doc.writeTo(new DataOutputStream(bytes));
+
+        LrcDocument copy = LrcDocument.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(doc.size(), copy.size());
+        assertEquals(100, copy.getOffset());
+        assertEquals(1900, copy.timeAt(1));
+        assertEquals("Plain", copy.textAt(1));
+        assertEquals(1, copy.wordIndexAt(0, 1400));
+        assertEquals(-1, copy.wordIndexAt(1, 1900));
+    }
+
+    @Test
+    public void plainTextIsKeptUnsynced() {
+        LrcDocument doc = LrcParser.parseOrPlain("First line\n\nSecond line\n");
+
+        assertFalse(doc.isSynced());
+        assertEquals(2, doc.size());
+        assertEquals("Second line", doc.textAt(1));
+        assertEquals(-1, doc.indexAt(5000));
+    }
+
+    @Test
+    public void emptyInputIsEmpty() {
+        assertTrue(LrcParser.parse("").isEmpty());
+        assertTrue(LrcParser.parse("[ar:Nobody]\nno stamps here\n").isEmpty());
+    }
+}
@@ -0,0 +1,135 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class PlaylistImporterTest {
+
+    private static final List<LibraryIndex.Entry> LIBRARY = Arrays.asList(
+        track("t_1", "/storage/emulated/0/Music/Artist/Album/01 Opening.flac", "Opening", "Artist", 215),
+        track("t_2", "/storage/emulated/0/Music/Artist/Album/02 Caf\u00e9.flac", "Caf\u00e9", "Artist", 180),
+        track("t_3", "/storage/emulated/0/Music/Band/Live/Disc 1/01.mp3", "Crowd", "Band", 60),
+        track("t_4", "/storage/emulated/0/Music/Band/Studio/Disc 1/01.mp3", "Intro", "Band", 62),
+        track("t_5", "/storage/emulated/0/Download/misc.ogg", "Night Drive", "Someone (feat. Other)", 240));
+
+    @Test
+    public void matchesWindowsAndRelativePathsBySuffix() throws IOException {
+        PlaylistImporter.Result result = read(
+            "\uFEFF#EXTM3U\n"
+            + "C:\\Users\\me\\Music\\Artist\\Album\\01 Opening.flac\n"
+            + "../Album/02 Cafe\u0301.FLAC\n" // Decomposed accent, different case
+            + "Live/Disc 1/01.mp3\n");
+
+        assertEquals(Arrays.asList("t_1", "t_2", "t_3"), result.ids);
+        assertEquals(3, result.total);
+        assertEquals(3, result.byPath);
+        assertTrue(result.missing.isEmpty());
+    }
+
+    @Test
+    public void ambiguousSuffixDoesNotMatch() throws IOException {
+        // "disc 1/01.mp3" is shared by two albums and the third component differs from both
+        PlaylistImporter.Result result = read("Bootleg/Disc 1/01.mp3\n");
+
+        assertTrue(result.ids.isEmpty());
+        assertEquals(1, result.missing.size());
+        assertEquals("Bootleg/Disc 1/01.mp3", result.missing.get(0).location);
+        assertEquals(0, result.missing.get(0).position);
+
+        // One more component tells them apart
+        assertEquals(Collections.singletonList("t_4"), read("Studio/Disc 1/01.mp3\n").ids);
+    }
+
+    @Test
+    public void fallsBackToExtinfTags() throws IOException {
+        PlaylistImporter.Result result = read(
+            "#EXTM3U\n"
+            + "#EXTINF:241,Someone - Night Drive\n"
+            + "D:\\Old Library\\night_drive.mp3\n"
+            + "#EXTINF:300,Someone - Night Drive\n" // Duration too far off
+            + "D:\\Old Library\\night_drive_extended.mp3\n"
+            + "/sdcard/Other/Intro.mp3\n"); // Title alone, from the file name
+
+        assertEquals(Arrays.asList("t_5", "t_4"), result.ids);
+        assertEquals(2, result.byTags);
+        assertEquals(1, result.missing.size());
+        PlaylistImporter.Item missing = result.missing.get(0);
+        assertEquals(1, missing.position);
+        assertEquals("Someone", missing.artist);
+        assertEquals("Night Drive", missing.title);
+        assertEquals(300, missing.duration);
+    }
+
+    @Test
+    public void streamsAreReportedMissing() throws IOException {
+        PlaylistImporter.Result result = read("#EXTM3U\nhttp://radio.example/stream\n");
+
+        assertTrue(result.ids.isEmpty());
+        assertEquals(1, result.missing.size());
+    }
+
+    @Test
+    public void plsEntriesFollowTheirNumbers() throws IOException {
+        PlaylistImporter.Result result = read(
+            "[playlist]\n"
+            + "File2=Album\\02 Caf\u00e9.flac\n"
+            + "Title2=Artist - Caf\u00e9\n"
+            + "File10=/elsewhere/unknown.mp3\n"
+            + "File1=/nowhere/track.mp3\n"
+            + "Title1=Artist - Opening\n"
+            + "Length1=216\n"
+            + "Length10=-1\n"
+            + "NumberOfEntries=3\n"
+            + "Version=2\n");
+
+        assertEquals(Arrays.asList("t_1", "t_2"), result.ids);
+        assertEquals(3, result.total);
+        assertEquals(1, result.byPath);
+        assertEquals(1, result.byTags);
+        assertEquals(2, result.missing.get(0).position);
+        assertEquals(-1, result.missing.get(0).duration);
+    }
+
+    @Test
+    public void emptyInputHasNoEntries() throws IOException {
+        PlaylistImporter.Result result = read("\n\n");
+
+        assertEquals(0, result.total);
+        assertTrue(new PlaylistImporter(Collections.emptyList()).read(stream("a.mp3\n")).ids.isEmpty());
+    }
+
+    @Test
+    public void componentsAreNormalised() {
+        assertArrayEquals(new String[] { "music", "a", "01.flac" },
+            PlaylistImporter.components("C:\\Music\\.\\A\\01.FLAC"));
+        assertArrayEquals(new String[] { "b", "01.flac" }, PlaylistImporter.components("./b//01.flac"));
+        assertEquals(0, PlaylistImporter.components("https://example.com/a.mp3").length);
+        assertEquals(0, PlaylistImporter.components(null).length);
+    }
+
+    private static PlaylistImporter.Result read(String playlist) throws IOException {
+        return new PlaylistImporter(LIBRARY).read(stream(playlist));
+    }
+
+    private static ByteArrayInputStream stream(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static LibraryIndex.Entry track(String id, String path, String title, String artist, long duration) {
+        LibraryIndex.Entry entry = new LibraryIndex.Entry();
+        entry.id = id;
+        entry.path = path;
+        entry.uri = "";
+        entry.title = title;
+        entry.artist = artist;
+        entry.duration = duration;
+        return entry;
+    }
+}
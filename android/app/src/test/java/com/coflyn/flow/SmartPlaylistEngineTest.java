@@ -0,0 +1,59 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+
+public class SmartPlaylistEngineTest {
+
+    private static final Comparator<String> BY_NUMBER = Comparator.comparingInt(Integer::parseInt);
+
+    @Test
+    public void topKMatchesAFullSort() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<String> items = new ArrayList<>();
+            for (int i = 0; i < 200; i++) items.add(Integer.toString(i));
+            Collections.shuffle(items, random);
+            int k = 1 + random.nextInt(items.size() + 20);
+
+            List<String> sorted = new ArrayList<>(items);
+            Collections.sort(sorted, BY_NUMBER);
+            List<String> expected = sorted.subList(0, Math.min(k, sorted.size()));
+
+            assertEquals(expected, SmartPlaylistEngine.topK(items, BY_NUMBER, k));
+        }
+    }
+
+    @Test
+    public void topKFollowsTheGivenOrder() {
+        List<String> items = Arrays.asList("3", "9", "1", "7", "5");
+
+        assertEquals(Arrays.asList("9", "7"), SmartPlaylistEngine.topK(items, BY_NUMBER.reversed(), 2));
+        assertEquals(Arrays.asList("1", "3", "5"), SmartPlaylistEngine.topK(items, BY_NUMBER, 3));
+    }
+
+    @Test
+    public void topKKeepsOnlyTheBestOfTiedKeys() {
+        // Ordered by length only: every three-letter item ties
+        Comparator<String> byLength = Comparator.comparingInt(String::length);
+        List<String> top = SmartPlaylistEngine.topK(Arrays.asList("abcd", "ab", "abc", "a", "xyz", "uvw"), byLength, 3);
+
+        assertEquals(3, top.size());
+        assertEquals("a", top.get(0));
+        assertEquals("ab", top.get(1));
+        assertEquals(3, top.get(2).length());
+    }
+
+    @Test
+    public void topKOfNothingIsEmpty() {
+        assertTrue(SmartPlaylistEngine.topK(Arrays.asList("1", "2"), BY_NUMBER, 0).isEmpty());
+        assertTrue(SmartPlaylistEngine.topK(new ArrayList<>(), BY_NUMBER, 5).isEmpty());
+    }
+}
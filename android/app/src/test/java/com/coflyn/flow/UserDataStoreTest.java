@@ -0,0 +1,157 @@
+package com.coflyn.flow;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UserDataStoreTest {
+
+    private File dir;
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("userdata").toFile();
+        file = new File(dir, "user_data.log");
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File f : files) f.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void replaysEditsOnReopen() {
+        long now = System.currentTimeMillis();
+        UserDataStore store = new UserDataStore(file);
+        store.recordPlay("t_1", now - 2000);
+        store.recordPlay("t_1", now - 1000);
+        store.recordPlay("t_2", now);
+        store.addRecent("t_1");
+        store.addRecent("t_2");
+        store.addRecent("t_1");
+        store.setFavorite("t_2", true);
+        store.setFavorite("t_3", true);
+        store.setFavorite("t_3", false);
+        store.createPlaylist("pl_1", "Road", 42);
+        store.addToPlaylist("pl_1", "t_1");
+        store.addToPlaylist("pl_1", "t_2");
+        store.renamePlaylist("pl_1", "Road trip");
+        store.removeFromPlaylist("pl_1", "t_1");
+        store.addToPlaylist("pl_1", "t_3");
+        store.createPlaylist("pl_2", "Gone", 43);
+        store.deletePlaylist("pl_2");
+
+        UserDataStore reopened = new UserDataStore(file);
+        assertEquals(2, reopened.playCount("t_1"));
+        assertEquals(now - 1000, reopened.lastPlayed("t_1"));
+        assertEquals(1, reopened.playCount("t_2"));
+        assertEquals(Arrays.asList("t_1", "t_2"), reopened.recents());
+        assertTrue(reopened.isFavorite("t_2"));
+        assertFalse(reopened.isFavorite("t_3"));
+
+        List<UserDataStore.Playlist> playlists = reopened.playlists();
+        assertEquals(1, playlists.size());
+        assertEquals("Road trip", playlists.get(0).name);
+        assertEquals(42, playlists.get(0).createdAt);
+        assertEquals(Arrays.asList("t_2", "t_3"), reopened.playlistTracks("pl_1"));
+
+        List<UserDataStore.Play> plays = reopened.playsAfter(0);
+        assertEquals(3, plays.size());
+        assertEquals("t_2", plays.get(2).id);
+        assertEquals(1, reopened.playsAfter(plays.get(1).seq).size());
+    }
+
+    @Test
+    public void dropsTornTailAndKeepsAppending() throws IOException {
+        UserDataStore store = new UserDataStore(file);
+        store.setFavorite("t_1", true);
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write("{\"op\":\"favorite\",\"id\":\"t_".getBytes(StandardCharsets.UTF_8));
+        }
+
+        UserDataStore reopened = new UserDataStore(file);
+        assertTrue(reopened.isFavorite("t_1"));
+        reopened.setFavorite("t_2", true);
+
+        reopened = new UserDataStore(file);
+        assertTrue(reopened.isFavorite("t_1"));
+        assertTrue(reopened.isFavorite("t_2"));
+    }
+
+    @Test
+    public void skipsUnreadableRecords() throws IOException {
+        Files.write(file.toPath(), ("{\"op\":\"favorite\",\"id\":\"t_1\",\"on\":true}\n"
+            + "not json\n"
+            + "{\"op\":\"unknown\"}\n"
+            + "{\"op\":\"favorite\",\"id\":\"t_2\",\"on\":true}\n").getBytes(StandardCharsets.UTF_8));
+
+        UserDataStore store = new UserDataStore(file);
+        assertTrue(store.isFavorite("t_1"));
+        assertTrue(store.isFavorite("t_2"));
+    }
+
+    @Test
+    public void compactsChurnWithoutLosingState() throws IOException {
+        long now = System.currentTimeMillis();
+        UserDataStore store = new UserDataStore(file);
+        store.createPlaylist("pl_1", "Mix", 1);
+        for (int i = 0; i < 1000; i++) {
+            store.toggleFavorite("t_1");
+            store.addToPlaylist("pl_1", "t_" + (i % 3));
+            store.removeFromPlaylist("pl_1", "t_" + (i % 3));
+        }
+        store.addToPlaylist("pl_1", "t_9");
+        store.recordPlay("t_9", now);
+
+        assertTrue(Files.readAllLines(file.toPath()).size() < 600);
+        assertFalse(new File(dir, "user_data.log.tmp").exists());
+
+        UserDataStore reopened = new UserDataStore(file);
+        assertFalse(reopened.isFavorite("t_1")); // Toggled an even number of times
+        assertEquals(Arrays.asList("t_9"), reopened.playlistTracks("pl_1"));
+        assertEquals(1, reopened.playCount("t_9"));
+    }
+
+    @Test
+    public void compactionFoldsOldPlaysIntoCounts() throws IOException {
+        long now = System.currentTimeMillis();
+        long old = now - UserDataStore.HISTORY_WINDOW_MS - 1000;
+        UserDataStore store = new UserDataStore(file);
+        store.recordPlay("t_1", old);
+        store.recordPlay("t_1", now);
+        for (int i = 0; i < 600; i++) store.toggleFavorite("t_2");
+        assertTrue(Files.readAllLines(file.toPath()).size() < 200);
+
+        UserDataStore reopened = new UserDataStore(file);
+        assertEquals(2, reopened.playCount("t_1"));
+        assertEquals(now, reopened.lastPlayed("t_1"));
+        assertEquals(1, reopened.playsAfter(0).size()); // Only the play inside the window
+    }
+
+    @Test
+    public void clearPersistsAsMigratedAndEmpty() {
+        UserDataStore store = new UserDataStore(file);
+        store.recordPlay("t_1", System.currentTimeMillis());
+        store.setFavorite("t_1", true);
+        store.createPlaylist("pl_1", "Mix", 1);
+        store.clear();
+
+        UserDataStore reopened = new UserDataStore(file);
+        assertTrue(reopened.isMigrated());
+        assertEquals(0, reopened.playCount("t_1"));
+        assertFalse(reopened.isFavorite("t_1"));
+        assertTrue(reopened.playlists().isEmpty());
+    }
+}
@@ -81,7 +81,7 @@ function updateSidebarPlaylists(musicLibrary) {
     const tracks = musicLibrary.getPlaylistTracks(pl.id);
     const item = createElement("div", "sidebar-playlist-item");
     item.innerHTML = `
-      <img class="sidebar-playlist-thumb" src="${pl.cover || (tracks[0] ? tracks[0].cover : "") || ""}" alt="">
+      <img class="sidebar-playlist-thumb" src="${musicLibrary.getPlaylistCover(pl)}" alt="">
       <div class="sidebar-playlist-info">
         <div class="sidebar-playlist-name">${pl.name}</div>
         <div class="sidebar-playlist-meta">Playlist • ${tracks.length} songs</div>
@@ -242,6 +242,24 @@ export async function initApp() {
 
   let hasCountedPlay = false;
 
+  // The notification was already restored natively; pick up the queue where it left off
+  const restoreSession = async () => {
+    if (queueManager.getCurrentTrack()) return;
+    const session = await audioEngine.getSession();
+    if (!session || !session.found) return;
+
+    const ids = session.queue && session.queue.length ? session.queue : [session.trackId];
+    const tracks = ids.map((id) => musicLibrary.getTrackById(id)).filter(Boolean);
+    let index = tracks.findIndex((t) => t.id === session.trackId);
+    if (index < 0) index = 0;
+    queueManager.restore(tracks, index, session.position || 0, session.play);
+  };
+
+  audioEngine.on("playrequest", ({ id }) => {
+    const track = musicLibrary.getTrackById(id);
+    if (track) queueManager.playTrack(track);
+  });
+
   audioEngine.on("trackchange", ({ track }) => {
     musicLibrary.addToRecent(track.id);
     hasCountedPlay = false;
@@ -284,6 +302,7 @@ export async function initApp() {
     .then(() => {
       router._resolve();
       updateSidebarPlaylists(musicLibrary);
+      restoreSession();
 
       const scannedFolders = musicLibrary.getScannedFolders();
       if (scannedFolders.length === 0) {
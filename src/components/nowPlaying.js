@@ -17,6 +17,10 @@ import { lrcHandler } from "../core/lrcHandler.js";
 let progressDragging = false;
 let currentLyrics = [];
 let lyricsActive = false;
+// On native the playback clock pushes line changes instead of timeupdate polling
+let nativeLyrics = false;
+let lyricTime = -1;
+let lyricsRequest = 0;
 
 export function createNowPlaying() {
   const el = createElement("div", "now-playing");
@@ -171,7 +175,7 @@ export function createNowPlaying() {
     dots.forEach((dot, i) => dot.classList.toggle("active", i === index));
     if (index === 1) {
       lyricsActive = true;
-      syncLyrics(audioEngine.currentTime);
+      syncLyrics(nativeLyrics ? lyricTime : audioEngine.currentTime);
     } else {
       lyricsActive = false;
     }
@@ -315,19 +319,32 @@ export function createNowPlaying() {
       el.querySelector("#np-time-current").textContent =
         formatTime(currentTime);
       el.querySelector("#np-time-total").textContent = formatTime(duration);
-      if (lyricsActive) {
+      if (lyricsActive && !nativeLyrics) {
         syncLyrics(currentTime);
       }
     }
   });
 
+  audioEngine.on("lyricline", ({ time }) => {
+    // Allow for the millisecond rounding of the LRC handed to the native clock
+    lyricTime = Number.isFinite(time) ? time + 0.001 : -1;
+    if (lyricsActive) syncLyrics(lyricTime);
+  });
+
   async function loadLyrics(track) {
+    const request = ++lyricsRequest;
     currentLyrics = [];
+    nativeLyrics = false;
+    lyricTime = -1;
     lyricsContent.innerHTML =
       '<div class="lyric-line loading">Looking for lyrics...</div>';
 
     let lyrics = null;
 
+    if (Capacitor.isNativePlatform()) {
+      lyrics = await lrcHandler.fetchNative(track.id);
+    }
+
     if (!lyrics && Capacitor.isNativePlatform() && track.src) {
       let lrcPath = "";
       if (track.src.startsWith("file://")) {
@@ -357,9 +374,14 @@ export function createNowPlaying() {
       lyrics = await lrcHandler.fetch(lrcPath);
     }
 
+    if (request !== lyricsRequest) return;
+    nativeLyrics = await audioEngine.setLyrics(lyrics);
+    if (request !== lyricsRequest) return;
+
     if (lyrics) {
       currentLyrics = lyrics;
       renderLyrics();
+      if (lyricsActive && nativeLyrics) syncLyrics(lyricTime);
     } else {
       lyricsContent.innerHTML =
         '<div class="lyric-line no-lyrics">No lyrics found</div>';
@@ -1,5 +1,7 @@
 import { Capacitor, registerPlugin } from "@capacitor/core";
 import { store } from "./store.js";
+import { rawMediaUri } from "./scanner.js";
+import { lrcHandler } from "./lrcHandler.js";
 
 const NowPlaying = Capacitor.isNativePlatform()
   ? registerPlugin("ZNowPlaying")
@@ -49,10 +51,16 @@ class AudioEngine {
 
     this._listeners = {};
 
+    this._gainMode = "off";
+    this._audioContext = null;
+    this._gainNodes = new Map();
+    this._gainTrackIds = new Map();
+
     this._setupAudioEvents(this.audioA);
     this._setupAudioEvents(this.audioB);
     this._setupMediaSession();
     this._setupNativeListener();
+    this._loadGainMode();
   }
 
   _setupAudioEvents(player) {
@@ -247,7 +255,14 @@ class AudioEngine {
     }
   }
 
-  async play(track, preFade = false) {
+  /**
+   * @param {Object} track
+   * @param {boolean} preFade
+   * @param {Object} [options]
+   * @param {number} [options.startAt] - position in seconds to start from
+   * @param {boolean} [options.paused] - load the track without starting it
+   */
+  async play(track, preFade = false, options = {}) {
     if (!track) return;
     if (!track.isYouTube && !track.src) return;
 
@@ -280,7 +295,7 @@ class AudioEngine {
     this.duration = 0;
 
     this._updateMediaSession(track);
-    this._updateNativeNotification(track, true);
+    this._updateNativeNotification(track, !options.paused);
     this._emit("trackchange", { track });
     this._changingTrack = true;
 
@@ -294,6 +309,13 @@ class AudioEngine {
     this.activePlayer.pause();
     this.activePlayer.src = track.src;
     this.activePlayer.volume = this.volume;
+    if (options.startAt > 0) this.activePlayer.currentTime = options.startAt;
+    this._applyTrackGain(this.activePlayer, track);
+
+    if (options.paused) {
+      this._changingTrack = false;
+      return;
+    }
 
     setTimeout(() => {
       if (this._currentTransitionId !== transitionId) {
@@ -301,6 +323,7 @@ class AudioEngine {
         return;
       }
 
+      this._resumeAudioContext();
       this.activePlayer
         .play()
         .then(() => {
@@ -345,6 +368,12 @@ class AudioEngine {
     this.nextTrack = track;
     this.nextPlayer.src = track.src;
     this.nextPlayer.load();
+    this._applyTrackGain(this.nextPlayer, track);
+
+    if (NowPlaying) {
+      // Art, waveform and the head of the file, ahead of the element's buffering
+      NowPlaying.prepareNext({ trackId: track.id }).catch(() => {});
+    }
   }
 
   async _startTransition() {
@@ -432,6 +461,7 @@ class AudioEngine {
 
   resume() {
     if (this.currentTrack) {
+      this._resumeAudioContext();
       this.activePlayer.play().catch(() => {});
       if ("mediaSession" in navigator)
         navigator.mediaSession.playbackState = "playing";
@@ -453,6 +483,13 @@ class AudioEngine {
         0,
         Math.min(time, this.duration),
       );
+      if (NowPlaying) {
+        NowPlaying.updatePosition({
+          position: this.activePlayer.currentTime,
+          duration: this.duration,
+          isPlaying: this.isPlaying,
+        }).catch(() => {});
+      }
     }
   }
 
@@ -589,6 +626,155 @@ class AudioEngine {
     this._emit("accentchange", { color });
   }
 
+  /**
+   * Native equalizer settings, band frequencies and preset names.
+   * @returns {Promise<Object|null>} null when there is no native DSP
+   */
+  async getEqualizer() {
+    if (!NowPlaying) return null;
+    try {
+      return await NowPlaying.getEqualizer();
+    } catch (e) {
+      console.warn("Equalizer unavailable:", e);
+      return null;
+    }
+  }
+
+  /**
+   * Updates the native DSP chain; any subset of enabled, preset, bands,
+   * bassBoost, preamp, gainMode ("off" | "track" | "album") and limiter.
+   * @param {Object} settings
+   * @returns {Promise<Object|null>} the resulting settings
+   */
+  async setEqualizer(settings) {
+    if (!NowPlaying) return null;
+    try {
+      const result = await NowPlaying.setEqualizer(settings);
+      if (result && result.gainMode !== this._gainMode) {
+        this._gainMode = result.gainMode;
+        this._applyTrackGain(this.activePlayer, this.currentTrack);
+        this._applyTrackGain(this.nextPlayer, this.nextTrack);
+      }
+      this._emit("equalizerchange", result);
+      return result;
+    } catch (e) {
+      console.warn("Equalizer update failed:", e);
+      return null;
+    }
+  }
+
+  async _loadGainMode() {
+    const settings = await this.getEqualizer();
+    if (!settings || settings.gainMode === this._gainMode) return;
+    this._gainMode = settings.gainMode;
+    this._applyTrackGain(this.activePlayer, this.currentTrack);
+    this._applyTrackGain(this.nextPlayer, this.nextTrack);
+  }
+
+  /**
+   * Applies volume normalization to one player. This runs here rather than
+   * in the native effects chain because that chain can only reach the
+   * device-wide output mix, where gain would change other apps' levels too.
+   * A player is routed through its own GainNode the first time it needs one;
+   * that routing can't be undone, so afterwards "off" just means unity gain.
+   * @param {HTMLAudioElement} player
+   * @param {Object|null} track
+   */
+  async _applyTrackGain(player, track) {
+    if (!NowPlaying) return;
+    if (this._gainMode === "off" && !this._gainNodes.has(player)) return;
+
+    const trackId = track ? track.id : null;
+    this._gainTrackIds.set(player, trackId);
+    let db = 0;
+    if (this._gainMode !== "off" && trackId) {
+      try {
+        ({ gain: db } = await NowPlaying.getTrackGain({ trackId }));
+      } catch (e) {
+        console.warn("Track gain unavailable:", e);
+      }
+    }
+    // The player may have moved on to another track while we waited
+    if (this._gainTrackIds.get(player) !== trackId) return;
+
+    const node = this._gainNode(player);
+    if (node) node.gain.value = Math.pow(10, (db || 0) / 20);
+  }
+
+  _gainNode(player) {
+    let node = this._gainNodes.get(player);
+    if (node) return node;
+    try {
+      if (!this._audioContext) this._audioContext = new AudioContext();
+      node = this._audioContext.createGain();
+      this._audioContext.createMediaElementSource(player).connect(node);
+      node.connect(this._audioContext.destination);
+      this._gainNodes.set(player, node);
+      if (!player.paused) this._resumeAudioContext();
+      return node;
+    } catch (e) {
+      console.warn("Volume normalization unavailable:", e);
+      return null;
+    }
+  }
+
+  _resumeAudioContext() {
+    if (this._audioContext && this._audioContext.state !== "running") {
+      this._audioContext.resume().catch(() => {});
+    }
+  }
+
+  /**
+   * Hands synced lyrics to the native playback clock, which emits
+   * "lyricline" each time the active line changes, so the UI doesn't have
+   * to match lines on every timeupdate. Unsynced or missing lyrics clear it.
+   * @param {Array<{time: number, text: string}>|null} lyrics
+   * @returns {Promise<boolean>} whether "lyricline" events will follow
+   */
+  async setLyrics(lyrics) {
+    if (!NowPlaying) return false;
+    const synced =
+      Array.isArray(lyrics) &&
+      lyrics.length > 0 &&
+      lyrics.every((line) => Number.isFinite(line.time));
+    try {
+      if (!synced) {
+        await NowPlaying.clearLyrics();
+        return false;
+      }
+      await NowPlaying.setLyrics({ content: lrcHandler.toLrc(lyrics) });
+      return true;
+    } catch (e) {
+      console.warn("Native lyrics clock unavailable:", e);
+      return false;
+    }
+  }
+
+  /**
+   * Last session saved natively, plus whether a play was requested (e.g.
+   * from a media button) before the UI was ready.
+   * @returns {Promise<Object|null>}
+   */
+  async getSession() {
+    if (!NowPlaying) return null;
+    try {
+      return await NowPlaying.getSession();
+    } catch (e) {
+      console.warn("Session restore unavailable:", e);
+      return null;
+    }
+  }
+
+  /**
+   * Saves the queue natively so the session can be restored on cold start.
+   * @param {string[]} ids
+   * @param {number} index
+   */
+  saveQueue(ids, index) {
+    if (!NowPlaying) return;
+    NowPlaying.updateQueue({ ids, index }).catch(() => {});
+  }
+
   _handleTrackEnd() {
     this._clearPendingNext();
     if (this.repeatMode === "one") {
@@ -605,8 +791,9 @@ class AudioEngine {
       title: track.title || "Flow",
       artist: track.artist || "Unknown Artist",
       album: track.album || "Unknown Album",
-      coverUri: track.rawCover || track.cover || "",
+      coverUri: track.rawCover || rawMediaUri(track.cover),
       trackUri: track.rawContentUri || "",
+      trackId: track.id || "",
       isPlaying: isPlaying,
       duration: track.duration || 0,
     }).catch((e) => console.warn("Native notification update failed:", e));
@@ -646,6 +833,9 @@ class AudioEngine {
 
   _setupNativeListener() {
     if (!NowPlaying) return;
+    NowPlaying.addListener("lyricLine", (data) => {
+      this._emit("lyricline", data);
+    });
     NowPlaying.addListener("mediaAction", (data) => {
       const action = data.action || "";
 
@@ -657,6 +847,8 @@ class AudioEngine {
         this._emit("next");
       } else if (action === "prev") {
         this._emit("prev");
+      } else if (action.startsWith("playId:")) {
+        this._emit("playrequest", { id: action.slice(7) });
       } else if (action.startsWith("seekTo:")) {
         const posMs = parseInt(action.split(":")[1], 10);
         if (!isNaN(posMs)) {
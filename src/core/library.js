@@ -1,7 +1,14 @@
 import tracksData from "../data/tracks.json";
-import { scanner } from "./scanner.js";
+import { scanner, localMediaUrl, rawMediaUri } from "./scanner.js";
 import { audioEngine } from "./audioEngine.js";
 
+// Home and discovery lists, evaluated natively against the whole library
+const SMART_RULES = [
+  { key: "mostPlayed", type: "mostPlayed", limit: 20 },
+  { key: "recentlyAdded", type: "recentlyAdded", limit: 20 },
+  { key: "forgotten", type: "forgotten", limit: 20 },
+];
+
 class Library {
   constructor() {
     this.tracks = tracksData.tracks || [];
@@ -11,11 +18,14 @@ class Library {
     this._playlists = this._loadPlaylists();
     this._recentlyPlayed = this._loadRecent();
     this._playCounts = this._loadPlayCounts();
-    this._playCounts = this._loadPlayCounts();
+    this._nativeUserData = false;
+    this._smartLists = null;
     this._scannedFolders = this._loadScannedFolders();
     this.autoScan = localStorage.getItem("flow_autoscan") !== "false";
     this._listeners = {};
     this._initialized = false;
+    this._rescanTimer = null;
+    this._aliases = new Map();
   }
 
   _saveToLocal() {
@@ -29,11 +39,15 @@ class Library {
     if (this._initialized) return;
     this._initialized = true;
 
-    const cached = this._loadCachedLibrary();
+    await this._loadNativeUserData();
+
+    const cached =
+      (await scanner.loadSnapshot()) || this._loadCachedLibrary();
     if (cached && cached.tracks && cached.tracks.length > 0) {
       this.tracks = cached.tracks;
       this.albums = cached.albums || [];
       this.artists = cached.artists || [];
+      await this._collapseDuplicates();
       this._enrichAlbums();
       this._enrichArtists();
       this._emit("updated", {
@@ -41,45 +55,60 @@ class Library {
         albums: this.albums.length,
         artists: this.artists.length,
       });
+      this._refreshSmartPlaylists();
 
       if (this.autoScan) {
-        this.rescan().catch(() => {});
+        this._fullScan().catch(() => {});
       }
       return;
     }
 
     try {
-      const result = await scanner.scan();
-      let allTracks = result.tracks || [];
-      let allAlbums = result.albums || [];
-      let allArtists = result.artists || [];
+      await this._fullScan();
+    } catch (err) {
+      console.warn("Library init scan failed, using demo data:", err);
+    }
+  }
 
-      for (const folder of this._scannedFolders) {
-        try {
-          const folderResult = await scanner.scanFolder(folder.uri);
-          if (folderResult) {
-            this._mergeResults(folderResult, allTracks, allAlbums, allArtists);
-          }
-        } catch (e) {
-          console.warn(`Scan failed for folder ${folder.name}:`, e);
+  /**
+   * Scans MediaStore and every added folder, replacing the library with the
+   * result. Never reads the snapshot, so it is safe to call from init().
+   */
+  async _fullScan() {
+    const result = await scanner.scan();
+    let allTracks = result.tracks || [];
+    let allAlbums = result.albums || [];
+    let allArtists = result.artists || [];
+
+    for (const folder of this._scannedFolders) {
+      try {
+        const folderResult = await scanner.scanFolder(folder.uri);
+        if (folderResult) {
+          this._mergeResults(folderResult, allTracks, allAlbums, allArtists);
         }
+      } catch (e) {
+        console.warn(`Scan failed for folder ${folder.name}:`, e);
       }
+    }
 
-      if (allTracks.length > 0) {
-        this.tracks = allTracks;
-        this.albums = allAlbums;
-        this.artists = allArtists;
-        this._enrichAlbums();
-        this._enrichArtists();
-        this._saveCachedLibrary();
-        this._emit("updated", {
-          tracks: this.tracks.length,
-          albums: this.albums.length,
-          artists: this.artists.length,
-        });
-      }
+    if (allTracks.length > 0) {
+      this.tracks = allTracks;
+      this.albums = allAlbums;
+      this.artists = allArtists;
+      await this._collapseDuplicates();
+      this._enrichAlbums();
+      this._enrichArtists();
+      this._saveCachedLibrary();
+      this._refreshSmartPlaylists();
+      this._emit("updated", {
+        tracks: this.tracks.length,
+        albums: this.albums.length,
+        artists: this.artists.length,
+      });
+    }
 
-      setInterval(
+    if (!this._rescanTimer) {
+      this._rescanTimer = setInterval(
         () => {
           if (this.autoScan) {
             this.rescanHidden().catch(() => {});
@@ -87,8 +116,6 @@ class Library {
         },
         5 * 60 * 1000,
       );
-    } catch (err) {
-      console.warn("Library init scan failed, using demo data:", err);
     }
   }
 
@@ -100,7 +127,9 @@ class Library {
       let allArtists = result.artists || [];
 
       for (const folder of this._scannedFolders) {
-        const folderResult = await scanner.scanFolder(folder.uri);
+        const folderResult = await scanner.scanFolder(folder.uri, {
+          background: true,
+        });
         if (folderResult) {
           this._mergeResults(folderResult, allTracks, allAlbums, allArtists);
         }
@@ -110,9 +139,11 @@ class Library {
         this.tracks = allTracks;
         this.albums = allAlbums;
         this.artists = allArtists;
+        await this._collapseDuplicates();
         this._enrichAlbums();
         this._enrichArtists();
         this._saveCachedLibrary();
+        this._refreshSmartPlaylists();
         this._emit("updated");
       }
     } catch (e) {
@@ -120,6 +151,92 @@ class Library {
     }
   }
 
+  /**
+   * Switches play counts, recents, favorites and playlists to the native
+   * append-only store, which replaces rewriting whole localStorage entries
+   * on every play or toggle.
+   */
+  async _loadNativeUserData() {
+    const data = await scanner.loadUserData({
+      favorites: this._favorites,
+      playlists: this._playlists,
+      recent: this._recentlyPlayed,
+      playCounts: this._playCounts,
+    });
+    if (!data) return;
+
+    this._favorites = data.favorites || [];
+    this._playlists = data.playlists || [];
+    this._recentlyPlayed = (data.recent || []).slice(0, 20);
+    this._playCounts = data.playCounts || {};
+    this._nativeUserData = true;
+
+    // Older builds saved covers as media handler URLs; keep the raw URI
+    this._playlists.forEach((pl) => {
+      const raw = rawMediaUri(pl.cover);
+      if (raw === (pl.cover || "")) return;
+      pl.cover = raw;
+      scanner.updateUserData("setPlaylistCover", {
+        playlistId: pl.id,
+        cover: raw,
+      });
+    });
+  }
+
+  /**
+   * Fetches the native top-K lists and resolves them to tracks once, so
+   * rendering home or discovery doesn't sort the whole library.
+   */
+  async _refreshSmartPlaylists() {
+    if (!this._nativeUserData) return;
+    const result = await scanner.getSmartPlaylists(SMART_RULES);
+    if (!result) return;
+
+    const byId = new Map(this.tracks.map((t) => [t.id, t]));
+    const lists = {};
+    let changed = !this._smartLists;
+    for (const rule of SMART_RULES) {
+      const ids = result[rule.key] || [];
+      lists[rule.key] = ids.map((id) => byId.get(id)).filter(Boolean);
+      const previous = this._smartLists && this._smartLists[rule.key];
+      if (!previous || previous.map((t) => t.id).join() !== ids.join()) {
+        changed = true;
+      }
+    }
+    this._smartLists = lists;
+    if (changed) this._emit("updated");
+  }
+
+  /**
+   * Hides the extra copies of songs the native dedup job confirmed by
+   * fingerprint, keeping one track per cluster. IDs of hidden copies stay
+   * resolvable so playlists and recents that saved them keep working.
+   */
+  async _collapseDuplicates() {
+    const clusters = await scanner.getDuplicates();
+    const present = new Set(this.tracks.map((t) => t.id));
+    const aliases = new Map();
+    for (const cluster of clusters) {
+      if (!present.has(cluster.keep)) continue;
+      for (const id of cluster.ids) {
+        if (id !== cluster.keep && present.has(id)) {
+          aliases.set(id, cluster.keep);
+        }
+      }
+    }
+    this._aliases = aliases;
+    if (aliases.size === 0) return;
+
+    this.tracks = this.tracks.filter((t) => !aliases.has(t.id));
+    this.albums = this.albums.filter((album) => {
+      if (album.trackIds && album.trackIds.length > 0) {
+        album.trackIds = album.trackIds.filter((id) => !aliases.has(id));
+        return album.trackIds.length > 0;
+      }
+      return true;
+    });
+  }
+
   _enrichAlbums() {
     this.albums.forEach((album) => {
       if (!album.trackIds || album.trackIds.length === 0) {
@@ -145,6 +262,12 @@ class Library {
   }
 
   _saveCachedLibrary() {
+    // On device the scanner keeps a binary snapshot natively
+    if (scanner.isNative()) {
+      localStorage.removeItem("flow_library_cache");
+      localStorage.removeItem("zplayer_scan_cache");
+      return;
+    }
     try {
       localStorage.setItem(
         "flow_library_cache",
@@ -201,6 +324,7 @@ class Library {
         this._enrichAlbums();
         this._enrichArtists();
         this._saveCachedLibrary();
+        this._refreshSmartPlaylists();
 
         this._emit("updated", {
           tracks: this.tracks.length,
@@ -246,6 +370,7 @@ class Library {
         this._enrichAlbums();
         this._enrichArtists();
         this._saveCachedLibrary();
+        this._refreshSmartPlaylists();
 
         this._emit("updated", {
           tracks: this.tracks.length,
@@ -266,10 +391,22 @@ class Library {
     return this._scannedFolders;
   }
 
-  removeScannedFolder(uri) {
+  async removeScannedFolder(uri) {
     this._scannedFolders = this._scannedFolders.filter((f) => f.uri !== uri);
     this._saveScannedFolders();
     this._emit("updated");
+
+    // The native index drops the folder's tracks; reload so they leave the UI
+    if (!(await scanner.removeFolder(uri))) return;
+    const snapshot = await scanner.loadSnapshot();
+    this.tracks = snapshot ? snapshot.tracks : [];
+    this.albums = snapshot ? snapshot.albums : [];
+    this.artists = snapshot ? snapshot.artists : [];
+    await this._collapseDuplicates();
+    this._enrichAlbums();
+    this._enrichArtists();
+    this._refreshSmartPlaylists();
+    this._emit("updated");
   }
 
   _loadScannedFolders() {
@@ -323,8 +460,7 @@ class Library {
   async rescan() {
     localStorage.removeItem("flow_library_cache");
     localStorage.removeItem("zplayer_scan_cache");
-    this._initialized = false;
-    return this.init();
+    return this._fullScan();
   }
 
   setAutoScan(enabled) {
@@ -350,7 +486,8 @@ class Library {
   }
 
   getTrackById(id) {
-    return this.tracks.find((t) => t.id === id);
+    const keep = this._aliases.get(id) || id;
+    return this.tracks.find((t) => t.id === keep);
   }
 
   getTracksByAlbum(albumId) {
@@ -502,7 +639,14 @@ class Library {
     } else {
       this._favorites.push(trackId);
     }
-    this._saveFavorites();
+    if (this._nativeUserData) {
+      scanner.updateUserData("toggleFavorite", {
+        trackId,
+        favorite: idx < 0,
+      });
+    } else {
+      this._saveFavorites();
+    }
     return this.isFavorite(trackId);
   }
 
@@ -517,6 +661,25 @@ class Library {
     localStorage.setItem("zplayer_favorites", JSON.stringify(this._favorites));
   }
 
+  /**
+   * Forgets favorites, playlists, recents and play counts, wherever they live.
+   */
+  async clearUserData() {
+    [
+      "zplayer_recent",
+      "zplayer_favorites",
+      "zplayer_playlists",
+      "zplayer_playcounts",
+    ].forEach((k) => localStorage.removeItem(k));
+    this._favorites = [];
+    this._playlists = [];
+    this._recentlyPlayed = [];
+    this._playCounts = {};
+    this._smartLists = null;
+    if (this._nativeUserData) await scanner.clearUserData();
+    this._emit("updated");
+  }
+
   getPlaylists() {
     return this._playlists;
   }
@@ -530,6 +693,17 @@ class Library {
     return this._playlists.find((p) => p.id === id);
   }
 
+  /**
+   * Display URL for a playlist's cover, falling back to its first track's.
+   * @param {Object} playlist
+   * @returns {string}
+   */
+  getPlaylistCover(playlist) {
+    if (playlist.cover) return localMediaUrl(playlist.cover, "art");
+    const first = this.getPlaylistTracks(playlist.id)[0];
+    return first ? first.cover || "" : "";
+  }
+
   getPlaylistTracks(playlistId) {
     const pl = this.getPlaylistById(playlistId);
     if (!pl) return [];
@@ -545,28 +719,80 @@ class Library {
       createdAt: Date.now(),
     };
     this._playlists.push(playlist);
-    this._savePlaylists();
+    if (this._nativeUserData) {
+      scanner.updateUserData("createPlaylist", {
+        id: playlist.id,
+        name,
+        createdAt: playlist.createdAt,
+      });
+    } else {
+      this._savePlaylists();
+    }
     return playlist;
   }
 
+  /**
+   * Imports an M3U/M3U8/PLS file as a new playlist of the tracks it matched.
+   * @returns {Promise<Object|null>} { playlist, total, missing }, or null when cancelled
+   */
+  async importPlaylist() {
+    const result = await scanner.importPlaylist({
+      create: this._nativeUserData,
+    });
+    if (!result) return null;
+
+    let playlist = result.playlist;
+    if (!playlist) {
+      playlist = {
+        id: "pl_" + Date.now(),
+        name: result.name,
+        trackIds: [...new Set(result.trackIds)],
+        cover: null,
+        createdAt: Date.now(),
+      };
+    }
+    this._playlists.push(playlist);
+    if (!this._nativeUserData) this._savePlaylists();
+    this._emit("updated");
+    return { playlist, total: result.total, missing: result.missing };
+  }
+
   deletePlaylist(id) {
     this._playlists = this._playlists.filter((p) => p.id !== id);
-    this._savePlaylists();
+    if (this._nativeUserData) {
+      scanner.updateUserData("deletePlaylist", { playlistId: id });
+    } else {
+      this._savePlaylists();
+    }
   }
 
   renamePlaylist(id, newName) {
     const pl = this.getPlaylistById(id);
     if (pl) {
       pl.name = newName;
-      this._savePlaylists();
+      if (this._nativeUserData) {
+        scanner.updateUserData("renamePlaylist", {
+          playlistId: id,
+          name: newName,
+        });
+      } else {
+        this._savePlaylists();
+      }
     }
   }
 
   updatePlaylistCover(id, coverUrl) {
     const pl = this.getPlaylistById(id);
     if (pl) {
-      pl.cover = coverUrl;
-      this._savePlaylists();
+      pl.cover = rawMediaUri(coverUrl);
+      if (this._nativeUserData) {
+        scanner.updateUserData("setPlaylistCover", {
+          playlistId: id,
+          cover: pl.cover,
+        });
+      } else {
+        this._savePlaylists();
+      }
       this._emit("updated");
     }
   }
@@ -590,9 +816,19 @@ class Library {
       pl.trackIds.push(trackId);
       if (!pl.cover) {
         const track = this.getTrackById(trackId);
-        if (track) pl.cover = track.cover;
+        if (track) pl.cover = track.rawCover || rawMediaUri(track.cover);
+      }
+      if (this._nativeUserData) {
+        scanner.updateUserData("addToPlaylist", { playlistId, trackId });
+        if (pl.cover) {
+          scanner.updateUserData("setPlaylistCover", {
+            playlistId,
+            cover: pl.cover,
+          });
+        }
+      } else {
+        this._savePlaylists();
       }
-      this._savePlaylists();
       return true;
     }
     return false;
@@ -602,7 +838,11 @@ class Library {
     const pl = this.getPlaylistById(playlistId);
     if (pl) {
       pl.trackIds = pl.trackIds.filter((id) => id !== trackId);
-      this._savePlaylists();
+      if (this._nativeUserData) {
+        scanner.updateUserData("removeFromPlaylist", { playlistId, trackId });
+      } else {
+        this._savePlaylists();
+      }
     }
   }
 
@@ -629,7 +869,8 @@ class Library {
     if (this._recentlyPlayed.length > 20) {
       this._recentlyPlayed = this._recentlyPlayed.slice(0, 20);
     }
-    this._saveRecent();
+    // Natively, MediaPlaybackService records recents when the track starts
+    if (!this._nativeUserData) this._saveRecent();
   }
 
   _loadRecent() {
@@ -649,6 +890,7 @@ class Library {
   }
 
   getRecentlyAdded(limit = 20) {
+    if (this._smartLists) return this._smartLists.recentlyAdded.slice(0, limit);
     return [...this.tracks]
       .sort(
         (a, b) =>
@@ -658,7 +900,12 @@ class Library {
   }
 
   getForgottenTracks(limit = 20) {
-    const counts = this._loadPlayCounts();
+    const counts = this._playCounts;
+    if (this._smartLists) {
+      return this._smartLists.forgotten
+        .slice(0, limit)
+        .map((t) => ({ ...t, plays: counts[t.id] || 0 }));
+    }
     return [...this.tracks]
       .map((t) => ({ ...t, plays: counts[t.id] || 0 }))
       .sort((a, b) => a.plays - b.plays)
@@ -677,7 +924,12 @@ class Library {
   }
 
   getMostPlayed(limit = 20) {
-    const counts = this._loadPlayCounts();
+    const counts = this._playCounts;
+    if (this._smartLists) {
+      return this._smartLists.mostPlayed
+        .slice(0, limit)
+        .map((t) => ({ ...t, plays: counts[t.id] || 0 }));
+    }
     return [...this.tracks]
       .map((t) => ({ ...t, plays: counts[t.id] || 0 }))
       .filter((t) => t.plays > 0)
@@ -686,9 +938,14 @@ class Library {
   }
 
   incrementPlayCount(trackId) {
-    const counts = this._loadPlayCounts();
+    const counts = this._playCounts;
     counts[trackId] = (counts[trackId] || 0) + 1;
-    localStorage.setItem("zplayer_playcounts", JSON.stringify(counts));
+    if (this._nativeUserData) {
+      scanner.updateUserData("recordPlay", { trackId });
+      this._refreshSmartPlaylists();
+    } else {
+      localStorage.setItem("zplayer_playcounts", JSON.stringify(counts));
+    }
     this._emit("updated");
   }
 
@@ -1,5 +1,9 @@
 import { Filesystem, Directory } from "@capacitor/filesystem";
-import { Capacitor } from "@capacitor/core";
+import { Capacitor, registerPlugin } from "@capacitor/core";
+
+const MusicScanner = Capacitor.isNativePlatform()
+  ? registerPlugin("ZMusicScanner")
+  : null;
 
 export class LRCHandler {
   constructor() {
@@ -60,6 +64,25 @@ export class LRCHandler {
     return lyrics;
   }
 
+  /**
+   * Serialize timed lyric objects back to LRC, e.g. to hand them to the
+   * native playback clock. Lines without a time are dropped.
+   * @param {Array<{time: number, text: string}>} lyrics
+   * @returns {string}
+   */
+  toLrc(lyrics) {
+    return lyrics
+      .filter((line) => Number.isFinite(line.time))
+      .map((line) => {
+        const ms = Math.round(line.time * 1000);
+        const minutes = Math.floor(ms / 60000);
+        const seconds = Math.floor((ms % 60000) / 1000);
+        const stamp = `${String(minutes).padStart(2, "0")}:${String(seconds).padStart(2, "0")}.${String(ms % 1000).padStart(3, "0")}`;
+        return `[${stamp}]${line.text}`;
+      })
+      .join("\n");
+  }
+
   /**
    * Fetch and parse an LRC file
    * @param {string} url - URL to the .lrc file
@@ -86,6 +109,33 @@ export class LRCHandler {
     }
   }
 
+  /**
+   * Read lyrics pre-parsed by the native scanner (sidecar .lrc/.txt or embedded tags)
+   * @param {string} trackId
+   * @returns {Promise<Array|null>}
+   */
+  async fetchNative(trackId) {
+    if (!MusicScanner || !trackId) return null;
+    const cacheKey = `native:${trackId}`;
+    if (this.cache.has(cacheKey)) return this.cache.get(cacheKey);
+
+    try {
+      const result = await MusicScanner.getLyrics({ trackId });
+      if (!result.found || !result.lines || !result.lines.length) return null;
+
+      // Unsynced lyrics carry no timing, so keep them out of line highlighting
+      const lyrics = result.lines.map((line) => ({
+        time: result.synced ? line.time : NaN,
+        text: line.text,
+      }));
+      this.cache.set(cacheKey, lyrics);
+      return lyrics;
+    } catch (error) {
+      console.warn("Native lyrics lookup failed:", error);
+      return null;
+    }
+  }
+
   /**
    * Read LRC from local device storage
    * @param {string} path - Absolute path or filename if directory is provided
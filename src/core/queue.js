@@ -7,6 +7,10 @@ class QueueManager {
     this.currentIndex = -1;
     this.history = [];
     this._listeners = {};
+    this._saveTimer = null;
+
+    this.on("queuechange", () => this._saveSession());
+    this.on("trackchange", () => this._saveSession());
 
     audioEngine.on("ended", () => this.playNext());
     audioEngine.on("next", () => this.playNext());
@@ -241,6 +245,36 @@ class QueueManager {
     return result;
   }
 
+  /**
+   * Restores a saved queue with the current track loaded at a position,
+   * paused unless autoplay is set.
+   * @param {Object[]} tracks
+   * @param {number} index
+   * @param {number} position - seconds
+   * @param {boolean} autoplay
+   */
+  restore(tracks, index, position, autoplay) {
+    if (tracks.length === 0) return;
+    this.queue = [...tracks];
+    this.originalQueue = [...tracks];
+    this.currentIndex = Math.max(0, Math.min(index, tracks.length - 1));
+
+    const track = this.getCurrentTrack();
+    audioEngine.play(track, false, { startAt: position, paused: !autoplay });
+    this._syncPreload();
+    this._emit("trackchange", { track, index: this.currentIndex });
+  }
+
+  _saveSession() {
+    clearTimeout(this._saveTimer);
+    this._saveTimer = setTimeout(() => {
+      audioEngine.saveQueue(
+        this.queue.map((t) => t.id),
+        this.currentIndex,
+      );
+    }, 500);
+  }
+
   _playCurrentTrack() {
     const track = this.getCurrentTrack();
     if (track) {
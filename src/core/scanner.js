@@ -21,11 +21,53 @@ function convertUri(uri) {
   }
 }
 
+const MEDIA_PATH = "/_flow_media_/";
+
+/**
+ * Builds a URL served by the native local media handler, which streams
+ * straight from a file descriptor and honours Range requests for seeking.
+ * The URL depends on the WebView origin, so it is only for rendering;
+ * anything persisted keeps the raw URI.
+ * @param {string} uri - content:// URI, file:// URI or absolute path
+ * @param {"audio"|"art"} kind
+ * @returns {string}
+ */
+export function localMediaUrl(uri, kind) {
+  if (!uri) return "";
+  if (uri.startsWith("http") || uri.startsWith("data:")) return uri;
+  if (!Capacitor.isNativePlatform()) return convertUri(uri);
+  const query = `uri=${encodeURIComponent(uri)}`;
+  return `${window.location.origin}${MEDIA_PATH}${kind}?${query}`;
+}
+
+/**
+ * Inverse of localMediaUrl: the raw URI behind a media handler URL, or the
+ * value unchanged if it isn't one (also unwraps URLs saved by older builds).
+ * @param {string} url
+ * @returns {string}
+ */
+export function rawMediaUri(url) {
+  if (!url || !url.startsWith("http") || !url.includes(MEDIA_PATH)) {
+    return url || "";
+  }
+  try {
+    return new URL(url).searchParams.get("uri") || "";
+  } catch {
+    return url;
+  }
+}
+
 class LocalScanner {
   constructor() {
     this._cachedResult = null;
     this._isScanning = false;
     this._listeners = {};
+
+    if (this.isNative()) {
+      MusicScanner.addListener("scanProgress", (data) =>
+        this._emit("scanprogress", data),
+      );
+    }
   }
 
   isNative() {
@@ -68,18 +110,25 @@ class LocalScanner {
   }
 
   /**
-   * Scans a specific folder for music files
+   * Scans a specific folder for music files. The walk runs as a native job
+   * that resumes after interruption; progress arrives as "scanprogress".
    * @param {string} folderUri
+   * @param {Object} [options]
+   * @param {boolean} [options.background] - answer from the last complete
+   *   scan, if any, and refresh when the device is idle and charging
    * @returns {Promise<Object>}
    */
-  async scanFolder(folderUri) {
+  async scanFolder(folderUri, options = {}) {
     if (!this.isNative()) return this._getDemoData();
 
     this._isScanning = true;
     this._emit("scanstart");
 
     try {
-      const result = await MusicScanner.scanFolder({ folderUri });
+      const result = await MusicScanner.scanFolder({
+        folderUri,
+        background: !!options.background,
+      });
       const processed = this._processNativeResult(result);
 
       const current = this.getCached();
@@ -95,7 +144,11 @@ class LocalScanner {
       this._cachedResult = finalResult;
 
       this._isScanning = false;
-      this._emit("scancomplete", { count: processed.tracks.length });
+      this._emit("scancomplete", {
+        count: processed.tracks.length,
+        concurrency: result.concurrency,
+        throughput: result.throughput,
+      });
       return finalResult;
     } catch (err) {
       console.error("Folder scan failed:", err);
@@ -144,11 +197,6 @@ class LocalScanner {
       });
       this._cachedResult = processed;
 
-      try {
-        localStorage.setItem("zplayer_scan_cache", JSON.stringify(processed));
-        localStorage.setItem("zplayer_scan_time", Date.now().toString());
-      } catch {}
-
       this._isScanning = false;
       this._emit("scancomplete", { count: processed.tracks.length });
       return processed;
@@ -157,7 +205,53 @@ class LocalScanner {
       this._isScanning = false;
       this._emit("scanerror", { error: err.message });
 
-      return this._getCachedData() || this._getDemoData();
+      return this.getCached();
+    }
+  }
+
+  /**
+   * Loads the library from the native binary snapshot written by the last
+   * scan, in pages, instead of a JSON copy in localStorage.
+   * @returns {Promise<Object|null>} null when there is no snapshot yet
+   */
+  async loadSnapshot() {
+    if (!this.isNative()) return null;
+    try {
+      const first = await MusicScanner.getLibrary({ offset: 0 });
+      if (!first.total) return null;
+
+      const tracks = [...first.tracks];
+      while (tracks.length < first.total) {
+        const page = await MusicScanner.getLibrary({ offset: tracks.length });
+        if (!page.tracks || page.tracks.length === 0) break;
+        tracks.push(...page.tracks);
+      }
+
+      this._cachedResult = this._processNativeResult({
+        tracks,
+        albums: first.albums || [],
+        artists: first.artists || [],
+      });
+      return this._cachedResult;
+    } catch (err) {
+      console.warn("Library snapshot unavailable:", err);
+      return null;
+    }
+  }
+
+  /**
+   * Drops a removed folder's tracks, checkpoint and queued scans natively.
+   * @param {string} folderUri
+   * @returns {Promise<boolean>} false off-device or on failure
+   */
+  async removeFolder(folderUri) {
+    if (!this.isNative()) return false;
+    try {
+      await MusicScanner.removeFolder({ folderUri });
+      return true;
+    } catch (err) {
+      console.warn("Folder removal failed:", err);
+      return false;
     }
   }
 
@@ -173,6 +267,110 @@ class LocalScanner {
     }
   }
 
+  /**
+   * Loads play counts, recents, favorites and playlists from the native
+   * store, importing the given localStorage data first if it never was.
+   * @param {Object} legacy - { favorites, playlists, recent, playCounts }
+   * @returns {Promise<Object|null>} null when there is no native store
+   */
+  async loadUserData(legacy) {
+    if (!this.isNative()) return null;
+    try {
+      const data = await MusicScanner.getUserData();
+      if (data.migrated) return data;
+      return await MusicScanner.importUserData(legacy);
+    } catch (err) {
+      console.warn("Native user data unavailable:", err);
+      return null;
+    }
+  }
+
+  /**
+   * Evaluates smart playlist rules natively.
+   * @param {Array<Object>} rules - [{ key, type, limit, ...params }]
+   * @returns {Promise<Object|null>} { key: [trackIds] }, or null off-device
+   */
+  async getSmartPlaylists(rules) {
+    if (!this.isNative()) return null;
+    try {
+      return await MusicScanner.getSmartPlaylists({ rules });
+    } catch (err) {
+      console.warn("Smart playlists failed:", err);
+      return null;
+    }
+  }
+
+  /**
+   * Imports an M3U/M3U8/PLS playlist, letting the user pick the file unless
+   * a URI is given, and resolves its entries against the library natively.
+   * @param {Object} options - { uri?, name?, create = true }
+   * @returns {Promise<Object|null>} { name, total, trackIds, missing, playlist? },
+   *   or null when cancelled or off-device
+   */
+  async importPlaylist(options = {}) {
+    if (!this.isNative()) return null;
+    try {
+      return await MusicScanner.importPlaylist(options);
+    } catch (err) {
+      console.warn("Playlist import failed:", err);
+      return null;
+    }
+  }
+
+  /**
+   * Memory and disk held by each native cache, plus the Java heap.
+   * @returns {Promise<Object|null>} null off-device
+   */
+  async getCacheStats() {
+    if (!this.isNative()) return null;
+    try {
+      return await MusicScanner.getCacheStats();
+    } catch (err) {
+      console.warn("Cache stats unavailable:", err);
+      return null;
+    }
+  }
+
+  /**
+   * Duplicate clusters confirmed by the last background fingerprint pass.
+   * @returns {Promise<Array<{ids: string[], keep: string}>>}
+   */
+  async getDuplicates() {
+    if (!this.isNative()) return [];
+    try {
+      const result = await MusicScanner.getDuplicates();
+      return result.clusters || [];
+    } catch (err) {
+      console.warn("Duplicates unavailable:", err);
+      return [];
+    }
+  }
+
+  /**
+   * Wipes play counts, recents, favorites and playlists from the native store.
+   * @returns {Promise<void>}
+   */
+  async clearUserData() {
+    if (!this.isNative()) return;
+    try {
+      await MusicScanner.clearUserData();
+    } catch (err) {
+      console.warn("Clearing user data failed:", err);
+    }
+  }
+
+  /**
+   * Fire-and-forget write to the native user data store.
+   * @param {string} method - e.g. "recordPlay", "addToPlaylist"
+   * @param {Object} options
+   */
+  updateUserData(method, options) {
+    if (!this.isNative()) return;
+    MusicScanner[method](options).catch((err) =>
+      console.warn(`User data ${method} failed:`, err),
+    );
+  }
+
   getCached() {
     if (this._cachedResult) return this._cachedResult;
     return this._getCachedData() || this._getDemoData();
@@ -231,17 +429,23 @@ class LocalScanner {
       ...a,
       trackIds: albumTrackMap[a.id] || [],
       artistId: albumArtistMap[a.id] || a.artistId || "",
-      cover: convertUri(a.cover),
+      rawCover: a.rawCover || rawMediaUri(a.cover),
+      cover: localMediaUrl(a.rawCover || rawMediaUri(a.cover), "art"),
       genre: a.genre || "",
     }));
 
-    const enrichedTracks = tracks.map((t) => ({
-      ...t,
-      src: convertUri(t.contentUri || t.src || ""),
-      rawCover: t.cover || "",
-      rawContentUri: t.contentUri || "",
-      cover: convertUri(t.cover),
-    }));
+    // Also runs over tracks it already processed, so the raw values win
+    const enrichedTracks = tracks.map((t) => {
+      const rawCover = t.rawCover || rawMediaUri(t.cover);
+      const rawSrc = t.rawContentUri || t.contentUri || rawMediaUri(t.src);
+      return {
+        ...t,
+        src: localMediaUrl(rawSrc, "audio"),
+        rawCover,
+        rawContentUri: t.contentUri || t.rawContentUri || "",
+        cover: localMediaUrl(rawCover, "art"),
+      };
+    });
 
     return {
       tracks: enrichedTracks,
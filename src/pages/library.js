@@ -1,5 +1,6 @@
 import { icons } from "../core/icons.js";
 import { musicLibrary } from "../core/library.js";
+import { scanner } from "../core/scanner.js";
 import { queueManager } from "../core/queue.js";
 import { audioEngine } from "../core/audioEngine.js";
 import { router } from "../router.js";
@@ -369,11 +370,36 @@ function renderPlaylistsTab(container) {
   });
   container.appendChild(createBtn);
 
+  if (scanner.isNative()) {
+    const importBtn = createElement("button", "featured-card");
+    importBtn.style.marginBottom = "var(--sp-4)";
+    importBtn.style.border = "1px dashed var(--border-light)";
+    importBtn.style.background = "transparent";
+    importBtn.innerHTML = `
+      <div style="width: 64px; height: 64px; display: flex; align-items: center; justify-content: center; color: var(--text-secondary);">
+        ${icons.folder}
+      </div>
+      <span class="featured-card-title" style="color: var(--text-secondary);">Import Playlist</span>
+    `;
+    importBtn.addEventListener("click", async () => {
+      const imported = await musicLibrary.importPlaylist();
+      if (!imported) return;
+      const { playlist, total, missing } = imported;
+      store.showToast(
+        missing.length
+          ? `Imported "${playlist.name}", ${total - missing.length} of ${total} found`
+          : `Imported "${playlist.name}"`,
+      );
+      router.navigate(`#/playlist/${playlist.id}`);
+    });
+    container.appendChild(importBtn);
+  }
+
   if (playlists.length === 0) return;
 
   playlists.forEach((playlist) => {
     const tracks = musicLibrary.getPlaylistTracks(playlist.id);
-    const coverUrl = playlist.cover || tracks[0]?.cover;
+    const coverUrl = musicLibrary.getPlaylistCover(playlist);
     const card = createElement("div", "featured-card");
     card.style.marginBottom = "var(--sp-2)";
     card.innerHTML = `
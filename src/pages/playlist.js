@@ -17,7 +17,7 @@ export function renderPlaylist(container, params) {
 
   const tracks = musicLibrary.getPlaylistTracks(playlist.id);
   const totalDuration = tracks.reduce((sum, t) => sum + t.duration, 0);
-  const coverArt = playlist.cover || tracks[0]?.cover || "";
+  const coverArt = musicLibrary.getPlaylistCover(playlist);
 
   const page = createElement("div", "page playlist-page");
 
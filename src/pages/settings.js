@@ -39,6 +39,9 @@ export function renderSettings(container) {
           </div>
         </div>
 
+        <!-- Equalizer (native only; filled in once the settings load) -->
+        <div id="eq-settings"></div>
+
       </div>
 
       <!-- Appearance Section -->
@@ -229,6 +232,145 @@ export function renderSettings(container) {
     if (container) container.style.display = val ? "block" : "none";
   });
 
+  const renderEqualizer = async () => {
+    const eq = await audioEngine.getEqualizer();
+    const eqContainer = page.querySelector("#eq-settings");
+    if (!eq || !eqContainer) return;
+
+    const label = (name) =>
+      name
+        .split("_")
+        .map((w) => w[0].toUpperCase() + w.slice(1))
+        .join(" ");
+    const gainModes = { off: "Off", track: "Track", album: "Album" };
+
+    eqContainer.innerHTML = `
+        <div class="setting-row">
+          <div class="setting-icon">${icons.equalizer}</div>
+          <div class="setting-content">
+            <span class="setting-title">Equalizer</span>
+            <span class="setting-subtitle">${
+              eq.refused
+                ? "Not supported on this device"
+                : "Android doesn't expose Flow's audio session, so this affects all audio while Flow is playing"
+            }</span>
+          </div>
+          <div class="setting-action">
+            <div class="premium-toggle ${eq.enabled ? "active" : ""}" id="eq-toggle">
+              <div class="toggle-thumb"></div>
+            </div>
+          </div>
+        </div>
+
+        <div class="setting-row" id="eq-options" style="${eq.enabled ? "" : "display: none;"}">
+          <div class="setting-content">
+            <span class="setting-title">Preset</span>
+            <div class="tabs" id="eq-presets" style="margin: 8px 0 12px;">
+              ${eq.presets
+                .map(
+                  (p) =>
+                    `<button class="tab ${eq.preset === p ? "active" : ""}" data-preset="${p}">${label(p)}</button>`,
+                )
+                .join("")}
+            </div>
+
+            <span class="setting-title">Bass Boost</span>
+            <input type="range" id="eq-bass-slider" min="0" max="100" step="5" value="${Math.round(eq.bassBoost * 100)}" class="premium-range" style="margin: 8px 0 12px;">
+
+            <span class="setting-title">Preamp</span>
+            <span class="setting-subtitle" id="eq-preamp-value">${eq.preamp} dB</span>
+            <input type="range" id="eq-preamp-slider" min="-12" max="12" step="0.5" value="${eq.preamp}" class="premium-range" style="margin: 0;">
+          </div>
+        </div>
+
+        ${
+          eq.engine === "dynamics"
+            ? `<div class="setting-row" id="eq-limiter-row" style="${eq.enabled ? "" : "display: none;"}">
+          <div class="setting-content">
+            <span class="setting-title">Limiter</span>
+            <span class="setting-subtitle">Prevent clipping from boosts</span>
+          </div>
+          <div class="setting-action">
+            <div class="premium-toggle ${eq.limiter ? "active" : ""}" id="eq-limiter-toggle">
+              <div class="toggle-thumb"></div>
+            </div>
+          </div>
+        </div>`
+            : ""
+        }
+
+        <div class="setting-row">
+          <div class="setting-content">
+            <span class="setting-title">Volume Normalization</span>
+            <span class="setting-subtitle">Applied to Flow only, using loudness from library analysis</span>
+            <div class="tabs" id="eq-gain-modes" style="margin: 8px 0 0;">
+              ${Object.entries(gainModes)
+                .map(
+                  ([mode, name]) =>
+                    `<button class="tab ${eq.gainMode === mode ? "active" : ""}" data-mode="${mode}">${name}</button>`,
+                )
+                .join("")}
+            </div>
+          </div>
+        </div>
+    `;
+
+    const selectTab = (group, btn) => {
+      group
+        .querySelectorAll(".tab")
+        .forEach((t) => t.classList.remove("active"));
+      btn.classList.add("active");
+    };
+
+    setupToggle("eq-toggle", (val) => {
+      audioEngine.setEqualizer({ enabled: val });
+      ["#eq-options", "#eq-limiter-row"].forEach((sel) => {
+        const row = eqContainer.querySelector(sel);
+        if (row) row.style.display = val ? "" : "none";
+      });
+    });
+    setupToggle("eq-limiter-toggle", (val) =>
+      audioEngine.setEqualizer({ limiter: val }),
+    );
+
+    const presets = eqContainer.querySelector("#eq-presets");
+    presets.querySelectorAll(".tab").forEach((btn) => {
+      btn.addEventListener("click", () => {
+        haptics.light();
+        selectTab(presets, btn);
+        audioEngine.setEqualizer({ preset: btn.dataset.preset });
+      });
+    });
+
+    const gainModeTabs = eqContainer.querySelector("#eq-gain-modes");
+    gainModeTabs.querySelectorAll(".tab").forEach((btn) => {
+      btn.addEventListener("click", () => {
+        haptics.light();
+        selectTab(gainModeTabs, btn);
+        audioEngine.setEqualizer({ gainMode: btn.dataset.mode });
+      });
+    });
+
+    const bassSlider = eqContainer.querySelector("#eq-bass-slider");
+    const preampSlider = eqContainer.querySelector("#eq-preamp-slider");
+    const preampDisplay = eqContainer.querySelector("#eq-preamp-value");
+    [bassSlider, preampSlider].forEach((slider) => {
+      ["input", "mousedown", "touchstart"].forEach((ev) => {
+        slider.addEventListener(ev, (e) => e.stopPropagation());
+      });
+    });
+    bassSlider.addEventListener("change", (e) => {
+      audioEngine.setEqualizer({ bassBoost: parseInt(e.target.value) / 100 });
+    });
+    preampSlider.addEventListener("input", (e) => {
+      preampDisplay.textContent = `${parseFloat(e.target.value)} dB`;
+    });
+    preampSlider.addEventListener("change", (e) => {
+      audioEngine.setEqualizer({ preamp: parseFloat(e.target.value) });
+    });
+  };
+  renderEqualizer();
+
   const minDurSlider = page.querySelector("#min-duration-slider");
   const minDurDisplay = page.querySelector("#min-dur-display");
   if (minDurSlider) {
@@ -319,7 +461,7 @@ export function renderSettings(container) {
 
   const resetDefaultsBtn = page.querySelector("#reset-defaults-btn");
   if (resetDefaultsBtn) {
-    resetDefaultsBtn.addEventListener("click", () => {
+    resetDefaultsBtn.addEventListener("click", async () => {
       haptics.medium();
       if (confirm("Reset all settings to default values?")) {
         [
@@ -329,10 +471,16 @@ export function renderSettings(container) {
           "flow_eq_gains",
           "flow_library_cache",
           "zplayer_scan_cache",
-          "zplayer_recent",
-          "zplayer_favorites",
-          "zplayer_playlists",
         ].forEach((k) => localStorage.removeItem(k));
+        await musicLibrary.clearUserData();
+        await audioEngine.setEqualizer({
+          enabled: false,
+          preset: "flat",
+          bassBoost: 0,
+          preamp: 0,
+          gainMode: "off",
+          limiter: true,
+        });
         audioEngine.setCrossfade(0);
         audioEngine.setPauseOnDisconnect(true);
         audioEngine.setPlayOnConnect(false);